@@ -0,0 +1,42 @@
+package de.cyberport.benchmarks;
+
+import de.cyberport.core.helpers.FilmCatalogGenerator;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexBuilder;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import org.apache.sling.api.resource.PersistenceException;
+
+/**
+ * Seeded synthetic film catalogs of arbitrary size for the benchmarks.
+ *
+ * @author Sentham
+ */
+public final class BenchmarkCatalog {
+
+    public static final String CONTAINER_PATH = "/content/oscars";
+
+    private BenchmarkCatalog() {
+    }
+
+    /**
+     * @param size Number of films
+     * @return Index of a synthetic catalog with the given number of films
+     */
+    public static FilmIndex index(int size) {
+        FilmIndexBuilder builder = new FilmIndexBuilder(CONTAINER_PATH);
+        new FilmCatalogGenerator().forEach(size, builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Creates a film container with the given number of films in the mock repository
+     * @param context The AEM context
+     * @param size Number of films
+     * @param layout Flat or bucketed container
+     * @throws PersistenceException If creating the resources fails
+     */
+    public static void load(AemContext context, int size, FilmCatalogGenerator.Layout layout) throws PersistenceException {
+        context.create().resource("/content");
+        new FilmCatalogGenerator().load(context.resourceResolver(), CONTAINER_PATH, size, layout);
+    }
+}
@@ -0,0 +1,73 @@
+package de.cyberport.benchmarks;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.search.FilmFilter;
+import de.cyberport.core.search.OscarQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Filtering stage: intersecting the bitmap indexes versus testing every film with the
+ * {@link de.cyberport.core.utils.OscarUtils} based predicates.
+ *
+ * @author Sentham
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int catalogSize;
+
+    private FilmIndex index;
+
+    private OscarQuery query;
+
+    @Setup
+    public void setUp() {
+        index = BenchmarkCatalog.index(catalogSize);
+        Map<String, String> params = new HashMap<>();
+        params.put("minYear", "2000");
+        params.put("maxYear", "2003");
+        params.put("minAwards", "4");
+        params.put("nominations", "13");
+        query = OscarQuery.fromParameters(params::get);
+    }
+
+    @Benchmark
+    public BitSet bitmapIntersection() {
+        BitSet candidates = index.all();
+        for (FilmFilter filter : query.getFilters()) {
+            candidates.and(filter.select(index));
+        }
+        return candidates;
+    }
+
+    @Benchmark
+    public BitSet predicateScan() {
+        BitSet matches = new BitSet(index.size());
+        for (int ordinal = 0; ordinal < index.size(); ordinal++) {
+            boolean matching = true;
+            for (FilmFilter filter : query.getFilters()) {
+                matching = matching && filter.test(index, ordinal);
+            }
+            matches.set(ordinal, matching);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,45 @@
+package de.cyberport.benchmarks;
+
+import de.cyberport.core.search.OscarQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parsing and compiling the request parameters into an {@link OscarQuery}.
+ *
+ * @author Sentham
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryParsingBenchmark {
+
+    private final Map<String, String> params = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        params.put("minYear", "2000");
+        params.put("maxYear", "2003");
+        params.put("minAwards", "4");
+        params.put("nominations", "13");
+        params.put("sortBy", "title");
+        params.put("limit", "10");
+    }
+
+    @Benchmark
+    public OscarQuery parse() {
+        return OscarQuery.fromParameters(params::get);
+    }
+}
@@ -0,0 +1,166 @@
+package de.cyberport.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.metrics.ByteCountingOutputStream;
+import de.cyberport.core.metrics.SearchTrace;
+import de.cyberport.core.search.FilmResult;
+import de.cyberport.core.search.FilmStream;
+import de.cyberport.core.search.OscarQuery;
+import de.cyberport.core.servlets.FilmJsonWriter;
+import de.cyberport.core.servlets.OscarConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+import java.util.stream.IntStream;
+
+/**
+ * Serialization stage of an unfiltered response: streaming every film through a {@link JsonWriter} as baseline, copying the pre-rendered
+ * film fragments with and without gzip, streaming them as ndjson while the sort order is walked, versus building
+ * a Gson tree and converting it to a String.
+ *
+ * @author Sentham
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int catalogSize;
+
+    private FilmIndex index;
+
+    private int[] ordinals;
+
+    private FilmResult result;
+
+    private OscarQuery unfiltered;
+
+    @Setup
+    public void setUp() {
+        index = BenchmarkCatalog.index(catalogSize);
+        ordinals = IntStream.range(0, index.size()).toArray();
+        result = FilmResult.of(index, ordinals);
+        unfiltered = OscarQuery.fromParameters(name -> null);
+    }
+
+    @Benchmark
+    public long streaming() throws IOException {
+        CountingWriter out = new CountingWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("results");
+        writer.beginArray();
+        for (int ordinal : ordinals) {
+            FilmJsonWriter.writeFilm(writer, index, ordinal);
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+        return out.count;
+    }
+
+    @Benchmark
+    public long fragments() throws IOException {
+        ByteCountingOutputStream out = new ByteCountingOutputStream(DISCARD);
+        FilmJsonWriter.writeResults(out, result, null);
+        return out.getBytes();
+    }
+
+    @Benchmark
+    public long gzipFragments() throws IOException {
+        ByteCountingOutputStream out = new ByteCountingOutputStream(DISCARD);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            FilmJsonWriter.writeResults(gzip, result, null);
+        }
+        return out.getBytes();
+    }
+
+    @Benchmark
+    public long ndjsonStream() throws IOException {
+        ByteCountingOutputStream out = new ByteCountingOutputStream(DISCARD);
+        FilmStream films = FilmStream.open(Collections.singletonList(index), unfiltered, SearchTrace.disabled());
+        while (films.next()) {
+            films.index().fragments().write(out, films.ordinal());
+            out.write('\n');
+        }
+        return out.getBytes();
+    }
+
+    @Benchmark
+    public long gsonTree() {
+        JsonArray films = new JsonArray();
+        for (int ordinal : ordinals) {
+            JsonObject film = new JsonObject();
+            film.addProperty(OscarConstants.TITLE, index.title(ordinal));
+            film.addProperty(OscarConstants.YEAR, index.year(ordinal));
+            film.addProperty(OscarConstants.AWARDS, index.awards(ordinal));
+            film.addProperty(OscarConstants.NOMINATIONS, index.nominations(ordinal));
+            film.addProperty(OscarConstants.IS_BEST_PICTURE, index.isBestPicture(ordinal));
+            film.addProperty(OscarConstants.NUMBER_OF_REFERENCES, index.references(ordinal));
+            films.add(film);
+        }
+        JsonObject results = new JsonObject();
+        results.add("results", films);
+        return results.toString().length();
+    }
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /**
+     * Discards the output and only counts the written characters
+     */
+    private static final class CountingWriter extends Writer {
+
+        private long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(int c) {
+            count++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package de.cyberport.benchmarks;
+
+import de.cyberport.core.cache.impl.CompressedResponseCacheImpl;
+import de.cyberport.core.cache.impl.QueryResultCacheImpl;
+import de.cyberport.core.helpers.FilmCatalogGenerator;
+import de.cyberport.core.index.impl.FilmIndexServiceImpl;
+import de.cyberport.core.metrics.impl.SearchMetricsImpl;
+import de.cyberport.core.servlets.OscarFilmContainerServlet;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * End to end {@link OscarFilmContainerServlet#doGet} on a flat and on a bucketed container in the mock repository,
+ * with and without the query result cache. The indexes are built once during the setup.
+ *
+ * @author Sentham
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class ServletBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int catalogSize;
+
+    @Param({ "false", "true" })
+    public boolean cached;
+
+    @Param({ "FLAT", "BUCKETED" })
+    public FilmCatalogGenerator.Layout layout;
+
+    private BenchmarkAemContext context;
+
+    private OscarFilmContainerServlet servlet;
+
+    private MockSlingHttpServletRequest request;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new BenchmarkAemContext();
+        context.start();
+        BenchmarkCatalog.load(context, catalogSize, layout);
+        context.registerInjectActivateService(new FilmIndexServiceImpl());
+        context.registerInjectActivateService(new QueryResultCacheImpl(), "max.entries", cached ? 1000 : 0);
+        context.registerInjectActivateService(new SearchMetricsImpl());
+        context.registerInjectActivateService(new CompressedResponseCacheImpl());
+        servlet = context.registerInjectActivateService(new OscarFilmContainerServlet());
+
+        request = context.request();
+        request.setResource(context.resourceResolver().getResource(BenchmarkCatalog.CONTAINER_PATH));
+        Map<String, Object> params = new HashMap<>();
+        params.put("minYear", 2000);
+        params.put("maxYear", 2003);
+        params.put("minAwards", 4);
+        params.put("sortBy", "nominations");
+        params.put("limit", 10);
+        request.setParameterMap(params);
+        // builds the indexes outside of the measurement
+        servlet.doGet(request, new MockSlingHttpServletResponse());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Benchmark
+    public String doGet() throws IOException {
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        servlet.doGet(request, response);
+        return response.getOutputAsString();
+    }
+
+    /**
+     * Exposes the lifecycle of the AEM context outside of JUnit
+     */
+    static final class BenchmarkAemContext extends AemContext {
+
+        void start() {
+            setUpContext();
+        }
+
+        void stop() {
+            tearDownContext();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package de.cyberport.benchmarks;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.search.FilmQueryExecutor;
+import de.cyberport.core.search.FilmSort;
+import de.cyberport.core.search.OscarQuery;
+import de.cyberport.core.search.TopKSelector;
+import de.cyberport.core.servlets.OscarSortBy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Sorting stage of a "top 10 by nominations since 1990" query: the planned execution, the bounded heap alone
+ * and a boxed comparator sort of all candidates as the request handling did it before the index existed.
+ * The compound "awards,-references" order is selected with the heap on packed keys and with a comparator chain.
+ *
+ * @author Sentham
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SortBenchmark {
+
+    private static final int LIMIT = 10;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int catalogSize;
+
+    private FilmIndex index;
+
+    private OscarQuery query;
+
+    private BitSet candidates;
+
+    private FilmSort compoundSort;
+
+    @Setup
+    public void setUp() {
+        index = BenchmarkCatalog.index(catalogSize);
+        Map<String, String> params = new HashMap<>();
+        params.put("minYear", "1990");
+        params.put("sortBy", OscarSortBy.nominations.name());
+        params.put("limit", String.valueOf(LIMIT));
+        query = OscarQuery.fromParameters(params::get);
+        candidates = query.getFilters().get(0).select(index);
+        compoundSort = FilmSort.parse("awards,-references", null);
+    }
+
+    @Benchmark
+    public int[] plannedExecution() {
+        return FilmQueryExecutor.execute(index, query);
+    }
+
+    @Benchmark
+    public int[] topKHeap() {
+        return TopKSelector.select(FilmSort.of(OscarSortBy.nominations).keys(index), candidates, LIMIT, Long.MIN_VALUE);
+    }
+
+    @Benchmark
+    public int[] compoundKeysHeap() {
+        return TopKSelector.select(compoundSort.keys(index), candidates, LIMIT, Long.MIN_VALUE);
+    }
+
+    @Benchmark
+    public List<Integer> compoundComparatorSort() {
+        return IntStream.range(0, index.size())
+                .filter(candidates::get)
+                .boxed()
+                .sorted(Comparator.comparingInt((Integer ordinal) -> index.awards(ordinal))
+                        .thenComparing(Comparator.comparingInt((Integer ordinal) -> index.references(ordinal)).reversed())
+                        .thenComparing(index::title))
+                .limit(LIMIT)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Integer> boxedComparatorSort() {
+        return IntStream.range(0, index.size())
+                .filter(candidates::get)
+                .boxed()
+                .sorted(Comparator.comparing((Integer ordinal) -> Integer.parseInt(String.valueOf(index.nominations(ordinal)))))
+                .limit(LIMIT)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,80 @@
+package de.cyberport.benchmarks;
+
+import de.cyberport.core.helpers.FilmCatalogGenerator;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexBuilder;
+import de.cyberport.core.index.FilmIndexSnapshot;
+import org.apache.sling.api.resource.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of a container index: walking the flat container in the mock repository versus validating and mapping
+ * the {@link FilmIndexSnapshot} written from it.
+ *
+ * @author Sentham
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int catalogSize;
+
+    private ServletBenchmark.BenchmarkAemContext context;
+
+    private Resource container;
+
+    private Path snapshot;
+
+    private long stamp;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new ServletBenchmark.BenchmarkAemContext();
+        context.start();
+        BenchmarkCatalog.load(context, catalogSize, FilmCatalogGenerator.Layout.FLAT);
+        container = context.resourceResolver().getResource(BenchmarkCatalog.CONTAINER_PATH);
+        snapshot = Files.createTempFile("film-index", ".idx");
+        stamp = FilmIndexSnapshot.stamp(container);
+        FilmIndexSnapshot.write(FilmIndexBuilder.build(container), stamp, snapshot);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.stop();
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public FilmIndex buildFromContainer() {
+        return FilmIndexBuilder.build(container);
+    }
+
+    /**
+     * Includes the validation of the snapshot against the modification date of the container
+     */
+    @Benchmark
+    public FilmIndex openSnapshot() throws IOException {
+        return FilmIndexSnapshot.open(snapshot, BenchmarkCatalog.CONTAINER_PATH, FilmIndexSnapshot.stamp(container));
+    }
+}
@@ -0,0 +1,65 @@
+package de.cyberport.benchmarks;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.TitleIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Type-ahead title lookups on the {@link TitleIndex}: a prefix range, a fuzzy query on a rare word
+ * and a fuzzy query on the most frequent words of the catalog.
+ *
+ * @author Sentham
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TitleSearchBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int catalogSize;
+
+    private TitleIndex titleIndex;
+
+    private TitleIndex.FuzzyTitle rareTitle;
+
+    private TitleIndex.FuzzyTitle frequentTitle;
+
+    @Setup
+    public void setUp() {
+        FilmIndex index = BenchmarkCatalog.index(catalogSize);
+        titleIndex = index.titleIndex();
+        rareTitle = TitleIndex.FuzzyTitle.of("gardn 7K");
+        frequentTitle = TitleIndex.FuzzyTitle.of("the lost star");
+    }
+
+    @Benchmark
+    public BitSet prefix() {
+        return titleIndex.prefix("The Golden Ri");
+    }
+
+    @Benchmark
+    public TitleIndex.Matches fuzzyRare() {
+        return titleIndex.search(rareTitle);
+    }
+
+    @Benchmark
+    public TitleIndex.Matches fuzzyFrequent() {
+        return titleIndex.search(frequentTitle);
+    }
+}
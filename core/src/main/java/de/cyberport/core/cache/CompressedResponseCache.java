@@ -0,0 +1,26 @@
+package de.cyberport.core.cache;
+
+/**
+ * Bounded cache of gzip compressed response bodies. Entries are keyed by the entity tag of the response together
+ * with the canonical query, so they never have to be invalidated: a changed container yields a new key and the
+ * outdated bodies are evicted once they are no longer requested.
+ *
+ * @author Sentham
+ */
+public interface CompressedResponseCache {
+
+    /**
+     * @param key Entity tag and canonical query of the response
+     * @return The compressed body or null if it is not cached
+     */
+    byte[] get(String key);
+
+    /**
+     * Stores a compressed body if it is worth keeping: bodies of unfiltered queries are always kept, other bodies
+     * once they were requested repeatedly
+     * @param key Entity tag and canonical query of the response
+     * @param body The compressed body
+     * @param unfiltered true if the query has no filter, i.e. returns the whole container
+     */
+    void put(String key, byte[] body, boolean unfiltered);
+}
@@ -0,0 +1,32 @@
+package de.cyberport.core.cache;
+
+import de.cyberport.core.index.FilmIndex;
+
+/**
+ * Bounded cache of query results, i.e. the ordinals of the matching films in response order.
+ * Entries are keyed by container path, content revision of the index and the canonical query.
+ *
+ * @author Sentham
+ */
+public interface QueryResultCache {
+
+    /**
+     * @param index The index the query is executed on
+     * @param query Canonical form of the query
+     * @return The cached film ordinals or null if the query is not cached
+     */
+    int[] get(FilmIndex index, String query);
+
+    /**
+     * @param index The index the query was executed on
+     * @param query Canonical form of the query
+     * @param ordinals The film ordinals of the result
+     */
+    void put(FilmIndex index, String query, int[] ordinals);
+
+    /**
+     * Drops the cached results of all containers affected by a change at the given path
+     * @param path Path of the changed resource
+     */
+    void invalidate(String path);
+}
@@ -0,0 +1,142 @@
+package de.cyberport.core.cache.impl;
+
+import de.cyberport.core.cache.CompressedResponseCache;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU implementation of the {@link CompressedResponseCache}, bounded by the size of the compressed bodies.
+ * Filtered responses are only admitted on their second request, so one-off queries do not evict popular bodies.
+ *
+ * @author Sentham
+ */
+@Component(service = { CompressedResponseCache.class, CompressedResponseCacheMBean.class },
+        property = "jmx.objectname=de.cyberport.core:type=CompressedResponseCache")
+@Designate(ocd = CompressedResponseCacheImpl.Config.class)
+public class CompressedResponseCacheImpl implements CompressedResponseCache, CompressedResponseCacheMBean {
+
+    @ObjectClassDefinition(name = "Oscar Compressed Response Cache", description = "Caches gzip compressed film container responses")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Maximum bytes", description = "Maximum size of all cached compressed bodies")
+        long max_bytes() default 32 * 1024 * 1024;
+    }
+
+    /**
+     * Number of recently missed keys whose misses are counted for the admission of filtered responses
+     */
+    private static final int MAX_CANDIDATES = 4096;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Integer> candidates = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_CANDIDATES;
+        }
+    };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private long maxBytes;
+    private long bytes;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        synchronized (entries) {
+            maxBytes = config.max_bytes();
+            evict();
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] body;
+        synchronized (entries) {
+            body = entries.get(key);
+            if (body == null) {
+                candidates.merge(key, 1, Integer::sum);
+            }
+        }
+        if (body == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return body;
+    }
+
+    @Override
+    public void put(String key, byte[] body, boolean unfiltered) {
+        synchronized (entries) {
+            Integer requests = candidates.get(key);
+            if (body.length > maxBytes || !unfiltered && (requests == null || requests < 2)) {
+                return;
+            }
+            candidates.remove(key);
+            byte[] previous = entries.put(key, body);
+            if (previous != null) {
+                bytes -= previous.length;
+            }
+            bytes += body.length;
+            evict();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public long getByteCount() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            candidates.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the byte limit is met, the caller must hold the lock
+     */
+    private void evict() {
+        Iterator<byte[]> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package de.cyberport.core.cache.impl;
+
+/**
+ * JMX view on the compressed response cache used to tune its size limit.
+ *
+ * @author Sentham
+ */
+public interface CompressedResponseCacheMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    int getEntryCount();
+
+    long getByteCount();
+
+    void clear();
+}
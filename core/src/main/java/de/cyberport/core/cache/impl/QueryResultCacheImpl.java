@@ -0,0 +1,192 @@
+package de.cyberport.core.cache.impl;
+
+import de.cyberport.core.cache.QueryResultCache;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.servlets.OscarConstants;
+import de.cyberport.core.utils.OscarUtils;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU implementation of the {@link QueryResultCache}, bounded by number of entries and by their estimated size.
+ *
+ * @author Sentham
+ */
+@Component(service = { QueryResultCache.class, QueryResultCacheMBean.class, ResourceChangeListener.class },
+        property = {
+                "jmx.objectname=de.cyberport.core:type=QueryResultCache",
+                ResourceChangeListener.PATHS + "=" + OscarConstants.CONTENT_ROOT,
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        })
+@Designate(ocd = QueryResultCacheImpl.Config.class)
+public class QueryResultCacheImpl implements QueryResultCache, QueryResultCacheMBean, ResourceChangeListener {
+
+    @ObjectClassDefinition(name = "Oscar Query Result Cache", description = "Caches the results of film container queries")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Maximum entries", description = "Maximum number of cached query results")
+        int max_entries() default 1000;
+
+        @AttributeDefinition(name = "Maximum bytes", description = "Maximum estimated heap size of all cached query results")
+        long max_bytes() default 16 * 1024 * 1024;
+
+        @AttributeDefinition(name = "Observed paths",
+                description = "Trees whose resource changes drop cached results, should match the observed paths of the film index service")
+        String[] resource_paths() default { OscarConstants.CONTENT_ROOT };
+    }
+
+    /**
+     * Rough heap overhead of an entry besides key characters and result ordinals
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private int maxEntries;
+    private long maxBytes;
+    private long bytes;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        synchronized (entries) {
+            maxEntries = config.max_entries();
+            maxBytes = config.max_bytes();
+            evict();
+        }
+    }
+
+    @Override
+    public int[] get(FilmIndex index, String query) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key(index, query));
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.ordinals;
+    }
+
+    @Override
+    public void put(FilmIndex index, String query, int[] ordinals) {
+        String key = key(index, query);
+        Entry entry = new Entry(index.getPath(), ordinals, (long) key.length() * 2 + (long) ordinals.length * 4 + ENTRY_OVERHEAD);
+        synchronized (entries) {
+            if (entry.bytes > maxBytes) {
+                return;
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+            bytes += entry.bytes;
+            evict();
+        }
+    }
+
+    @Override
+    public void invalidate(String path) {
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (OscarUtils.isAffectedPath(entry.path, path)) {
+                    bytes -= entry.bytes;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        for (ResourceChange change : changes) {
+            invalidate(change.getPath());
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public long getByteCount() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until both limits are met, the caller must hold the lock
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private static String key(FilmIndex index, String query) {
+        return index.getPath() + '@' + Long.toHexString(index.getRevision()) + '?' + query;
+    }
+
+    private static final class Entry {
+        private final String path;
+        private final int[] ordinals;
+        private final long bytes;
+
+        private Entry(String path, int[] ordinals, long bytes) {
+            this.path = path;
+            this.ordinals = ordinals;
+            this.bytes = bytes;
+        }
+    }
+}
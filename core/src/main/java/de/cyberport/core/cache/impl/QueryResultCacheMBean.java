@@ -0,0 +1,21 @@
+package de.cyberport.core.cache.impl;
+
+/**
+ * JMX view on the query result cache used to tune its size limits.
+ *
+ * @author Sentham
+ */
+public interface QueryResultCacheMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    int getEntryCount();
+
+    long getByteCount();
+
+    void clear();
+}
@@ -0,0 +1,47 @@
+package de.cyberport.core.importer;
+
+/**
+ * Outcome of a {@link FilmImporter} run.
+ *
+ * @author Sentham
+ */
+public final class FilmImportResult {
+
+    private final int films;
+    private final int buckets;
+    private final int commits;
+    private final long durationMillis;
+
+    public FilmImportResult(int films, int buckets, int commits, long durationMillis) {
+        this.films = films;
+        this.buckets = buckets;
+        this.commits = commits;
+        this.durationMillis = durationMillis;
+    }
+
+    public int getFilmCount() {
+        return films;
+    }
+
+    public int getBucketCount() {
+        return buckets;
+    }
+
+    public int getCommitCount() {
+        return commits;
+    }
+
+    /**
+     * @return Time of the whole import including the index rebuild
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return Imported films per second of the whole import
+     */
+    public long getFilmsPerSecond() {
+        return films * 1000L / Math.max(1, durationMillis);
+    }
+}
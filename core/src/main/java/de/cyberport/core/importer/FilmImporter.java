@@ -0,0 +1,30 @@
+package de.cyberport.core.importer;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bulk import of film catalogs in the shape of oscars.json into a bucketed film container.
+ *
+ * @author Sentham
+ */
+public interface FilmImporter {
+
+    /**
+     * Replaces the films of a container with the films of a json document. The document is read as a stream,
+     * so only a single film is held in memory. Films are grouped in size-bounded year buckets within one bucket
+     * per decade regardless of the layout of the document, the index of the container is rebuilt once after the import. The films are created
+     * below a staging copy that replaces the container once all films are committed, so a failed import leaves the
+     * current films in place.
+     * @param resolver Resolver used to create and commit the resources
+     * @param containerPath Path of the film container, created if missing, its parent must exist and an existing
+     *                      resource must be a film container
+     * @param json Document with the films as objects below the root object, optionally grouped in nested objects
+     * @return Counts and throughput of the import
+     * @throws IOException If the document cannot be read, the resources cannot be committed or the path holds
+     *                     another resource than a film container
+     */
+    FilmImportResult importFilms(ResourceResolver resolver, String containerPath, InputStream json) throws IOException;
+}
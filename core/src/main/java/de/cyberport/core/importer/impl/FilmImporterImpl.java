@@ -0,0 +1,406 @@
+package de.cyberport.core.importer.impl;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import de.cyberport.core.importer.FilmImportResult;
+import de.cyberport.core.importer.FilmImporter;
+import de.cyberport.core.index.FilmBucket;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexService;
+import de.cyberport.core.servlets.OscarConstants;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams a json document with a {@link JsonReader} into buckets below a staging copy of the container, a
+ * sibling node named after the container with the {@value #STAGING_SUFFIX} suffix. Films are grouped in one bucket
+ * per decade holding buckets of a single year, a year bucket takes at most {@link Config#shard_size()} films and
+ * further films of the year go to the next one, so no bucket lists an unbounded number of films. Every object that
+ * holds no further objects is a film, objects holding objects (e.g. the buckets of another layout) are walked
+ * and dropped, so flat and bucketed documents import alike. Creations are committed in batches of
+ * {@link Config#batch_size()} films and every commit logs the progress. The container and every bucket are
+ * stamped with the modification date of the import. After the last batch the staged container is moved to the
+ * container path, the replaced films are deleted in batches and the film index is invalidated and rebuilt once, so
+ * requests see the old films until the new ones are complete and a failed import leaves the container untouched.
+ *
+ * @author Sentham
+ */
+@Component(service = FilmImporter.class)
+@Designate(ocd = FilmImporterImpl.Config.class)
+public class FilmImporterImpl implements FilmImporter {
+
+    @ObjectClassDefinition(name = "Oscar Film Importer", description = "Bulk import of film catalogs into bucketed containers")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Batch size", description = "Number of films created per commit")
+        int batch_size() default 10000;
+
+        @AttributeDefinition(name = "Shard size", description = "Maximum number of films in one year bucket, further films "
+                + "of the year go to the next bucket of the year")
+        int shard_size() default 1000;
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(FilmImporterImpl.class);
+
+    private static final String JCR_PREFIX = "jcr:";
+
+    static final String STAGING_SUFFIX = "-import";
+
+    static final String REPLACED_SUFFIX = "-replaced";
+
+    @Reference
+    private FilmIndexService filmIndexService;
+
+    private int batchSize;
+
+    private int shardSize;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        batchSize = Math.max(1, config.batch_size());
+        shardSize = Math.max(1, config.shard_size());
+    }
+
+    @Override
+    public FilmImportResult importFilms(ResourceResolver resolver, String containerPath, InputStream json) throws IOException {
+        long start = System.nanoTime();
+        Resource existing = resolver.getResource(containerPath);
+        if (existing != null && !OscarConstants.CONTAINER_RESOURCE_TYPE.equals(existing.getResourceType())) {
+            throw new PersistenceException(containerPath + " is not a film container but " + existing.getResourceType());
+        }
+        if (parentOf(resolver, containerPath) == null) {
+            throw new PersistenceException("Parent of " + containerPath + " does not exist");
+        }
+        String stagingPath = containerPath + STAGING_SUFFIX;
+        Import run;
+        try {
+            run = new Import(resolver, prepareStaging(resolver, containerPath), batchSize, shardSize, start);
+            try (JsonReader reader = new JsonReader(new InputStreamReader(json, StandardCharsets.UTF_8))) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String property = reader.nextName();
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        readNode(reader, property, run);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            // The modification dates let the rebuilt indexes of the container and its buckets be kept as snapshots
+            Calendar modified = Calendar.getInstance();
+            resolver.getResource(run.container.getPath()).adaptTo(ModifiableValueMap.class).put(JcrConstants.JCR_LASTMODIFIED, modified);
+            run.stampBuckets(modified);
+            run.commit();
+            swap(resolver, containerPath, run.container.getPath());
+        } catch (IOException | RuntimeException e) {
+            resolver.revert();
+            try {
+                deleteTree(resolver, stagingPath);
+            } catch (PersistenceException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+        deleteTree(resolver, stagingPath);
+        int removed = deleteTree(resolver, containerPath + REPLACED_SUFFIX);
+        LOG.info("Removed {} replaced resources of {}", removed, containerPath);
+
+        long indexStart = System.nanoTime();
+        filmIndexService.invalidate(containerPath);
+        int indexed = rebuildIndex(resolver, resolver.getResource(containerPath));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        FilmImportResult result = new FilmImportResult(run.films, run.buckets.size(), run.commits, millis);
+        LOG.info("Imported {} films in {} buckets into {} in {} s ({} films/s), indexed {} films in {} ms", result.getFilmCount(),
+                result.getBucketCount(), containerPath, millis / 1000, result.getFilmsPerSecond(), indexed,
+                (System.nanoTime() - indexStart) / 1_000_000);
+        return result;
+    }
+
+    /**
+     * Creates an empty container below the staging node, leftovers of an interrupted import are deleted first
+     */
+    private Resource prepareStaging(ResourceResolver resolver, String containerPath) throws PersistenceException {
+        deleteTree(resolver, containerPath + STAGING_SUFFIX);
+        deleteTree(resolver, containerPath + REPLACED_SUFFIX);
+        String name = nameOf(containerPath);
+        Resource staging = resolver.create(parentOf(resolver, containerPath), name + STAGING_SUFFIX, nodeProperties(null));
+        Resource container = resolver.create(staging, name, nodeProperties(OscarConstants.CONTAINER_RESOURCE_TYPE));
+        resolver.commit();
+        return container;
+    }
+
+    /**
+     * Moves the current container aside and the staged container to its path within a single commit
+     */
+    private static void swap(ResourceResolver resolver, String containerPath, String stagedPath) throws PersistenceException {
+        Resource parent = parentOf(resolver, containerPath);
+        if (resolver.getResource(containerPath) != null) {
+            Resource replaced = resolver.create(parent, nameOf(containerPath) + REPLACED_SUFFIX, nodeProperties(null));
+            resolver.move(containerPath, replaced.getPath());
+        }
+        resolver.move(stagedPath, parent.getPath());
+        resolver.commit();
+    }
+
+    private static Resource parentOf(ResourceResolver resolver, String path) {
+        int separator = path.lastIndexOf('/');
+        return resolver.getResource(separator > 0 ? path.substring(0, separator) : "/");
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Deletes a resource and its descendants, at most {@link Config#batch_size()} children per commit
+     * @return The number of deleted descendants
+     */
+    private int deleteTree(ResourceResolver resolver, String path) throws PersistenceException {
+        if (resolver.getResource(path) == null) {
+            return 0;
+        }
+        List<Resource> children = new ArrayList<>();
+        int removed = 0;
+        do {
+            children.clear();
+            Iterator<Resource> iterator = resolver.getResource(path).listChildren();
+            while (iterator.hasNext() && children.size() < batchSize) {
+                children.add(iterator.next());
+            }
+            for (Resource child : children) {
+                if (child.hasChildren()) {
+                    removed += deleteTree(resolver, child.getPath()) + 1;
+                } else {
+                    resolver.delete(child);
+                    removed++;
+                }
+            }
+            resolver.commit();
+        } while (!children.isEmpty());
+        resolver.delete(resolver.getResource(path));
+        resolver.commit();
+        return removed;
+    }
+
+    /**
+     * Reads one object, a film unless it holds further objects or is a bucket
+     */
+    private static void readNode(JsonReader reader, String name, Import run) throws IOException {
+        Map<String, Object> properties = new HashMap<>();
+        boolean group = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String property = reader.nextName();
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_OBJECT) {
+                group = true;
+                readNode(reader, property, run);
+            } else if (token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN) {
+                properties.put(property, readValue(reader, token));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!group && !OscarConstants.BUCKET_RESOURCE_TYPE.equals(properties.get(ResourceResolver.PROPERTY_RESOURCE_TYPE))) {
+            run.add(name, properties);
+        }
+    }
+
+    private static Object readValue(JsonReader reader, JsonToken token) throws IOException {
+        if (token == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        String value = reader.nextString();
+        if (token == JsonToken.STRING) {
+            return value;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(value);
+        }
+    }
+
+    /**
+     * Builds the index of the container and of all its nested buckets, so the first search after the import finds them ready
+     */
+    private int rebuildIndex(ResourceResolver resolver, Resource container) {
+        FilmIndex index = filmIndexService.getIndex(container);
+        int films = index.size();
+        for (FilmBucket bucket : index.buckets()) {
+            Resource resource = resolver.getResource(bucket.getPath());
+            if (resource != null) {
+                films += rebuildIndex(resolver, resource);
+            }
+        }
+        return films;
+    }
+
+    private static Map<String, Object> nodeProperties(String resourceType) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_UNSTRUCTURED);
+        if (resourceType != null) {
+            properties.put(ResourceResolver.PROPERTY_RESOURCE_TYPE, resourceType);
+        }
+        return properties;
+    }
+
+    private static int decadeOf(int year) {
+        return year - Math.floorMod(year, 10);
+    }
+
+    /**
+     * State of one import: the buckets created so far and the films pending for the next commit
+     */
+    private static final class Import {
+
+        private final ResourceResolver resolver;
+        private final Resource container;
+        private final int batchSize;
+        private final int shardSize;
+        private final long start;
+        private final Map<Integer, Resource> decades = new HashMap<>();
+        private final Map<Integer, Shard> shards = new HashMap<>();
+        private final List<Resource> buckets = new ArrayList<>();
+
+        private int films;
+        private int pending;
+        private int commits;
+
+        Import(ResourceResolver resolver, Resource container, int batchSize, int shardSize, long start) {
+            this.resolver = resolver;
+            this.container = container;
+            this.batchSize = batchSize;
+            this.shardSize = shardSize;
+            this.start = start;
+        }
+
+        /**
+         * Creates a film in the open bucket of its year, properties of the jcr namespace are not copied
+         * @param name Name of the film object in the document, kept unless the bucket already holds a film of that name
+         * @param source The properties of the film object
+         */
+        void add(String name, Map<String, Object> source) throws PersistenceException {
+            Map<String, Object> properties = nodeProperties(OscarConstants.FILM_RESOURCE_TYPE);
+            for (Map.Entry<String, Object> property : source.entrySet()) {
+                if (!property.getKey().startsWith(JCR_PREFIX) && !ResourceResolver.PROPERTY_RESOURCE_TYPE.equals(property.getKey())) {
+                    properties.put(property.getKey(), property.getValue());
+                }
+            }
+            Object year = properties.get(OscarConstants.YEAR);
+            Shard shard = shard(year instanceof Number ? ((Number) year).intValue() : 0);
+            resolver.create(shard.resource, shard.uniqueName(name), properties);
+            shard.films++;
+            films++;
+            if (++pending == batchSize) {
+                commit();
+            }
+        }
+
+        void commit() throws PersistenceException {
+            resolver.commit();
+            commits++;
+            pending = 0;
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            LOG.info("Imported {} films into {} ({} films/s)", films, container.getPath(), films * 1000L / millis);
+        }
+
+        /**
+         * Sets the modification date of every bucket once all of its films are created
+         * @param modified The modification date of the import
+         */
+        void stampBuckets(Calendar modified) {
+            for (Resource bucket : buckets) {
+                resolver.getResource(bucket.getPath()).adaptTo(ModifiableValueMap.class).put(JcrConstants.JCR_LASTMODIFIED, modified);
+            }
+        }
+
+        /**
+         * @return The bucket of the year below the bucket of its decade, a new one once the current one holds
+         * {@link Config#shard_size()} films, so no bucket grows beyond that many children
+         */
+        private Shard shard(int year) throws PersistenceException {
+            Shard shard = shards.get(year);
+            if (shard == null || shard.films == shardSize) {
+                int number = shard == null ? 0 : shard.number + 1;
+                int decade = decadeOf(year);
+                Resource parent = decades.get(decade);
+                if (parent == null) {
+                    parent = bucket(container, decade + "s", decade, decade + 9);
+                    decades.put(decade, parent);
+                }
+                shard = new Shard(bucket(parent, year + "-" + number, year, year), number);
+                shards.put(year, shard);
+            }
+            return shard;
+        }
+
+        private Resource bucket(Resource parent, String name, int minYear, int maxYear) throws PersistenceException {
+            Map<String, Object> properties = nodeProperties(OscarConstants.BUCKET_RESOURCE_TYPE);
+            properties.put(OscarConstants.MIN_YEAR, minYear);
+            properties.put(OscarConstants.MAX_YEAR, maxYear);
+            properties.put(JcrConstants.JCR_LASTMODIFIED, Calendar.getInstance());
+            Resource bucket = resolver.create(parent, name, properties);
+            buckets.add(bucket);
+            return bucket;
+        }
+    }
+
+    /**
+     * Bucket of one year that films are currently added to, with the names taken so far. Groups of a document may
+     * reuse film names, e.g. one numbering per decade, so names are only unique per bucket. The names of a full bucket
+     * are dropped with it.
+     */
+    private static final class Shard {
+
+        private final Resource resource;
+        private final int number;
+        private final Set<String> names = new HashSet<>();
+
+        private int films;
+
+        Shard(Resource resource, int number) {
+            this.resource = resource;
+            this.number = number;
+        }
+
+        /**
+         * @return The given name if no film of the bucket has it yet, otherwise the name with the first free counter
+         */
+        String uniqueName(String name) {
+            String unique = name;
+            for (int counter = 1; !names.add(unique); counter++) {
+                unique = name + "-" + counter;
+            }
+            return unique;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package de.cyberport.core.index;
+
+/**
+ * Child of a film container that groups films instead of being one, e.g. all films of a decade.
+ * The year range is read from the bucket itself, so buckets that cannot match a query are skipped
+ * without reading any of their films.
+ *
+ * @author Sentham
+ */
+public final class FilmBucket {
+
+    private final String path;
+    private final int minYear;
+    private final int maxYear;
+
+    public FilmBucket(String path, int minYear, int maxYear) {
+        this.path = path;
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The lowest year of the films in the bucket, {@link Integer#MIN_VALUE} if unknown
+     */
+    public int getMinYear() {
+        return minYear;
+    }
+
+    /**
+     * @return The highest year of the films in the bucket, {@link Integer#MAX_VALUE} if unknown
+     */
+    public int getMaxYear() {
+        return maxYear;
+    }
+}
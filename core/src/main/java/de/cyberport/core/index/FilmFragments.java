@@ -0,0 +1,140 @@
+package de.cyberport.core.index;
+
+import com.google.gson.stream.JsonWriter;
+import de.cyberport.core.servlets.FilmJsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pre-rendered json of every film of an index as UTF-8 bytes. All fragments share one byte buffer, the film
+ * ordinal addresses its fragment through an offset column, so responses are assembled by copying bytes instead
+ * of serializing the films again. The buffers wrap heap arrays of a freshly built index or are views on the
+ * mapping of a {@link FilmIndexSnapshot}.
+ *
+ * @author Sentham
+ */
+public final class FilmFragments {
+
+    /**
+     * Copy buffer for fragments that are not backed by an array
+     */
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    private final ByteBuffer bytes;
+    private final IntBuffer offsets;
+
+    /**
+     * @param bytes UTF-8 bytes of all fragments
+     * @param offsets Start offset of the fragment of every film followed by the end offset of the last one
+     */
+    FilmFragments(ByteBuffer bytes, IntBuffer offsets) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Renders every film of the index with {@link FilmJsonWriter#writeFilm(JsonWriter, FilmIndex, int)}. A first pass
+     * only measures the fragments, so the second one renders them into a byte array of the exact size.
+     * @param index The container or bucket index
+     * @return The fragments of all films of the index
+     */
+    static FilmFragments of(FilmIndex index) {
+        int[] offsets = new int[index.size() + 1];
+        FragmentSink counter = new FragmentSink(null);
+        render(index, counter, offsets);
+        FragmentSink sink = new FragmentSink(new byte[offsets[index.size()]]);
+        render(index, sink, offsets);
+        return new FilmFragments(ByteBuffer.wrap(sink.bytes), IntBuffer.wrap(offsets));
+    }
+
+    private static void render(FilmIndex index, FragmentSink sink, int[] offsets) {
+        try {
+            Writer writer = new OutputStreamWriter(sink, StandardCharsets.UTF_8);
+            for (int ordinal = 0; ordinal < index.size(); ordinal++) {
+                JsonWriter film = new JsonWriter(writer);
+                FilmJsonWriter.writeFilm(film, index, ordinal);
+                film.flush();
+                offsets[ordinal + 1] = sink.position;
+            }
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param out The stream to copy the fragment to
+     * @param ordinal Ordinal of the film
+     * @throws IOException If writing to the stream fails
+     */
+    public void write(OutputStream out, int ordinal) throws IOException {
+        int start = offsets.get(ordinal);
+        int length = offsets.get(ordinal + 1) - start;
+        if (bytes.hasArray()) {
+            out.write(bytes.array(), bytes.arrayOffset() + start, length);
+            return;
+        }
+        byte[] copy = COPY_BUFFER.get();
+        if (copy.length < length) {
+            copy = new byte[Math.max(length, copy.length * 2)];
+            COPY_BUFFER.set(copy);
+        }
+        ByteBuffer fragment = bytes.duplicate();
+        fragment.position(start);
+        fragment.get(copy, 0, length);
+        out.write(copy, 0, length);
+    }
+
+    /**
+     * @return Size of all fragments in bytes
+     */
+    public int byteCount() {
+        return bytes.limit();
+    }
+
+    ByteBuffer bytes() {
+        return bytes.duplicate();
+    }
+
+    /**
+     * @return Start offset of the fragment of every film followed by the end offset of the last one
+     */
+    IntBuffer offsets() {
+        return offsets.duplicate();
+    }
+
+    /**
+     * Writes into a preallocated array or, without one, only counts the bytes
+     */
+    private static final class FragmentSink extends OutputStream {
+
+        private final byte[] bytes;
+        private int position;
+
+        FragmentSink(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (bytes != null) {
+                System.arraycopy(b, off, bytes, position, len);
+            } else if (position + len < 0) {
+                throw new IllegalStateException("Fragments exceed the size of a byte array");
+            }
+            position += len;
+        }
+    }
+}
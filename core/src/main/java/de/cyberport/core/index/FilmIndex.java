@@ -0,0 +1,267 @@
+package de.cyberport.core.index;
+
+import de.cyberport.core.servlets.OscarSortBy;
+
+import java.nio.IntBuffer;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Immutable, column oriented snapshot of all films below a film container.
+ * Every film is addressed by its ordinal, i.e. the position in which it was read from the container,
+ * and each property is held in a primitive column so that filters never touch the resource tree.
+ * The columns, the bitmaps of the value indexes, the title pool and the pre-rendered films are buffers, either
+ * wrapping heap arrays of a freshly built index or views on the memory mapped file of a {@link FilmIndexSnapshot}.
+ * Bucket children of the container are not indexed as films but referenced as {@link FilmBucket}s,
+ * each bucket has an index of its own.
+ *
+ * @author Sentham
+ */
+public final class FilmIndex {
+
+    private final String path;
+    private final int size;
+    private final TitleColumn titles;
+    private final IntBuffer years;
+    private final IntBuffer awards;
+    private final IntBuffer nominations;
+    private final IntBuffer references;
+    private final BitSet bestPictures;
+    private final IntBuffer[] sortOrders;
+    private final IntBuffer[] sortPositions;
+    private final List<FilmBucket> buckets;
+    private final ValueIndex yearIndex;
+    private final ValueIndex awardIndex;
+    private final ValueIndex nominationIndex;
+    private final long revision;
+    private final long lastModified;
+    private volatile TitleIndex titleIndex;
+    private final FilmFragments fragments;
+
+    FilmIndex(String path, int size, TitleColumn titles, IntBuffer years, IntBuffer awards, IntBuffer nominations,
+              IntBuffer references, BitSet bestPictures, IntBuffer[] sortOrders, IntBuffer[] sortPositions, List<FilmBucket> buckets,
+              long lastModified) {
+        this(path, size, titles, years, awards, nominations, references, bestPictures, sortOrders, sortPositions, buckets,
+                lastModified, ValueIndex.of(years), ValueIndex.of(awards), ValueIndex.of(nominations),
+                revisionOf(size, titles, years, awards, nominations, references, bestPictures, buckets), null);
+    }
+
+    /**
+     * @param fragments The pre-rendered films or null to render them now
+     */
+    FilmIndex(String path, int size, TitleColumn titles, IntBuffer years, IntBuffer awards, IntBuffer nominations,
+              IntBuffer references, BitSet bestPictures, IntBuffer[] sortOrders, IntBuffer[] sortPositions, List<FilmBucket> buckets,
+              long lastModified, ValueIndex yearIndex, ValueIndex awardIndex, ValueIndex nominationIndex, long revision,
+              FilmFragments fragments) {
+        this.path = path;
+        this.size = size;
+        this.titles = titles;
+        this.years = years;
+        this.awards = awards;
+        this.nominations = nominations;
+        this.references = references;
+        this.bestPictures = bestPictures;
+        this.sortOrders = sortOrders;
+        this.sortPositions = sortPositions;
+        this.buckets = buckets;
+        this.lastModified = lastModified;
+        this.yearIndex = yearIndex;
+        this.awardIndex = awardIndex;
+        this.nominationIndex = nominationIndex;
+        this.revision = revision;
+        // Rendered with the index, so no request pays for rendering all films or waits for another one doing it
+        this.fragments = fragments != null ? fragments : FilmFragments.of(this);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return Fingerprint of the indexed content, equal on every instance holding the same films
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return Newest jcr:lastModified date of the container and of its direct children in milliseconds, -1 if none has one
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String title(int ordinal) {
+        return titles.get(ordinal);
+    }
+
+    public int year(int ordinal) {
+        return years.get(ordinal);
+    }
+
+    public int awards(int ordinal) {
+        return awards.get(ordinal);
+    }
+
+    public int nominations(int ordinal) {
+        return nominations.get(ordinal);
+    }
+
+    public int references(int ordinal) {
+        return references.get(ordinal);
+    }
+
+    public boolean isBestPicture(int ordinal) {
+        return bestPictures.get(ordinal);
+    }
+
+    /**
+     * @return A new bitmap of all films that won the best picture award
+     */
+    public BitSet bestPictures() {
+        return (BitSet) bestPictures.clone();
+    }
+
+    /**
+     * @return A new bitmap of all films of the index
+     */
+    public BitSet all() {
+        BitSet all = new BitSet(size);
+        all.set(0, size);
+        return all;
+    }
+
+    /**
+     * @return The buckets below the container in repository order, empty for a flat container
+     */
+    public List<FilmBucket> buckets() {
+        return buckets;
+    }
+
+    /**
+     * @return The index of the folded titles, built on first use since only title searches need it
+     */
+    public TitleIndex titleIndex() {
+        TitleIndex index = titleIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = titleIndex;
+                if (index == null) {
+                    index = TitleIndex.of(titles::get, size);
+                    titleIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return The pre-rendered json of every film, rendered when the index is created
+     */
+    public FilmFragments fragments() {
+        return fragments;
+    }
+
+    /**
+     * References are spread over too many distinct values for a {@link ValueIndex}, their range is looked up
+     * in the references sort order instead
+     * @param minimum Lower bound, inclusive
+     * @param maximum Upper bound, inclusive
+     * @return A new bitmap of all films whose number of references is within the bounds
+     */
+    public BitSet referenceRange(int minimum, int maximum) {
+        BitSet result = new BitSet(size);
+        IntBuffer order = sortOrders[OscarSortBy.references.ordinal()];
+        for (int position = firstReferencePosition(order, minimum);
+             position < size && references.get(order.get(position)) <= maximum; position++) {
+            result.set(order.get(position));
+        }
+        return result;
+    }
+
+    public ValueIndex yearIndex() {
+        return yearIndex;
+    }
+
+    public ValueIndex awardIndex() {
+        return awardIndex;
+    }
+
+    public ValueIndex nominationIndex() {
+        return nominationIndex;
+    }
+
+    /**
+     * @param sortBy The sort key
+     * @param ordinal Ordinal of the film
+     * @return The numeric value the film is sorted by, 0 when sorting by title
+     */
+    public int sortValue(OscarSortBy sortBy, int ordinal) {
+        switch (sortBy) {
+            case year:
+                return years.get(ordinal);
+            case awards:
+                return awards.get(ordinal);
+            case nominations:
+                return nominations.get(ordinal);
+            case references:
+                return references.get(ordinal);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the film at the given position of the ascending sort order, ties are ordered by title
+     * @param sortBy The sort key
+     * @param position Position within the sort order
+     * @return Ordinal of the film
+     */
+    public int ordinalAt(OscarSortBy sortBy, int position) {
+        return sortOrders[sortBy.ordinal()].get(position);
+    }
+
+    /**
+     * @param sortBy The sort key
+     * @param ordinal Ordinal of the film
+     * @return Position of the film within the ascending sort order, the inverse of {@link #ordinalAt(OscarSortBy, int)}
+     */
+    public int sortPosition(OscarSortBy sortBy, int ordinal) {
+        return sortPositions[sortBy.ordinal()].get(ordinal);
+    }
+
+    private int firstReferencePosition(IntBuffer order, int minimum) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (references.get(order.get(middle)) < minimum) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long revisionOf(int size, TitleColumn titles, IntBuffer years, IntBuffer awards, IntBuffer nominations,
+                                   IntBuffer references, BitSet bestPictures, List<FilmBucket> buckets) {
+        long hash = size;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            hash = 31 * hash + titles.get(ordinal).hashCode();
+            hash = 31 * hash + years.get(ordinal);
+            hash = 31 * hash + awards.get(ordinal);
+            hash = 31 * hash + nominations.get(ordinal);
+            hash = 31 * hash + references.get(ordinal);
+            hash = 31 * hash + (bestPictures.get(ordinal) ? 1 : 0);
+        }
+        for (FilmBucket bucket : buckets) {
+            hash = 31 * hash + bucket.getPath().hashCode();
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,195 @@
+package de.cyberport.core.index;
+
+import de.cyberport.core.servlets.OscarConstants;
+import de.cyberport.core.servlets.OscarSortBy;
+import de.cyberport.core.utils.OscarUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the film entries of a container into the primitive columns of a {@link FilmIndex}.
+ *
+ * @author Sentham
+ */
+public final class FilmIndexBuilder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final String path;
+    private final Map<String, String> titlePool = new HashMap<>();
+    private int size;
+    private String[] titles = new String[INITIAL_CAPACITY];
+    private int[] years = new int[INITIAL_CAPACITY];
+    private int[] awards = new int[INITIAL_CAPACITY];
+    private int[] nominations = new int[INITIAL_CAPACITY];
+    private int[] references = new int[INITIAL_CAPACITY];
+    private final BitSet bestPictures = new BitSet();
+    private final List<FilmBucket> buckets = new ArrayList<>();
+    private long lastModified = -1;
+
+    public FilmIndexBuilder(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Reads every child of the given container into a new index, bucket children are only referenced
+     * @param container The film container resource
+     * @return The index of all films directly below the container
+     */
+    public static FilmIndex build(Resource container) {
+        FilmIndexBuilder builder = new FilmIndexBuilder(container.getPath());
+        builder.modified(OscarUtils.lastModified(container));
+        for (Resource child : container.getChildren()) {
+            if (OscarConstants.BUCKET_RESOURCE_TYPE.equals(child.getResourceType())) {
+                builder.addBucket(child.getPath(), child.getValueMap());
+            } else {
+                builder.add(child.getValueMap());
+            }
+            builder.modified(OscarUtils.lastModified(child));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Records a modification date, the index keeps the newest one
+     * @param millis jcr:lastModified date of the container or of one of its children in milliseconds, -1 if it has none
+     * @return this builder
+     */
+    public FilmIndexBuilder modified(long millis) {
+        lastModified = Math.max(lastModified, millis);
+        return this;
+    }
+
+    /**
+     * References a bucket child, its films are not added to this index
+     * @param bucketPath Path of the bucket
+     * @param properties The properties of the bucket, a missing year bound means the bucket is never skipped
+     * @return this builder
+     */
+    public FilmIndexBuilder addBucket(String bucketPath, ValueMap properties) {
+        buckets.add(new FilmBucket(bucketPath,
+                properties.get(OscarConstants.MIN_YEAR, Integer.MIN_VALUE),
+                properties.get(OscarConstants.MAX_YEAR, Integer.MAX_VALUE)));
+        return this;
+    }
+
+    /**
+     * Appends a single film entry, missing numeric values are indexed as 0
+     * @param properties The properties of the film entry
+     * @return this builder
+     */
+    public FilmIndexBuilder add(ValueMap properties) {
+        return add(properties.get(OscarConstants.TITLE, StringUtils.EMPTY),
+                properties.get(OscarConstants.YEAR, 0),
+                properties.get(OscarConstants.AWARDS, 0),
+                properties.get(OscarConstants.NOMINATIONS, 0),
+                properties.get(OscarConstants.NUMBER_OF_REFERENCES, 0),
+                properties.get(OscarConstants.IS_BEST_PICTURE, false));
+    }
+
+    public FilmIndexBuilder add(String title, int year, int awardCount, int nominationCount, int referenceCount,
+                                boolean bestPicture) {
+        if (size == years.length) {
+            int capacity = size << 1;
+            titles = Arrays.copyOf(titles, capacity);
+            years = Arrays.copyOf(years, capacity);
+            awards = Arrays.copyOf(awards, capacity);
+            nominations = Arrays.copyOf(nominations, capacity);
+            references = Arrays.copyOf(references, capacity);
+        }
+        titles[size] = titlePool.computeIfAbsent(title, key -> key);
+        years[size] = year;
+        awards[size] = awardCount;
+        nominations[size] = nominationCount;
+        references[size] = referenceCount;
+        bestPictures.set(size, bestPicture);
+        size++;
+        return this;
+    }
+
+    public FilmIndex build() {
+        String[] titleColumn = Arrays.copyOf(titles, size);
+        int[] yearColumn = Arrays.copyOf(years, size);
+        int[] awardColumn = Arrays.copyOf(awards, size);
+        int[] nominationColumn = Arrays.copyOf(nominations, size);
+        int[] referenceColumn = Arrays.copyOf(references, size);
+
+        int[] titleOrder = sortByTitle(titleColumn);
+        int[] titleRanks = positionsOf(titleOrder);
+
+        int[][] sortOrders = new int[OscarSortBy.values().length][];
+        sortOrders[OscarSortBy.title.ordinal()] = titleOrder;
+        sortOrders[OscarSortBy.year.ordinal()] = sortByKey(yearColumn, titleRanks, titleOrder);
+        sortOrders[OscarSortBy.awards.ordinal()] = sortByKey(awardColumn, titleRanks, titleOrder);
+        sortOrders[OscarSortBy.nominations.ordinal()] = sortByKey(nominationColumn, titleRanks, titleOrder);
+        sortOrders[OscarSortBy.references.ordinal()] = sortByKey(referenceColumn, titleRanks, titleOrder);
+        IntBuffer[] sortOrderColumns = new IntBuffer[sortOrders.length];
+        IntBuffer[] sortPositionColumns = new IntBuffer[sortOrders.length];
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            int[] order = sortOrders[sortBy.ordinal()];
+            sortOrderColumns[sortBy.ordinal()] = IntBuffer.wrap(order);
+            sortPositionColumns[sortBy.ordinal()] = IntBuffer.wrap(sortBy == OscarSortBy.title ? titleRanks : positionsOf(order));
+        }
+
+        return new FilmIndex(path, size, TitleColumn.of(titleColumn), IntBuffer.wrap(yearColumn), IntBuffer.wrap(awardColumn),
+                IntBuffer.wrap(nominationColumn), IntBuffer.wrap(referenceColumn), (BitSet) bestPictures.clone(),
+                sortOrderColumns, sortPositionColumns, Collections.unmodifiableList(new ArrayList<>(buckets)), lastModified);
+    }
+
+    /**
+     * Ascending permutation of a numeric column with the title as tie-break. Key and title rank are packed
+     * into one long, the same way {@link de.cyberport.core.search.FilmSort.Keys} packs single sort keys.
+     * @param keys The column to sort by
+     * @param titleRanks Position of each film in the title order
+     * @param titleOrder Film ordinals in title order
+     * @return Film ordinals in sort order
+     */
+    private static int[] sortByKey(int[] keys, int[] titleRanks, int[] titleOrder) {
+        long[] packed = new long[keys.length];
+        for (int ordinal = 0; ordinal < keys.length; ordinal++) {
+            packed[ordinal] = ((long) keys[ordinal] << 32) | titleRanks[ordinal];
+        }
+        Arrays.sort(packed);
+        int[] order = new int[keys.length];
+        for (int position = 0; position < packed.length; position++) {
+            order[position] = titleOrder[(int) packed[position]];
+        }
+        return order;
+    }
+
+    /**
+     * @param order Film ordinals in sort order
+     * @return Position of each film within the sort order
+     */
+    private static int[] positionsOf(int[] order) {
+        int[] positions = new int[order.length];
+        for (int position = 0; position < order.length; position++) {
+            positions[order[position]] = position;
+        }
+        return positions;
+    }
+
+    private static int[] sortByTitle(String[] titleColumn) {
+        Integer[] ordinals = new Integer[titleColumn.length];
+        for (int ordinal = 0; ordinal < ordinals.length; ordinal++) {
+            ordinals[ordinal] = ordinal;
+        }
+        Arrays.sort(ordinals, Comparator.comparing((Integer ordinal) -> titleColumn[ordinal]));
+        int[] order = new int[ordinals.length];
+        for (int position = 0; position < ordinals.length; position++) {
+            order[position] = ordinals[position];
+        }
+        return order;
+    }
+}
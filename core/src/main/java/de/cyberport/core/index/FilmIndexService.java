@@ -0,0 +1,26 @@
+package de.cyberport.core.index;
+
+import org.apache.sling.api.resource.Resource;
+
+/**
+ * Keeps one {@link FilmIndex} per film container and drops it as soon as the container changes.
+ * Indexes are shared by all resource resolvers and hold the films the resolver of the first request could read,
+ * so the films of a container must be readable by every user that may search it, ACLs on single films are not applied.
+ *
+ * @author Sentham
+ */
+public interface FilmIndexService {
+
+    /**
+     * Returns the index of the given container, building it on first access
+     * @param container The film container resource
+     * @return The current index of the container
+     */
+    FilmIndex getIndex(Resource container);
+
+    /**
+     * Drops every cached index that is affected by a change at the given path
+     * @param path Path of the changed resource
+     */
+    void invalidate(String path);
+}
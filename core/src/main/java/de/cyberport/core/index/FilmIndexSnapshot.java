@@ -0,0 +1,418 @@
+package de.cyberport.core.index;
+
+import de.cyberport.core.servlets.OscarSortBy;
+import de.cyberport.core.utils.OscarUtils;
+import org.apache.sling.api.resource.Resource;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary file of a {@link FilmIndex}, so an index can be opened on startup instead of being rebuilt from
+ * the resource tree. The file is memory mapped read-only and the opened index works on views of the mapping: the
+ * numeric columns, the sort permutations, the bitmaps of the value indexes, the title string pool and the pre-rendered
+ * films are neither copied nor computed again, titles are only decoded when they are accessed. Opening allocates the
+ * bucket list, the distinct values of the value indexes and the best picture bitmap on the heap, the only pass over
+ * the whole file is the verification of its checksum, which reads the mapping without allocating.
+ *
+ * Layout, little endian, every section aligned to 8 bytes:
+ * <pre>
+ * header       magic, format version, stamp, revision, film count, sort order count, CRC32 of all other bytes,
+ *              newest modification date
+ * path         length and UTF-8 bytes of the container path
+ * buckets      count, then path, minYear and maxYear of every bucket
+ * string pool  count, end offset of every distinct title, UTF-8 bytes of all titles
+ * columns      pool slot of the title, year, awards, nominations and references of every film
+ * best picture bitmap words
+ * sort orders  film ordinals in every sort order, then the position of every film in every sort order
+ * value index  for years, awards and nominations: count, distinct values, word count and words of every bitmap
+ * fragments    start offset of every film and end offset, length and UTF-8 bytes of the pre-rendered films
+ * </pre>
+ *
+ * @author Sentham
+ */
+public final class FilmIndexSnapshot {
+
+    /**
+     * "OSCR" in ASCII
+     */
+    private static final int MAGIC = 0x5243534F;
+
+    /**
+     * Incremented with every change of the layout, files of another version are never read
+     */
+    static final int FORMAT_VERSION = 5;
+
+    private static final int CHECKSUM_OFFSET = 32;
+
+    private static final int HEADER_SIZE = 48;
+
+    private FilmIndexSnapshot() {
+    }
+
+    /**
+     * Validation stamp of a container, read from the container alone so that validating a snapshot does not list its
+     * films: the jcr:lastModified date of the container. Films changed without an observed resource change, e.g. while
+     * the bundle was inactive, are only noticed if the writer updates that date, as the importer does for the container
+     * and every bucket.
+     * @param container The film container or bucket resource
+     * @return The stamp, -1 if the container has no modification date
+     */
+    public static long stamp(Resource container) {
+        return OscarUtils.lastModified(container);
+    }
+
+    /**
+     * Writes the index into a mapped temporary file that replaces the target file atomically, so a concurrent reader
+     * either sees the old or the new snapshot
+     * @param index The index to write
+     * @param stamp Validation stamp of the container, see {@link #stamp(Resource)}
+     * @param file The snapshot file
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(FilmIndex index, long stamp, Path file) throws IOException {
+        Map<String, Integer> slots = new HashMap<>();
+        List<byte[]> pool = new ArrayList<>();
+        int[] titleSlots = new int[index.size()];
+        long poolBytes = 0;
+        for (int ordinal = 0; ordinal < index.size(); ordinal++) {
+            Integer slot = slots.get(index.title(ordinal));
+            if (slot == null) {
+                slot = pool.size();
+                slots.put(index.title(ordinal), slot);
+                byte[] title = index.title(ordinal).getBytes(StandardCharsets.UTF_8);
+                pool.add(title);
+                poolBytes += title.length;
+            }
+            titleSlots[ordinal] = slot;
+        }
+        byte[] path = index.getPath().getBytes(StandardCharsets.UTF_8);
+        List<byte[]> bucketPaths = new ArrayList<>();
+        long bucketBytes = 0;
+        for (FilmBucket bucket : index.buckets()) {
+            byte[] bucketPath = bucket.getPath().getBytes(StandardCharsets.UTF_8);
+            bucketPaths.add(bucketPath);
+            bucketBytes += align(Integer.BYTES + bucketPath.length + 2L * Integer.BYTES);
+        }
+        long[] bestPictures = index.bestPictures().toLongArray();
+        int sortCount = OscarSortBy.values().length;
+        ValueIndex[] valueIndexes = valueIndexes(index);
+        long valueIndexBytes = 0;
+        for (ValueIndex valueIndex : valueIndexes) {
+            valueIndexBytes += align(Integer.BYTES) + 2 * align((long) valueIndex.valueCount() * Integer.BYTES);
+            for (int slot = 0; slot < valueIndex.valueCount(); slot++) {
+                valueIndexBytes += (long) valueIndex.bitmap(slot).limit() * Long.BYTES;
+            }
+        }
+
+        long length = HEADER_SIZE
+                + align(Integer.BYTES + path.length)
+                + align(Integer.BYTES) + bucketBytes
+                + align(Integer.BYTES + (long) pool.size() * Integer.BYTES) + align(poolBytes)
+                + 5 * align((long) index.size() * Integer.BYTES)
+                + align(Integer.BYTES) + (long) bestPictures.length * Long.BYTES
+                + 2L * sortCount * align((long) index.size() * Integer.BYTES)
+                + valueIndexBytes
+                + align((index.size() + 1L) * Integer.BYTES) + align(Integer.BYTES) + align(index.fragments().byteCount());
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Index of " + index.getPath() + " exceeds the snapshot size limit");
+        }
+
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            writeSections(mapped.order(ByteOrder.LITTLE_ENDIAN), index, stamp, path, bucketPaths, pool, titleSlots, bestPictures);
+            mapped.putLong(CHECKSUM_OFFSET, checksum(mapped));
+            mapped.force();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeSections(ByteBuffer buffer, FilmIndex index, long stamp, byte[] path, List<byte[]> bucketPaths,
+                                      List<byte[]> pool, int[] titleSlots, long[] bestPictures) {
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(stamp).putLong(index.getRevision())
+                .putInt(index.size()).putInt(OscarSortBy.values().length);
+        buffer.putLong(CHECKSUM_OFFSET + Long.BYTES, index.getLastModified());
+        buffer.position(HEADER_SIZE);
+        putBytes(buffer, path);
+        buffer.putInt(bucketPaths.size());
+        pad(buffer);
+        for (int bucket = 0; bucket < bucketPaths.size(); bucket++) {
+            buffer.putInt(bucketPaths.get(bucket).length).put(bucketPaths.get(bucket));
+            buffer.putInt(index.buckets().get(bucket).getMinYear()).putInt(index.buckets().get(bucket).getMaxYear());
+            pad(buffer);
+        }
+        buffer.putInt(pool.size());
+        int offset = 0;
+        for (byte[] title : pool) {
+            offset += title.length;
+            buffer.putInt(offset);
+        }
+        pad(buffer);
+        for (byte[] title : pool) {
+            buffer.put(title);
+        }
+        pad(buffer);
+        putColumn(buffer, index.size(), ordinal -> titleSlots[ordinal]);
+        putColumn(buffer, index.size(), index::year);
+        putColumn(buffer, index.size(), index::awards);
+        putColumn(buffer, index.size(), index::nominations);
+        putColumn(buffer, index.size(), index::references);
+        buffer.putInt(bestPictures.length);
+        pad(buffer);
+        for (long word : bestPictures) {
+            buffer.putLong(word);
+        }
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            putColumn(buffer, index.size(), position -> index.ordinalAt(sortBy, position));
+        }
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            putColumn(buffer, index.size(), ordinal -> index.sortPosition(sortBy, ordinal));
+        }
+        for (ValueIndex valueIndex : valueIndexes(index)) {
+            buffer.putInt(valueIndex.valueCount());
+            pad(buffer);
+            putColumn(buffer, valueIndex.valueCount(), valueIndex::value);
+            putColumn(buffer, valueIndex.valueCount(), slot -> valueIndex.bitmap(slot).limit());
+            for (int slot = 0; slot < valueIndex.valueCount(); slot++) {
+                LongBuffer bitmap = valueIndex.bitmap(slot);
+                while (bitmap.hasRemaining()) {
+                    buffer.putLong(bitmap.get());
+                }
+            }
+        }
+        IntBuffer offsets = index.fragments().offsets();
+        putColumn(buffer, index.size() + 1, offsets::get);
+        putBytes(buffer, index.fragments().bytes());
+    }
+
+    private static ValueIndex[] valueIndexes(FilmIndex index) {
+        return new ValueIndex[] { index.yearIndex(), index.awardIndex(), index.nominationIndex() };
+    }
+
+    /**
+     * Maps a snapshot file read-only
+     * @param file The snapshot file
+     * @param path Path of the container the snapshot must belong to
+     * @param stamp Current validation stamp of the container
+     * @return The index of the snapshot or null if the file is missing, of another format version, of another
+     * container or stamp, or corrupt
+     * @throws IOException If the file cannot be read
+     */
+    public static FilmIndex open(Path file, String path, long stamp) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.getLong() != stamp) {
+                return null;
+            }
+            long revision = buffer.getLong();
+            int size = buffer.getInt();
+            if (buffer.getInt() != OscarSortBy.values().length || buffer.getLong() != checksum(buffer)) {
+                return null;
+            }
+            long lastModified = buffer.getLong();
+            buffer.position(HEADER_SIZE);
+            if (!path.equals(getString(buffer))) {
+                return null;
+            }
+            int bucketCount = buffer.getInt();
+            pad(buffer);
+            List<FilmBucket> buckets = new ArrayList<>(bucketCount);
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                String bucketPath = getString(buffer, buffer.getInt());
+                buckets.add(new FilmBucket(bucketPath, buffer.getInt(), buffer.getInt()));
+                pad(buffer);
+            }
+            int poolSize = buffer.getInt();
+            IntBuffer poolOffsets = getColumn(buffer, poolSize);
+            ByteBuffer pool = getBytes(buffer, poolSize > 0 ? poolOffsets.get(poolSize - 1) : 0);
+            TitleColumn titles = TitleColumn.mapped(getColumn(buffer, size), poolOffsets, pool);
+            IntBuffer years = getColumn(buffer, size);
+            IntBuffer awards = getColumn(buffer, size);
+            IntBuffer nominations = getColumn(buffer, size);
+            IntBuffer references = getColumn(buffer, size);
+            long[] words = new long[buffer.getInt()];
+            pad(buffer);
+            buffer.asLongBuffer().get(words);
+            buffer.position(buffer.position() + words.length * Long.BYTES);
+            BitSet bestPictures = BitSet.valueOf(words);
+            IntBuffer[] sortOrders = new IntBuffer[OscarSortBy.values().length];
+            IntBuffer[] sortPositions = new IntBuffer[sortOrders.length];
+            for (int sortBy = 0; sortBy < sortOrders.length; sortBy++) {
+                sortOrders[sortBy] = getColumn(buffer, size);
+            }
+            for (int sortBy = 0; sortBy < sortOrders.length; sortBy++) {
+                sortPositions[sortBy] = getColumn(buffer, size);
+            }
+            ValueIndex yearIndex = getValueIndex(buffer);
+            ValueIndex awardIndex = getValueIndex(buffer);
+            ValueIndex nominationIndex = getValueIndex(buffer);
+            IntBuffer fragmentOffsets = getColumn(buffer, size + 1);
+            int fragmentBytes = buffer.getInt();
+            pad(buffer);
+            FilmFragments fragments = new FilmFragments(getBytes(buffer, fragmentBytes), fragmentOffsets);
+
+            // The checksum covers every byte, so the stored revision is used instead of hashing every film again
+            return new FilmIndex(path, size, titles, years, awards, nominations, references, bestPictures, sortOrders,
+                    sortPositions, Collections.unmodifiableList(buckets), lastModified, yearIndex, awardIndex, nominationIndex,
+                    revision, fragments);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads only the header and the path of a snapshot file, e.g. to find the snapshots of changed containers
+     * @param file The snapshot file
+     * @return The container path of the snapshot or null if the file is not a snapshot of the current format version
+     * @throws IOException If the file cannot be read
+     */
+    public static String readPath(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) < header.capacity()) {
+                return null;
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int length = header.getInt(HEADER_SIZE);
+            if (length < 0 || HEADER_SIZE + Integer.BYTES + (long) length > channel.size()) {
+                return null;
+            }
+            ByteBuffer path = ByteBuffer.allocate(length);
+            channel.read(path, HEADER_SIZE + Integer.BYTES);
+            return new String(path.array(), 0, path.position(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return CRC32 of the whole file except the checksum field, the position of the buffer is not changed
+     */
+    private static long checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = buffer.duplicate();
+        header.position(0).limit(CHECKSUM_OFFSET);
+        crc.update(header);
+        ByteBuffer body = buffer.duplicate();
+        body.position(CHECKSUM_OFFSET + Long.BYTES).limit(body.capacity());
+        crc.update(body);
+        return crc.getValue();
+    }
+
+    private static long align(long bytes) {
+        return (bytes + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    private static void pad(ByteBuffer buffer) {
+        buffer.position((int) align(buffer.position()));
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length).put(bytes);
+        pad(buffer);
+    }
+
+    private static void putBytes(ByteBuffer buffer, ByteBuffer bytes) {
+        buffer.putInt(bytes.remaining());
+        pad(buffer);
+        buffer.put(bytes);
+        pad(buffer);
+    }
+
+    private static void putColumn(ByteBuffer buffer, int size, IntUnaryOperator column) {
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(column.applyAsInt(i));
+        }
+        pad(buffer);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        String value = getString(buffer, buffer.getInt());
+        pad(buffer);
+        return value;
+    }
+
+    private static String getString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return A view on the next length bytes of the buffer, the buffer is advanced behind them
+     */
+    private static ByteBuffer getBytes(ByteBuffer buffer, int length) {
+        int start = buffer.position();
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(start + length);
+        ByteBuffer bytes = slice.slice();
+        buffer.position(start + length);
+        pad(buffer);
+        return bytes;
+    }
+
+    private static ValueIndex getValueIndex(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        pad(buffer);
+        int[] values = new int[count];
+        getColumn(buffer, count).get(values);
+        IntBuffer wordCounts = getColumn(buffer, count);
+        LongBuffer[] bitmaps = new LongBuffer[count];
+        for (int slot = 0; slot < count; slot++) {
+            int start = buffer.position();
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(start + wordCounts.get(slot) * Long.BYTES);
+            bitmaps[slot] = slice.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            buffer.position(slice.limit());
+        }
+        return new ValueIndex(values, bitmaps);
+    }
+
+    /**
+     * @return A view on the next size ints of the buffer, the buffer is advanced behind them
+     */
+    private static IntBuffer getColumn(ByteBuffer buffer, int size) {
+        int start = buffer.position();
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(start + size * Integer.BYTES);
+        IntBuffer column = slice.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        buffer.position(start + size * Integer.BYTES);
+        pad(buffer);
+        return column;
+    }
+}
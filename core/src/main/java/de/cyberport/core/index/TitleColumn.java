@@ -0,0 +1,58 @@
+package de.cyberport.core.index;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Titles by film ordinal. A freshly built index holds the pooled strings, an index opened from a
+ * {@link FilmIndexSnapshot} reads the UTF-8 string pool of the mapping and decodes a title only when it is accessed,
+ * so opening a snapshot does not decode every title onto the heap.
+ *
+ * @author Sentham
+ */
+final class TitleColumn {
+
+    private final String[] titles;
+    private final IntBuffer slots;
+    private final IntBuffer poolOffsets;
+    private final ByteBuffer pool;
+
+    private TitleColumn(String[] titles, IntBuffer slots, IntBuffer poolOffsets, ByteBuffer pool) {
+        this.titles = titles;
+        this.slots = slots;
+        this.poolOffsets = poolOffsets;
+        this.pool = pool;
+    }
+
+    /**
+     * @param titles Titles by film ordinal
+     * @return The column of the given strings
+     */
+    static TitleColumn of(String[] titles) {
+        return new TitleColumn(titles, null, null, null);
+    }
+
+    /**
+     * @param slots Pool slot of the title of every film
+     * @param poolOffsets End offset of every pooled title within the pool
+     * @param pool UTF-8 bytes of all distinct titles
+     * @return The column reading the titles from the pool
+     */
+    static TitleColumn mapped(IntBuffer slots, IntBuffer poolOffsets, ByteBuffer pool) {
+        return new TitleColumn(null, slots, poolOffsets, pool);
+    }
+
+    String get(int ordinal) {
+        if (titles != null) {
+            return titles[ordinal];
+        }
+        int slot = slots.get(ordinal);
+        int start = slot > 0 ? poolOffsets.get(slot - 1) : 0;
+        byte[] bytes = new byte[poolOffsets.get(slot) - start];
+        ByteBuffer title = pool.duplicate();
+        title.position(start);
+        title.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,393 @@
+package de.cyberport.core.index;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Index of the film titles for type-ahead searches. Titles are folded to lower case without diacritics.
+ *
+ * Prefix matches are resolved by binary search on the folded titles in sorted order. This is the flattened form
+ * of a trie, all titles sharing a prefix are one contiguous range, at a fraction of the memory of a node per character.
+ *
+ * Fuzzy matches are resolved through the postings of the title trigrams. A title matches if it contains at least
+ * half of the trigrams of the query, matches are scored by that share first and by the overall trigram similarity second.
+ *
+ * @author Sentham
+ */
+public final class TitleIndex {
+
+    /**
+     * Score of a title that contains exactly the trigrams of the query
+     */
+    public static final int MAX_SCORE = 0xFFFF;
+
+    private static final double MIN_CONTAINMENT = 0.5;
+
+    /**
+     * Longer fuzzy queries are cut, which also keeps the number of shared trigrams within a byte
+     */
+    private static final int MAX_QUERY_LENGTH = 100;
+
+    private static final long[] NO_TRIGRAMS = new long[0];
+
+    private final String[] sortedTitles;
+    private final int[] sortedOrdinals;
+    private final int[] sortedRanks;
+    private final long[] trigrams;
+    private final int[][] postings;
+    private final int[] trigramCounts;
+
+    private TitleIndex(String[] sortedTitles, int[] sortedOrdinals, int[] sortedRanks, long[] trigrams, int[][] postings,
+                       int[] trigramCounts) {
+        this.sortedTitles = sortedTitles;
+        this.sortedOrdinals = sortedOrdinals;
+        this.sortedRanks = sortedRanks;
+        this.trigrams = trigrams;
+        this.postings = postings;
+        this.trigramCounts = trigramCounts;
+    }
+
+    /**
+     * Creates the index of a title column
+     * @param titles Titles by film ordinal
+     * @param size Number of films
+     * @return The title index
+     */
+    public static TitleIndex of(IntFunction<String> titles, int size) {
+        String[] folded = new String[size];
+        Map<String, String> foldedTitles = new HashMap<>();
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            folded[ordinal] = foldedTitles.computeIfAbsent(titles.apply(ordinal), TitleIndex::fold);
+        }
+
+        Integer[] order = new Integer[size];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            order[ordinal] = ordinal;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer ordinal) -> folded[ordinal]));
+        String[] sortedTitles = new String[size];
+        int[] sortedOrdinals = new int[size];
+        int[] sortedRanks = new int[size];
+        for (int position = 0; position < size; position++) {
+            sortedTitles[position] = folded[order[position]];
+            sortedOrdinals[position] = order[position];
+            sortedRanks[order[position]] = position;
+        }
+
+        // The trigrams are extracted twice, once to size the postings and once to fill them, instead of keeping them per film
+        Map<Long, Integer> trigramIds = new HashMap<>();
+        int[] postingSizes = new int[1024];
+        int[] trigramCounts = new int[size];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            long[] titleTrigrams = trigrams(folded[ordinal]);
+            trigramCounts[ordinal] = titleTrigrams.length;
+            for (long trigram : titleTrigrams) {
+                int id = trigramIds.computeIfAbsent(trigram, key -> trigramIds.size());
+                if (id == postingSizes.length) {
+                    postingSizes = Arrays.copyOf(postingSizes, id << 1);
+                }
+                postingSizes[id]++;
+            }
+        }
+        long[] trigrams = new long[trigramIds.size()];
+        for (Map.Entry<Long, Integer> entry : trigramIds.entrySet()) {
+            trigrams[entry.getValue()] = entry.getKey();
+        }
+        long[] sortedTrigrams = trigrams.clone();
+        Arrays.sort(sortedTrigrams);
+        int[][] postings = new int[sortedTrigrams.length][];
+        int[] slots = new int[trigrams.length];
+        for (int id = 0; id < trigrams.length; id++) {
+            slots[id] = Arrays.binarySearch(sortedTrigrams, trigrams[id]);
+            postings[slots[id]] = new int[postingSizes[id]];
+        }
+        int[] filled = new int[sortedTrigrams.length];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            for (long trigram : trigrams(folded[ordinal])) {
+                int slot = slots[trigramIds.get(trigram)];
+                postings[slot][filled[slot]++] = ordinal;
+            }
+        }
+        return new TitleIndex(sortedTitles, sortedOrdinals, sortedRanks, sortedTrigrams, postings, trigramCounts);
+    }
+
+    /**
+     * @param prefix Beginning of the title, case and diacritics are ignored
+     * @return A new bitmap of all films whose title starts with the prefix
+     */
+    public BitSet prefix(String prefix) {
+        String folded = fold(prefix);
+        int from = lowerBound(folded);
+        int to = from;
+        int high = sortedTitles.length;
+        // The titles starting with the prefix are the first titles from the lower bound on
+        while (to < high) {
+            int middle = (to + high) >>> 1;
+            if (sortedTitles[middle].startsWith(folded)) {
+                to = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        BitSet matches = new BitSet();
+        for (int position = from; position < to; position++) {
+            matches.set(sortedOrdinals[position]);
+        }
+        return matches;
+    }
+
+    /**
+     * @param ordinal Ordinal of the film
+     * @return The folded title of the film
+     */
+    public String foldedTitle(int ordinal) {
+        return sortedTitles[sortedRanks[ordinal]];
+    }
+
+    /**
+     * Finds all films whose title contains at least half of the trigrams of the query
+     * @param query The fuzzy query
+     * @return The matching films with their scores, in no particular order
+     */
+    public Matches search(FuzzyTitle query) {
+        int queryCount = query.trigrams.length;
+        int minShared = Math.max(1, (int) Math.ceil(MIN_CONTAINMENT * queryCount));
+        int[][] lists = new int[queryCount][];
+        for (int i = 0; i < queryCount; i++) {
+            int slot = Arrays.binarySearch(trigrams, query.trigrams[i]);
+            lists[i] = slot >= 0 ? postings[slot] : new int[0];
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+
+        // A title sharing minShared trigrams is contained in at least one of the queryCount - minShared + 1 rarest lists
+        int candidateLists = queryCount - minShared + 1;
+        byte[] shared = new byte[trigramCounts.length];
+        int[] candidates = new int[16];
+        int count = 0;
+        for (int i = 0; i < candidateLists; i++) {
+            for (int ordinal : lists[i]) {
+                if (shared[ordinal]++ == 0) {
+                    if (count == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, count << 1);
+                    }
+                    candidates[count++] = ordinal;
+                }
+            }
+        }
+        // The frequent trigrams only count for the candidates, a list is either walked or probed per candidate
+        for (int i = candidateLists; i < queryCount; i++) {
+            int[] list = lists[i];
+            if ((long) count * (Integer.SIZE - Integer.numberOfLeadingZeros(list.length)) < list.length) {
+                for (int candidate = 0; candidate < count; candidate++) {
+                    if (Arrays.binarySearch(list, candidates[candidate]) >= 0) {
+                        shared[candidates[candidate]]++;
+                    }
+                }
+            } else {
+                for (int ordinal : list) {
+                    if (shared[ordinal] != 0) {
+                        shared[ordinal]++;
+                    }
+                }
+            }
+        }
+
+        int matchCount = 0;
+        int[] scores = new int[count];
+        for (int candidate = 0; candidate < count; candidate++) {
+            int ordinal = candidates[candidate];
+            int sharedCount = shared[ordinal] & 0xFF;
+            if (sharedCount >= minShared) {
+                candidates[matchCount] = ordinal;
+                scores[matchCount++] = score(sharedCount, queryCount, trigramCounts[ordinal]);
+            }
+        }
+        return new Matches(candidates, scores, matchCount);
+    }
+
+    /**
+     * @param query The fuzzy query
+     * @param ordinal Ordinal of a film
+     * @return The score of the film for the query, 0 if the title shares no trigram with the query
+     */
+    public int score(FuzzyTitle query, int ordinal) {
+        long[] titleTrigrams = trigrams(foldedTitle(ordinal));
+        int shared = 0;
+        for (int i = 0, j = 0; i < query.trigrams.length && j < titleTrigrams.length; ) {
+            if (query.trigrams[i] == titleTrigrams[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (query.trigrams[i] < titleTrigrams[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return shared > 0 ? score(shared, query.trigrams.length, titleTrigrams.length) : 0;
+    }
+
+    /**
+     * Folds a text to lower case without diacritics and with single spaces between the words
+     * @param text The text to fold
+     * @return The folded text
+     */
+    public static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        boolean space = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = folded.length() > 0;
+                continue;
+            }
+            if (space) {
+                folded.append(' ');
+                space = false;
+            }
+            folded.append(Character.toLowerCase(c));
+        }
+        return folded.toString();
+    }
+
+    /**
+     * Share of the query trigrams found in the title in the high byte, trigram similarity of both in the low byte
+     */
+    private static int score(int shared, int queryCount, int titleCount) {
+        int containment = shared * 255 / queryCount;
+        int similarity = shared * 255 / (queryCount + titleCount - shared);
+        return containment << 8 | similarity;
+    }
+
+    private int lowerBound(String folded) {
+        int low = 0;
+        int high = sortedTitles.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedTitles[middle].compareTo(folded) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Distinct trigrams of the words of a folded text, each word is padded with two spaces in front and one behind
+     * @param folded The folded text
+     * @return The trigrams packed into longs, in ascending order
+     */
+    static long[] trigrams(String folded) {
+        long[] result = new long[folded.length() + 2];
+        int count = 0;
+        char first = ' ';
+        char second = ' ';
+        for (int i = 0; i <= folded.length(); i++) {
+            if (count == result.length) {
+                result = Arrays.copyOf(result, count << 1);
+            }
+            char c = i < folded.length() ? folded.charAt(i) : ' ';
+            if (!Character.isLetterOrDigit(c)) {
+                if (second != ' ') {
+                    result[count++] = pack(first, second, ' ');
+                }
+                first = ' ';
+                second = ' ';
+                continue;
+            }
+            result[count++] = pack(first, second, c);
+            first = second;
+            second = c;
+        }
+        if (count == 0) {
+            return NO_TRIGRAMS;
+        }
+        Arrays.sort(result, 0, count);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (result[i] != result[distinct - 1]) {
+                result[distinct++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, distinct);
+    }
+
+    private static long pack(char first, char second, char third) {
+        return ((long) first << 32) | ((long) second << 16) | third;
+    }
+
+    /**
+     * Folded text of a fuzzy query and its trigrams, created once per request
+     */
+    public static final class FuzzyTitle {
+
+        private final String text;
+        private final long[] trigrams;
+
+        private FuzzyTitle(String text) {
+            String folded = fold(text);
+            this.text = folded.length() > MAX_QUERY_LENGTH ? folded.substring(0, MAX_QUERY_LENGTH) : folded;
+            this.trigrams = TitleIndex.trigrams(this.text);
+        }
+
+        public static FuzzyTitle of(String text) {
+            return new FuzzyTitle(text);
+        }
+
+        /**
+         * @return The folded query text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return false if the query has no letters or digits and can match no title
+         */
+        public boolean isSearchable() {
+            return trigrams.length > 0;
+        }
+    }
+
+    /**
+     * Films matching a fuzzy query with their scores
+     */
+    public static final class Matches {
+
+        private final int[] ordinals;
+        private final int[] scores;
+        private final int size;
+
+        private Matches(int[] ordinals, int[] scores, int size) {
+            this.ordinals = ordinals;
+            this.scores = scores;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int ordinal(int position) {
+            return ordinals[position];
+        }
+
+        /**
+         * @param position Position within the matches
+         * @return Score of the match, higher is better, at most {@link #MAX_SCORE}
+         */
+        public int score(int position) {
+            return scores[position];
+        }
+    }
+}
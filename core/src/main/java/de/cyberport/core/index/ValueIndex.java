@@ -0,0 +1,131 @@
+package de.cyberport.core.index;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Bitmap index of a numeric film column: one bitmap of film ordinals per distinct value.
+ * Exact matches resolve to a single bitmap, ranges to the union of the bitmaps of all values within the range.
+ * The bitmaps are held as words of a long buffer, either wrapping heap arrays or views on a mapped {@link FilmIndexSnapshot}.
+ *
+ * @author Sentham
+ */
+public final class ValueIndex {
+
+    private final int[] values;
+    private final LongBuffer[] bitmaps;
+
+    ValueIndex(int[] values, LongBuffer[] bitmaps) {
+        this.values = values;
+        this.bitmaps = bitmaps;
+    }
+
+    /**
+     * Creates the index of a column
+     * @param column Column values by film ordinal
+     * @return The bitmap index of the column
+     */
+    public static ValueIndex of(IntBuffer column) {
+        int[] sorted = new int[column.limit()];
+        column.duplicate().get(sorted);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[distinct - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        int[] values = Arrays.copyOf(sorted, distinct);
+        BitSet[] bitSets = new BitSet[values.length];
+        for (int ordinal = 0; ordinal < column.limit(); ordinal++) {
+            int slot = Arrays.binarySearch(values, column.get(ordinal));
+            if (bitSets[slot] == null) {
+                bitSets[slot] = new BitSet();
+            }
+            bitSets[slot].set(ordinal);
+        }
+        LongBuffer[] bitmaps = new LongBuffer[values.length];
+        for (int slot = 0; slot < values.length; slot++) {
+            bitmaps[slot] = LongBuffer.wrap(bitSets[slot].toLongArray());
+        }
+        return new ValueIndex(values, bitmaps);
+    }
+
+    /**
+     * @param value The exact value
+     * @return A new bitmap of all films having the value
+     */
+    public BitSet equalTo(int value) {
+        int slot = Arrays.binarySearch(values, value);
+        return slot >= 0 ? BitSet.valueOf(bitmaps[slot].duplicate()) : new BitSet();
+    }
+
+    /**
+     * @param minimum Lower bound, inclusive
+     * @param maximum Upper bound, inclusive
+     * @return A new bitmap of all films having a value within the bounds
+     */
+    public BitSet range(int minimum, int maximum) {
+        if (minimum > maximum) {
+            return new BitSet();
+        }
+        int first = firstSlot(minimum);
+        int end = first;
+        int wordCount = 0;
+        for (; end < values.length && values[end] <= maximum; end++) {
+            wordCount = Math.max(wordCount, bitmaps[end].limit());
+        }
+        long[] words = new long[wordCount];
+        for (int slot = first; slot < end; slot++) {
+            LongBuffer bitmap = bitmaps[slot];
+            for (int word = 0; word < bitmap.limit(); word++) {
+                words[word] |= bitmap.get(word);
+            }
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * @return The smallest value of the column, 0 for an empty column
+     */
+    public int minValue() {
+        return values.length > 0 ? values[0] : 0;
+    }
+
+    /**
+     * @return The largest value of the column, 0 for an empty column
+     */
+    public int maxValue() {
+        return values.length > 0 ? values[values.length - 1] : 0;
+    }
+
+    /**
+     * @return Number of distinct values
+     */
+    int valueCount() {
+        return values.length;
+    }
+
+    /**
+     * @param slot Position of the value in ascending order
+     * @return The value
+     */
+    int value(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * @param slot Position of the value in ascending order
+     * @return The words of the bitmap of the films having the value
+     */
+    LongBuffer bitmap(int slot) {
+        return bitmaps[slot].duplicate();
+    }
+
+    private int firstSlot(int minimum) {
+        int slot = Arrays.binarySearch(values, minimum);
+        return slot >= 0 ? slot : -slot - 1;
+    }
+}
@@ -0,0 +1,301 @@
+package de.cyberport.core.index.impl;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexBuilder;
+import de.cyberport.core.index.FilmIndexService;
+import de.cyberport.core.index.FilmIndexSnapshot;
+import de.cyberport.core.servlets.OscarConstants;
+import de.cyberport.core.utils.OscarUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lazily builds the film index of a container on the first request and keeps it until a resource
+ * change below (or above) the container is observed. Concurrent first requests share one build.
+ * Only containers in the observed trees ({@link Config#resource_paths()}, /content by default) are kept, the index of
+ * any other container is built for every request, since no change of it would ever be noticed.
+ *
+ * Indexes of containers with a jcr:lastModified date are also written as {@link FilmIndexSnapshot} into the
+ * bundle data area by a background thread. After a restart the snapshot is mapped instead of reading the films again, as long as the
+ * {@link FilmIndexSnapshot#stamp(Resource) stamp} of the container still matches. The stamp is the modification date of
+ * the container, so writers changing films while the bundle is inactive must update it, as the importer does.
+ * Observed changes delete the affected snapshots.
+ *
+ * @author Sentham
+ */
+@Component(service = { FilmIndexService.class, ResourceChangeListener.class },
+        property = {
+                ResourceChangeListener.PATHS + "=" + OscarConstants.CONTENT_ROOT,
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        })
+@Designate(ocd = FilmIndexServiceImpl.Config.class)
+public class FilmIndexServiceImpl implements FilmIndexService, ResourceChangeListener {
+
+    @ObjectClassDefinition(name = "Oscar Film Index Service", description = "In-memory indexes of the film containers")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Snapshots",
+                description = "Write the indexes as memory mapped snapshots into the bundle data area, so restarts do not rebuild them")
+        boolean snapshots() default true;
+
+        @AttributeDefinition(name = "Observed paths",
+                description = "Trees whose resource changes invalidate the indexes. Containers outside of them are indexed again on every request")
+        String[] resource_paths() default { OscarConstants.CONTENT_ROOT };
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(FilmIndexServiceImpl.class);
+
+    private static final String SNAPSHOT_DIRECTORY = "film-index";
+    private static final String SNAPSHOT_EXTENSION = ".idx";
+
+    private static final int SNAPSHOT_WRITE_TIMEOUT_SECONDS = 30;
+
+    private final Map<String, FilmIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Running builds by container path, so every container is built only once at a time
+     */
+    private final Map<String, FutureTask<FilmIndex>> builds = new ConcurrentHashMap<>();
+
+    /**
+     * Snapshot files on disk by container path, including containers whose index was not requested yet
+     */
+    private final Map<String, Path> snapshots = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Roots of the trees whose changes are observed, the listener is registered for the same paths
+     */
+    private volatile String[] observedPaths = { OscarConstants.CONTENT_ROOT };
+
+    /**
+     * Directory of the snapshot files, null if snapshots are disabled or the framework has no data area
+     */
+    private volatile Path snapshotDirectory;
+
+    /**
+     * Writes the snapshots in the background, so the request that built an index does not wait for the disk as well
+     */
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "film-index-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Activate
+    protected void activate(BundleContext bundleContext, Config config) {
+        observedPaths = config.resource_paths();
+        File dataFile = config.snapshots() ? bundleContext.getDataFile(SNAPSHOT_DIRECTORY) : null;
+        if (dataFile == null) {
+            return;
+        }
+        Path directory = dataFile.toPath();
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SNAPSHOT_EXTENSION)) {
+                for (Path file : files) {
+                    String path = FilmIndexSnapshot.readPath(file);
+                    if (path != null) {
+                        snapshots.put(path, file);
+                    } else {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            snapshotDirectory = directory;
+        } catch (IOException e) {
+            LOG.warn("Film index snapshots are disabled, {} is not usable", directory, e);
+        }
+    }
+
+    /**
+     * Waits for the pending snapshots, a snapshot cut short would only be rejected by its checksum on the next start
+     */
+    @Deactivate
+    protected void deactivate() throws InterruptedException {
+        snapshotWriter.shutdown();
+        if (!snapshotWriter.awaitTermination(SNAPSHOT_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            LOG.warn("Pending film index snapshots were not written within {} s", SNAPSHOT_WRITE_TIMEOUT_SECONDS);
+        }
+    }
+
+    @Override
+    public FilmIndex getIndex(Resource container) {
+        String path = container.getPath();
+        if (!OscarUtils.isObservedPath(path, observedPaths)) {
+            // No change of the container would ever drop a kept index, so it is neither kept nor written as snapshot
+            return FilmIndexBuilder.build(container);
+        }
+        FilmIndex index = indexes.get(path);
+        if (index != null) {
+            return index;
+        }
+        // Concurrent requests for a container that is not indexed yet wait for one build instead of walking the tree each
+        FutureTask<FilmIndex> build = new FutureTask<>(() -> load(container));
+        FutureTask<FilmIndex> running = builds.putIfAbsent(path, build);
+        if (running == null) {
+            running = build;
+            try {
+                build.run();
+            } finally {
+                builds.remove(path, build);
+            }
+        }
+        return await(running, path);
+    }
+
+    /**
+     * Opens the snapshot of the container or builds its index from the resource tree and publishes it
+     */
+    private FilmIndex load(Resource container) {
+        String path = container.getPath();
+        long buildGeneration = generation.get();
+        long stamp = snapshotStamp(container);
+        long start = System.nanoTime();
+        FilmIndex index = openSnapshot(path, stamp);
+        if (index != null) {
+            LOG.debug("Opened snapshot of {} films below {} in {} ms", index.size(), path, (System.nanoTime() - start) / 1_000_000);
+        } else {
+            index = FilmIndexBuilder.build(container);
+            LOG.debug("Indexed {} films below {} in {} ms", index.size(), path, (System.nanoTime() - start) / 1_000_000);
+        }
+        // An invalidation during the build may have made the fresh index stale already, so only publish it when none happened
+        if (buildGeneration == generation.get()) {
+            FilmIndex existing = indexes.putIfAbsent(path, index);
+            if (existing != null) {
+                index = existing;
+            } else if (!snapshots.containsKey(path) && snapshotDirectory != null && stamp >= 0) {
+                FilmIndex written = index;
+                try {
+                    snapshotWriter.execute(() -> writeSnapshot(written, stamp, buildGeneration));
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("Snapshot of {} is not written, the service is deactivated", path);
+                }
+            }
+        }
+        return index;
+    }
+
+    private static FilmIndex await(FutureTask<FilmIndex> build, String path) {
+        try {
+            return build.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the index of " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Cannot index " + path, e.getCause());
+        }
+    }
+
+    @Override
+    public void invalidate(String path) {
+        generation.incrementAndGet();
+        indexes.keySet().removeIf(containerPath -> OscarUtils.isAffectedPath(containerPath, path));
+        // Later requests start a new build instead of waiting for one that will not be published
+        builds.keySet().removeIf(containerPath -> OscarUtils.isAffectedPath(containerPath, path));
+        for (Map.Entry<String, Path> snapshot : snapshots.entrySet()) {
+            if (OscarUtils.isAffectedPath(snapshot.getKey(), path) && snapshots.remove(snapshot.getKey(), snapshot.getValue())) {
+                deleteSnapshot(snapshot.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        for (ResourceChange change : changes) {
+            invalidate(change.getPath());
+        }
+    }
+
+    /**
+     * Without a modification date of the container a snapshot could outlive changes made while the instance was down,
+     * so such containers are always rebuilt
+     * @return The validation stamp of the container or -1 if its index is not kept as snapshot
+     */
+    private long snapshotStamp(Resource container) {
+        return snapshotDirectory == null ? -1 : FilmIndexSnapshot.stamp(container);
+    }
+
+    private FilmIndex openSnapshot(String path, long stamp) {
+        Path file = snapshots.get(path);
+        if (file == null || stamp < 0) {
+            return null;
+        }
+        try {
+            FilmIndex index = FilmIndexSnapshot.open(file, path, stamp);
+            if (index == null && snapshots.remove(path, file)) {
+                LOG.debug("Snapshot {} of {} is outdated", file, path);
+                deleteSnapshot(file);
+            }
+            return index;
+        } catch (IOException e) {
+            LOG.warn("Cannot open snapshot {} of {}", file, path, e);
+            return null;
+        }
+    }
+
+    private void writeSnapshot(FilmIndex index, long stamp, long buildGeneration) {
+        Path directory = snapshotDirectory;
+        if (directory == null || stamp < 0) {
+            return;
+        }
+        Path file = directory.resolve(UUID.nameUUIDFromBytes(index.getPath().getBytes(StandardCharsets.UTF_8)) + SNAPSHOT_EXTENSION);
+        snapshots.put(index.getPath(), file);
+        try {
+            FilmIndexSnapshot.write(index, stamp, file);
+        } catch (IOException e) {
+            LOG.warn("Cannot write snapshot of {}", index.getPath(), e);
+            snapshots.remove(index.getPath(), file);
+            return;
+        }
+        // The snapshot must not survive an invalidation that happened while it was written
+        if (buildGeneration != generation.get() && snapshots.remove(index.getPath(), file)) {
+            deleteSnapshot(file);
+        }
+    }
+
+    private static void deleteSnapshot(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Cannot delete snapshot {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package de.cyberport.core.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream that counts the bytes written through it, so the size of a response can be measured without buffering it
+ *
+ * @author Sentham
+ */
+public final class ByteCountingOutputStream extends FilterOutputStream {
+
+    private long bytes;
+
+    public ByteCountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        bytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        bytes += len;
+    }
+
+    /**
+     * @return Number of bytes written so far
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
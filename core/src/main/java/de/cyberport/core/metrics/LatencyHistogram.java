@@ -0,0 +1,100 @@
+package de.cyberport.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative long values such as latencies in nanoseconds or response sizes in bytes.
+ * Like HdrHistogram it uses log-linear buckets: every power of two is split into {@link #SUB_BUCKETS} linear buckets,
+ * so recorded values keep a relative precision of 1 / SUB_BUCKETS with a fixed, small array. Recording is a single
+ * atomic increment, percentiles are read from a walk over the bucket counts.
+ *
+ * @author Sentham
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value The value to record, negative values are recorded as 0
+     */
+    public void record(long value) {
+        long recorded = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(recorded));
+        count.increment();
+        sum.add(recorded);
+        long currentMax = max.get();
+        while (recorded > currentMax && !max.compareAndSet(currentMax, recorded)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The mean of all recorded values, 0 if none was recorded
+     */
+    public double getMean() {
+        long recorded = count.sum();
+        return recorded > 0 ? (double) sum.sum() / recorded : 0;
+    }
+
+    /**
+     * @param percentile The percentile between 0 and 100
+     * @return The highest value of the bucket holding the percentile, at most the maximum, 0 if no value was recorded
+     */
+    public long getPercentile(double percentile) {
+        long recorded = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            recorded += counts.get(bucket);
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * recorded));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Values below SUB_BUCKETS have a bucket of their own, larger values share a bucket with the values that
+     * have the same highest SUB_BUCKET_BITS + 1 bits
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return (top << shift) + ((1L << shift) - 1);
+    }
+}
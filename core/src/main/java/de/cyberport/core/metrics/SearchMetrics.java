@@ -0,0 +1,36 @@
+package de.cyberport.core.metrics;
+
+import java.util.Collection;
+
+/**
+ * Per-stage latencies and response sizes of the film search, grouped by query shape
+ *
+ * @author Sentham
+ */
+public interface SearchMetrics {
+
+    /**
+     * @param shape The query shape, see {@link de.cyberport.core.search.OscarQuery#getShape()}
+     * @param stage The search stage
+     * @param nanos Time spent in the stage
+     */
+    void record(String shape, SearchStage stage, long nanos);
+
+    /**
+     * Records all stages a search passed
+     * @param shape The query shape
+     * @param trace The stages of the search
+     */
+    void record(String shape, SearchTrace trace);
+
+    /**
+     * @param shape The query shape
+     * @param bytes Size of the written response
+     */
+    void recordBytes(String shape, long bytes);
+
+    /**
+     * @return The metrics of all recorded query shapes
+     */
+    Collection<ShapeMetrics> getShapes();
+}
@@ -0,0 +1,31 @@
+package de.cyberport.core.metrics;
+
+/**
+ * Stages of a film search request whose latency is recorded
+ */
+public enum SearchStage {
+    /**
+     * Parsing and compiling the request parameters
+     */
+    PARSE,
+    /**
+     * Intersecting the bitmaps of the indexed filters
+     */
+    CANDIDATES,
+    /**
+     * Testing the filters without bitmap index per candidate
+     */
+    FILTER,
+    /**
+     * Selecting the result page in sort order
+     */
+    SORT,
+    /**
+     * Computing the facets of the matching films
+     */
+    AGGREGATE,
+    /**
+     * Writing the json response
+     */
+    SERIALIZE
+}
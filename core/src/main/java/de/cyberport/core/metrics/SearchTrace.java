@@ -0,0 +1,64 @@
+package de.cyberport.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent per {@link SearchStage} while answering a single request. The buckets of a container are searched
+ * in parallel, so the stages are accumulated lock-free and hold the summed time of all searched indexes.
+ *
+ * @author Sentham
+ */
+public final class SearchTrace {
+
+    private static final SearchTrace DISABLED = new SearchTrace(false);
+
+    private final boolean enabled;
+    private final LongAdder[] nanos = new LongAdder[SearchStage.values().length];
+    private final LongAdder[] counts = new LongAdder[SearchStage.values().length];
+
+    public SearchTrace() {
+        this(true);
+    }
+
+    private SearchTrace(boolean enabled) {
+        this.enabled = enabled;
+        for (int stage = 0; stage < nanos.length; stage++) {
+            nanos[stage] = new LongAdder();
+            counts[stage] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return A trace that ignores all stages, for searches that are not measured
+     */
+    public static SearchTrace disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @param stage The stage
+     * @param elapsedNanos Time spent in the stage
+     */
+    public void add(SearchStage stage, long elapsedNanos) {
+        if (enabled) {
+            nanos[stage.ordinal()].add(elapsedNanos);
+            counts[stage.ordinal()].increment();
+        }
+    }
+
+    /**
+     * @param stage The stage
+     * @return false if the stage was not passed, e.g. because the result came from the cache
+     */
+    public boolean isRecorded(SearchStage stage) {
+        return counts[stage.ordinal()].sum() > 0;
+    }
+
+    /**
+     * @param stage The stage
+     * @return Total time spent in the stage
+     */
+    public long getNanos(SearchStage stage) {
+        return nanos[stage.ordinal()].sum();
+    }
+}
@@ -0,0 +1,40 @@
+package de.cyberport.core.metrics;
+
+/**
+ * Latency histograms of every {@link SearchStage} and the response size histogram of one query shape,
+ * i.e. of all queries using the same filters and sort order regardless of their values.
+ *
+ * @author Sentham
+ */
+public final class ShapeMetrics {
+
+    private final String shape;
+    private final LatencyHistogram[] stages = new LatencyHistogram[SearchStage.values().length];
+    private final LatencyHistogram bytes = new LatencyHistogram();
+
+    public ShapeMetrics(String shape) {
+        this.shape = shape;
+        for (int stage = 0; stage < stages.length; stage++) {
+            stages[stage] = new LatencyHistogram();
+        }
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    /**
+     * @param stage The search stage
+     * @return Latencies of the stage in nanoseconds
+     */
+    public LatencyHistogram getStage(SearchStage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * @return Sizes of the written responses in bytes
+     */
+    public LatencyHistogram getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,117 @@
+package de.cyberport.core.metrics.impl;
+
+import de.cyberport.core.metrics.LatencyHistogram;
+import de.cyberport.core.metrics.SearchMetrics;
+import de.cyberport.core.metrics.SearchStage;
+import de.cyberport.core.metrics.SearchTrace;
+import de.cyberport.core.metrics.ShapeMetrics;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory {@link SearchMetrics} with one set of lock-free histograms per query shape. The number of shapes is
+ * bounded, queries of further shapes are recorded under {@link #OTHER_SHAPE}.
+ *
+ * @author Sentham
+ */
+@Component(service = { SearchMetrics.class, SearchMetricsMBean.class },
+        property = "jmx.objectname=de.cyberport.core:type=SearchMetrics")
+public class SearchMetricsImpl implements SearchMetrics, SearchMetricsMBean {
+
+    static final String OTHER_SHAPE = "other";
+
+    /**
+     * Every query shape holds a few kilobytes of buckets, so the number of shapes is limited
+     */
+    private static final int MAX_SHAPES = 256;
+
+    private final ConcurrentMap<String, ShapeMetrics> shapes = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(String shape, SearchStage stage, long nanos) {
+        metricsOf(shape).getStage(stage).record(nanos);
+    }
+
+    @Override
+    public void record(String shape, SearchTrace trace) {
+        ShapeMetrics metrics = metricsOf(shape);
+        for (SearchStage stage : SearchStage.values()) {
+            if (trace.isRecorded(stage)) {
+                metrics.getStage(stage).record(trace.getNanos(stage));
+            }
+        }
+    }
+
+    @Override
+    public void recordBytes(String shape, long bytes) {
+        metricsOf(shape).getBytes().record(bytes);
+    }
+
+    @Override
+    public Collection<ShapeMetrics> getShapes() {
+        List<ShapeMetrics> sorted = new ArrayList<>(shapes.values());
+        sorted.sort(Comparator.comparing(ShapeMetrics::getShape));
+        return Collections.unmodifiableList(sorted);
+    }
+
+    @Override
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    @Override
+    public String[] getStageLatencies() {
+        List<String> lines = new ArrayList<>();
+        for (ShapeMetrics metrics : getShapes()) {
+            for (SearchStage stage : SearchStage.values()) {
+                LatencyHistogram histogram = metrics.getStage(stage);
+                if (histogram.getCount() > 0) {
+                    lines.add(String.format(Locale.ROOT, "%s %s: count=%d p50=%dus p99=%dus max=%dus", metrics.getShape(),
+                            stage.name().toLowerCase(Locale.ROOT), histogram.getCount(), micros(histogram.getPercentile(50)),
+                            micros(histogram.getPercentile(99)), micros(histogram.getMax())));
+                }
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getResponseSizes() {
+        List<String> lines = new ArrayList<>();
+        for (ShapeMetrics metrics : getShapes()) {
+            LatencyHistogram histogram = metrics.getBytes();
+            if (histogram.getCount() > 0) {
+                lines.add(String.format(Locale.ROOT, "%s: count=%d p50=%dB p99=%dB max=%dB", metrics.getShape(),
+                        histogram.getCount(), histogram.getPercentile(50), histogram.getPercentile(99), histogram.getMax()));
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public void reset() {
+        shapes.clear();
+    }
+
+    private ShapeMetrics metricsOf(String shape) {
+        ShapeMetrics metrics = shapes.get(shape);
+        if (metrics != null) {
+            return metrics;
+        }
+        String key = shapes.size() < MAX_SHAPES ? shape : OTHER_SHAPE;
+        return shapes.computeIfAbsent(key, ShapeMetrics::new);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,23 @@
+package de.cyberport.core.metrics.impl;
+
+/**
+ * JMX view on the search metrics to find the query shapes worth an index.
+ *
+ * @author Sentham
+ */
+public interface SearchMetricsMBean {
+
+    int getShapeCount();
+
+    /**
+     * @return One line per query shape and stage with count, p50, p99 and max latency in microseconds
+     */
+    String[] getStageLatencies();
+
+    /**
+     * @return One line per query shape with count, p50, p99 and max response size in bytes
+     */
+    String[] getResponseSizes();
+
+    void reset();
+}
@@ -0,0 +1,166 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmBucket;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexService;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Searches a container whose films are grouped in buckets, e.g. one bucket per decade. Buckets whose year range
+ * cannot match the query are skipped, the remaining indexes are searched in parallel on a {@link ForkJoinPool}
+ * and the sorted run of every index is merged into the result. Facets of the indexes are merged the same way.
+ *
+ * @author Sentham
+ */
+public final class BucketedFilmSearch {
+
+    /**
+     * Below this number of films, forking costs more than searching the indexes one after another
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 16384;
+
+    private BucketedFilmSearch() {
+    }
+
+    /**
+     * Collects the index of the container and the indexes of all buckets below it that can match the query.
+     * Resolving buckets reads the repository, so this runs on the request thread, the resource resolver is not thread safe.
+     * @param indexService Provides the index of every bucket
+     * @param resolver The resource resolver of the request
+     * @param index The container index
+     * @param query The compiled query
+     * @return Indexes in repository order, only indexes holding films are included
+     */
+    public static List<FilmIndex> collect(FilmIndexService indexService, ResourceResolver resolver, FilmIndex index, OscarQuery query) {
+        List<FilmIndex> indexes = new ArrayList<>();
+        collect(indexService, resolver, index, bucket -> query.matchesYears(bucket.getMinYear(), bucket.getMaxYear()), indexes);
+        return indexes;
+    }
+
+    /**
+     * Collects the indexes once for several queries, a bucket is included if any of the queries can match it.
+     * Queries whose year filters exclude a bucket find no film in it, the indexes answer that from their year bitmaps.
+     * @param indexService Provides the index of every bucket
+     * @param resolver The resource resolver of the request
+     * @param index The container index
+     * @param queries The compiled queries
+     * @return Indexes in repository order, only indexes holding films are included
+     */
+    public static List<FilmIndex> collect(FilmIndexService indexService, ResourceResolver resolver, FilmIndex index,
+                                          Collection<OscarQuery> queries) {
+        List<FilmIndex> indexes = new ArrayList<>();
+        collect(indexService, resolver, index, bucket -> queries.stream()
+                .anyMatch(query -> query.matchesYears(bucket.getMinYear(), bucket.getMaxYear())), indexes);
+        return indexes;
+    }
+
+    /**
+     * @param pool The pool the indexes are searched on
+     * @param indexes The indexes to search
+     * @param query The compiled query
+     * @param search Returns the ordinals of the matching films of an index in sort order, must be thread safe
+     * @return The first films of all indexes in sort order
+     */
+    public static FilmResult execute(ForkJoinPool pool, List<FilmIndex> indexes, OscarQuery query,
+                                     Function<FilmIndex, int[]> search) {
+        return execute(pool, indexes, FilmResult.empty(), index -> FilmResult.of(index, search.apply(index)),
+                (first, second) -> FilmResult.merge(first, second, query));
+    }
+
+    /**
+     * @param pool The pool the indexes are aggregated on
+     * @param indexes The indexes to aggregate
+     * @param query The compiled query with the requested facets
+     * @return The facets of the matching films of all indexes
+     */
+    public static FilmFacets aggregate(ForkJoinPool pool, List<FilmIndex> indexes, OscarQuery query) {
+        return execute(pool, indexes, FilmFacets.empty(query.getFacets()),
+                index -> FilmFacets.compute(index, FilmQueryExecutor.select(index, query), query.getFacets()), FilmFacets::merge);
+    }
+
+    private static <T> T execute(ForkJoinPool pool, List<FilmIndex> indexes, T empty, Function<FilmIndex, T> search,
+                                 BinaryOperator<T> merge) {
+        if (indexes.isEmpty()) {
+            return empty;
+        }
+        if (indexes.size() == 1) {
+            return search.apply(indexes.get(0));
+        }
+        return pool.invoke(new SearchTask<>(indexes, 0, indexes.size(), empty, search, merge));
+    }
+
+    private static void collect(FilmIndexService indexService, ResourceResolver resolver, FilmIndex index,
+                                Predicate<FilmBucket> matches, List<FilmIndex> indexes) {
+        if (index.size() > 0) {
+            indexes.add(index);
+        }
+        for (FilmBucket bucket : index.buckets()) {
+            if (!matches.test(bucket)) {
+                continue;
+            }
+            Resource resource = resolver.getResource(bucket.getPath());
+            if (resource != null) {
+                collect(indexService, resolver, indexService.getIndex(resource), matches, indexes);
+            }
+        }
+    }
+
+    /**
+     * Splits the indexes in halves until a range is small enough to be searched sequentially, the results
+     * of both halves, e.g. sorted runs, are merged on the way back
+     */
+    private static final class SearchTask<T> extends RecursiveTask<T> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<FilmIndex> indexes;
+        private final int from;
+        private final int to;
+        private final transient T empty;
+        private final transient Function<FilmIndex, T> search;
+        private final transient BinaryOperator<T> merge;
+
+        SearchTask(List<FilmIndex> indexes, int from, int to, T empty, Function<FilmIndex, T> search, BinaryOperator<T> merge) {
+            this.indexes = indexes;
+            this.from = from;
+            this.to = to;
+            this.empty = empty;
+            this.search = search;
+            this.merge = merge;
+        }
+
+        @Override
+        protected T compute() {
+            if (to - from == 1 || filmCount() <= SEQUENTIAL_THRESHOLD) {
+                T result = empty;
+                for (int i = from; i < to; i++) {
+                    result = merge.apply(result, search.apply(indexes.get(i)));
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            SearchTask<T> first = new SearchTask<>(indexes, from, middle, empty, search, merge);
+            first.fork();
+            T second = new SearchTask<>(indexes, middle, to, empty, search, merge).compute();
+            return merge.apply(first.join(), second);
+        }
+
+        private long filmCount() {
+            long count = 0;
+            for (int i = from; i < to; i++) {
+                count += indexes.get(i).size();
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.servlets.OscarConstants;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position after the last film of a result page. The cursor holds the sort tuple of that film instead of an offset:
+ * the title score of fuzzy title queries, the values of the sort keys, the title, the path of its index and its ordinal.
+ * The next page seeks to the first film after that tuple, so films added or removed before the cursor neither
+ * repeat nor skip films of later pages, and seeking costs a binary search in the sort order of each index.
+ * Compound sort orders have no precomputed order to search, their films are tested against the cursor instead.
+ *
+ * @author Sentham
+ */
+public final class FilmCursor {
+
+    private static final String VERSION = "1";
+
+    /**
+     * Cannot be part of a JCR path, the title is the last field and may contain it
+     */
+    private static final String SEPARATOR = "|";
+    private static final String VALUE_SEPARATOR = ",";
+    private static final int FIELDS = 7;
+
+    private final FilmSort sort;
+    private final int score;
+    private final int[] sortValues;
+    private final String title;
+    private final String path;
+    private final int ordinal;
+
+    private FilmCursor(FilmSort sort, int score, int[] sortValues, String title, String path, int ordinal) {
+        this.sort = sort;
+        this.score = score;
+        this.sortValues = sortValues;
+        this.title = title;
+        this.path = path;
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * @param result A result page
+     * @param query The query of the result
+     * @return Cursor after the last film of the page or null if the page is the last one
+     */
+    public static FilmCursor next(FilmResult result, OscarQuery query) {
+        if (result.size() == 0 || result.size() < query.getLimit()) {
+            return null;
+        }
+        int last = result.size() - 1;
+        FilmIndex index = result.index(last);
+        int ordinal = result.ordinal(last);
+        int score = query.getTitleQuery() != null ? index.titleIndex().score(query.getTitleQuery(), ordinal) : -1;
+        FilmSort sort = query.getSort();
+        int[] sortValues = new int[sort.keyCount()];
+        for (int key = 0; key < sortValues.length; key++) {
+            sortValues[key] = index.sortValue(sort.key(key), ordinal);
+        }
+        return new FilmCursor(sort, score, sortValues, index.title(ordinal), index.getPath(), ordinal);
+    }
+
+    /**
+     * @param value An encoded cursor
+     * @return The decoded cursor
+     * @throws IllegalArgumentException If the value is not a cursor
+     */
+    public static FilmCursor decode(String value) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(value.trim()), StandardCharsets.UTF_8);
+            String[] fields = decoded.split("\\" + SEPARATOR, FIELDS);
+            if (fields.length != FIELDS || !VERSION.equals(fields[0])) {
+                throw new IllegalArgumentException("Unsupported cursor format");
+            }
+            FilmSort sort = FilmSort.parse(fields[1], null);
+            // Sorting by title alone has no numeric key, its cursors hold a single unused value
+            String[] values = fields[3].split(VALUE_SEPARATOR);
+            if (sort.keyCount() > 0 && values.length != sort.keyCount()) {
+                throw new IllegalArgumentException("Unsupported cursor format");
+            }
+            int[] sortValues = new int[sort.keyCount()];
+            for (int key = 0; key < sortValues.length; key++) {
+                sortValues[key] = Integer.parseInt(values[key]);
+            }
+            return new FilmCursor(sort, Integer.parseInt(fields[2]), sortValues, fields[6], fields[4], Integer.parseInt(fields[5]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + OscarConstants.CURSOR + ": " + value, e);
+        }
+    }
+
+    /**
+     * @return The opaque url safe representation of the cursor
+     */
+    public String encode() {
+        StringBuilder values = new StringBuilder(sortValues.length == 0 ? "0" : "");
+        for (int key = 0; key < sortValues.length; key++) {
+            values.append(key > 0 ? VALUE_SEPARATOR : "").append(sortValues[key]);
+        }
+        String fields = String.join(SEPARATOR, VERSION, sort.toString(), String.valueOf(score), values,
+                path, String.valueOf(ordinal), title);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(fields.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public FilmSort getSort() {
+        return sort;
+    }
+
+    /**
+     * @return Title score of the last film for fuzzy title queries, -1 otherwise
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * @return Value of the first sort key of the last film, 0 when sorting by title
+     */
+    public int getSortValue() {
+        return sortValues.length > 0 ? sortValues[0] : 0;
+    }
+
+    /**
+     * @param key Position of the numeric sort key
+     * @return Value of the sort key of the last film
+     */
+    public int getSortValue(int key) {
+        return sortValues[key];
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @param index The container or bucket index
+     * @return First position within the sort order of the index whose film comes after the cursor, ignoring the score.
+     * The sort order must be {@link FilmSort#isPrecomputed() precomputed}.
+     */
+    public int seek(FilmIndex index) {
+        int low = 0;
+        int high = index.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (!follows(index, sort.ordinalAt(index, middle))) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Orders a film against the cursor by the sort keys, title, index path and ordinal, which is the order
+     * of {@link FilmResult#merge(FilmResult, FilmResult, OscarQuery)} for equal scores
+     * @param index The container or bucket index
+     * @param filmOrdinal Ordinal of the film
+     * @return true if the film comes after the cursor
+     */
+    public boolean follows(FilmIndex index, int filmOrdinal) {
+        for (int key = 0; key < sortValues.length; key++) {
+            int comparison = Integer.compare(index.sortValue(sort.key(key), filmOrdinal), sortValues[key]);
+            if (comparison != 0) {
+                return sort.isDescending(key) ? comparison < 0 : comparison > 0;
+            }
+        }
+        int comparison = index.title(filmOrdinal).compareTo(title);
+        if (comparison == 0) {
+            comparison = index.getPath().compareTo(path);
+        }
+        if (comparison == 0) {
+            comparison = Integer.compare(filmOrdinal, ordinal);
+        }
+        return sort.isTitleDescending() ? comparison < 0 : comparison > 0;
+    }
+}
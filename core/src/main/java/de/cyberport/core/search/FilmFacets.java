@@ -0,0 +1,229 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.ValueIndex;
+import de.cyberport.core.servlets.OscarFacet;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts and numeric statistics of the films matching a query. All requested facets are computed in a single pass
+ * over the bitmap of the matching films, reading the primitive columns of the index into plain int counters, so
+ * no object is created per film. Facets of several indexes, e.g. the buckets of a container, are merged.
+ *
+ * @author Sentham
+ */
+public final class FilmFacets {
+
+    private final Set<OscarFacet> facets;
+    private final Map<OscarFacet, Histogram> histograms;
+    private final int total;
+    private final int bestPictures;
+
+    private FilmFacets(Set<OscarFacet> facets, Map<OscarFacet, Histogram> histograms, int total, int bestPictures) {
+        this.facets = facets;
+        this.histograms = histograms;
+        this.total = total;
+        this.bestPictures = bestPictures;
+    }
+
+    /**
+     * @param facets The requested facets
+     * @return Facets of no films
+     */
+    public static FilmFacets empty(Set<OscarFacet> facets) {
+        return new FilmFacets(facets, Collections.emptyMap(), 0, 0);
+    }
+
+    /**
+     * @param index The container or bucket index
+     * @param films Bitmap of the matching films
+     * @param facets The requested facets
+     * @return The facets of the matching films
+     */
+    public static FilmFacets compute(FilmIndex index, BitSet films, Set<OscarFacet> facets) {
+        Histogram years = facets.contains(OscarFacet.year) ? new Histogram(OscarFacet.year, index.yearIndex()) : null;
+        Histogram awards = facets.contains(OscarFacet.awards) ? new Histogram(OscarFacet.awards, index.awardIndex()) : null;
+        Histogram nominations = facets.contains(OscarFacet.nominations)
+                ? new Histogram(OscarFacet.nominations, index.nominationIndex()) : null;
+        boolean countBestPictures = facets.contains(OscarFacet.isBestPicture);
+        int total = 0;
+        int bestPictures = 0;
+        for (int ordinal = films.nextSetBit(0); ordinal >= 0; ordinal = films.nextSetBit(ordinal + 1)) {
+            total++;
+            if (years != null) {
+                years.add(index.year(ordinal));
+            }
+            if (awards != null) {
+                awards.add(index.awards(ordinal));
+            }
+            if (nominations != null) {
+                nominations.add(index.nominations(ordinal));
+            }
+            if (countBestPictures && index.isBestPicture(ordinal)) {
+                bestPictures++;
+            }
+        }
+
+        Map<OscarFacet, Histogram> histograms = new EnumMap<>(OscarFacet.class);
+        putIfPresent(histograms, OscarFacet.year, years);
+        putIfPresent(histograms, OscarFacet.awards, awards);
+        putIfPresent(histograms, OscarFacet.nominations, nominations);
+        return new FilmFacets(facets, histograms, total, bestPictures);
+    }
+
+    /**
+     * @param first Facets of some films
+     * @param second Facets of other films with the same requested facets
+     * @return The facets of the films of both
+     */
+    public static FilmFacets merge(FilmFacets first, FilmFacets second) {
+        if (second.total == 0) {
+            return first;
+        }
+        if (first.total == 0) {
+            return second;
+        }
+        Map<OscarFacet, Histogram> histograms = new EnumMap<>(OscarFacet.class);
+        for (Map.Entry<OscarFacet, Histogram> entry : first.histograms.entrySet()) {
+            histograms.put(entry.getKey(), Histogram.merge(entry.getValue(), second.histograms.get(entry.getKey())));
+        }
+        return new FilmFacets(first.facets, histograms, first.total + second.total, first.bestPictures + second.bestPictures);
+    }
+
+    /**
+     * @return The requested facets
+     */
+    public Set<OscarFacet> getFacets() {
+        return facets;
+    }
+
+    /**
+     * @return Number of matching films
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Number of matching best picture winners, 0 if the isBestPicture facet was not requested
+     */
+    public int getBestPictures() {
+        return bestPictures;
+    }
+
+    /**
+     * @param facet A numeric facet
+     * @return The histogram of the facet or null if it was not requested or no film matches
+     */
+    public Histogram getHistogram(OscarFacet facet) {
+        Histogram histogram = histograms.get(facet);
+        return histogram != null && histogram.count > 0 ? histogram : null;
+    }
+
+    private static void putIfPresent(Map<OscarFacet, Histogram> histograms, OscarFacet facet, Histogram histogram) {
+        if (histogram != null) {
+            histograms.put(facet, histogram);
+        }
+    }
+
+    /**
+     * Film counts per bucket of a numeric column together with the minimum, maximum and sum of the values.
+     * The buckets cover the value range of the index column, so counting never has to grow the array.
+     */
+    public static final class Histogram {
+
+        private final int bucketWidth;
+        private final int firstBucket;
+        private final int[] counts;
+        private int count;
+        private int min = Integer.MAX_VALUE;
+        private int max = Integer.MIN_VALUE;
+        private long sum;
+
+        private Histogram(OscarFacet facet, ValueIndex column) {
+            this(facet.getBucketWidth(), Math.floorDiv(column.minValue(), facet.getBucketWidth()),
+                    Math.floorDiv(column.maxValue(), facet.getBucketWidth()));
+        }
+
+        private Histogram(int bucketWidth, int firstBucket, int lastBucket) {
+            this.bucketWidth = bucketWidth;
+            this.firstBucket = firstBucket;
+            this.counts = new int[lastBucket - firstBucket + 1];
+        }
+
+        private void add(int value) {
+            counts[Math.floorDiv(value, bucketWidth) - firstBucket]++;
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+
+        private static Histogram merge(Histogram first, Histogram second) {
+            if (second.count == 0) {
+                return first;
+            }
+            if (first.count == 0) {
+                return second;
+            }
+            int firstBucket = Math.min(first.firstBucket, second.firstBucket);
+            int lastBucket = Math.max(first.firstBucket + first.counts.length, second.firstBucket + second.counts.length) - 1;
+            Histogram merged = new Histogram(first.bucketWidth, firstBucket, lastBucket);
+            for (Histogram histogram : new Histogram[] { first, second }) {
+                int offset = histogram.firstBucket - firstBucket;
+                for (int bucket = 0; bucket < histogram.counts.length; bucket++) {
+                    merged.counts[offset + bucket] += histogram.counts[bucket];
+                }
+            }
+            merged.count = first.count + second.count;
+            merged.min = Math.min(first.min, second.min);
+            merged.max = Math.max(first.max, second.max);
+            merged.sum = first.sum + second.sum;
+            return merged;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public double getAverage() {
+            return (double) sum / count;
+        }
+
+        /**
+         * @return Number of buckets between the lowest and the highest value, empty buckets included
+         */
+        public int bucketCount() {
+            return counts.length;
+        }
+
+        /**
+         * @param bucket Bucket number
+         * @return The lowest value counted in the bucket
+         */
+        public int bucketStart(int bucket) {
+            return (firstBucket + bucket) * bucketWidth;
+        }
+
+        /**
+         * @param bucket Bucket number
+         * @return Number of films in the bucket
+         */
+        public int count(int bucket) {
+            return counts[bucket];
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.servlets.OscarConstants;
+import de.cyberport.core.utils.OscarUtils;
+
+import java.util.BitSet;
+import java.util.function.Function;
+
+/**
+ * A single compiled filter of an {@link OscarQuery}. A filter can select its matches from the bitmap indexes
+ * and can test a single film, filters without a bitmap index are only evaluated per film.
+ *
+ * @author Sentham
+ */
+public final class FilmFilter {
+
+    /**
+     * Estimated selectivity of a filter, filters are evaluated in this order
+     */
+    public enum Kind {
+        EXACT,
+        RANGE,
+        BOOLEAN
+    }
+
+    @FunctionalInterface
+    public interface FilmPredicate {
+        boolean test(FilmIndex index, int ordinal);
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final Function<FilmIndex, BitSet> selector;
+    private final FilmPredicate predicate;
+
+    private FilmFilter(String name, Kind kind, Function<FilmIndex, BitSet> selector, FilmPredicate predicate) {
+        this.name = name;
+        this.kind = kind;
+        this.selector = selector;
+        this.predicate = predicate;
+    }
+
+    public static FilmFilter title(String title) {
+        return new FilmFilter(OscarConstants.TITLE, Kind.EXACT, null,
+                (index, ordinal) -> OscarUtils.compareString(index.title(ordinal), title));
+    }
+
+    /**
+     * @param prefix The folded beginning of the title
+     * @return Filter on the beginning of the title, ignoring case and diacritics
+     */
+    public static FilmFilter titlePrefix(String prefix) {
+        return new FilmFilter(OscarConstants.TITLE_PREFIX, Kind.RANGE, index -> index.titleIndex().prefix(prefix),
+                (index, ordinal) -> index.titleIndex().foldedTitle(ordinal).startsWith(prefix));
+    }
+
+    public static FilmFilter year(int year) {
+        return new FilmFilter(OscarConstants.YEAR, Kind.EXACT, index -> index.yearIndex().equalTo(year),
+                (index, ordinal) -> OscarUtils.compareInteger(index.year(ordinal), year));
+    }
+
+    public static FilmFilter nominations(int nominations) {
+        return new FilmFilter(OscarConstants.NOMINATIONS, Kind.EXACT, index -> index.nominationIndex().equalTo(nominations),
+                (index, ordinal) -> OscarUtils.compareInteger(index.nominations(ordinal), nominations));
+    }
+
+    public static FilmFilter yearRange(int minYear, int maxYear) {
+        return new FilmFilter(OscarConstants.YEAR, Kind.RANGE, index -> index.yearIndex().range(minYear, maxYear),
+                (index, ordinal) -> OscarUtils.compareMinValue(index.year(ordinal), minYear)
+                        && OscarUtils.compareMaxValue(index.year(ordinal), maxYear));
+    }
+
+    public static FilmFilter awardRange(int minAwards, int maxAwards) {
+        return new FilmFilter(OscarConstants.AWARDS, Kind.RANGE, index -> index.awardIndex().range(minAwards, maxAwards),
+                (index, ordinal) -> OscarUtils.compareMinValue(index.awards(ordinal), minAwards)
+                        && OscarUtils.compareMaxValue(index.awards(ordinal), maxAwards));
+    }
+
+    public static FilmFilter referenceRange(int minReferences, int maxReferences) {
+        return new FilmFilter(OscarConstants.NUMBER_OF_REFERENCES, Kind.RANGE, index -> index.referenceRange(minReferences, maxReferences),
+                (index, ordinal) -> OscarUtils.compareMinValue(index.references(ordinal), minReferences)
+                        && OscarUtils.compareMaxValue(index.references(ordinal), maxReferences));
+    }
+
+    /**
+     * @param cursor Position after the last film of the previous page
+     * @return Filter on the films after the cursor, for sort orders the cursor cannot seek in
+     */
+    public static FilmFilter after(FilmCursor cursor) {
+        return new FilmFilter(OscarConstants.CURSOR, Kind.RANGE, null, cursor::follows);
+    }
+
+    public static FilmFilter bestPicture(boolean bestPicture) {
+        return new FilmFilter(OscarConstants.IS_BEST_PICTURE, Kind.BOOLEAN, index -> {
+            if (bestPicture) {
+                return index.bestPictures();
+            }
+            BitSet others = index.all();
+            others.andNot(index.bestPictures());
+            return others;
+        }, (index, ordinal) -> index.isBestPicture(ordinal) == bestPicture);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return true if the filter can be resolved through a bitmap index
+     */
+    public boolean isIndexed() {
+        return selector != null;
+    }
+
+    /**
+     * @param index The container index
+     * @return A new bitmap of all matching films
+     * @throws IllegalStateException If the filter is not indexed
+     */
+    public BitSet select(FilmIndex index) {
+        if (selector == null) {
+            throw new IllegalStateException("Filter on " + name + " has no bitmap index");
+        }
+        return selector.apply(index);
+    }
+
+    public boolean test(FilmIndex index, int ordinal) {
+        return predicate.test(index, ordinal);
+    }
+}
@@ -0,0 +1,271 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.TitleIndex;
+import de.cyberport.core.metrics.SearchStage;
+import de.cyberport.core.metrics.SearchTrace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Executes an {@link OscarQuery} on a {@link FilmIndex}. Indexed filters are intersected as bitmaps in the
+ * order of the compiled query, the remaining filters are tested per candidate before sorting. Depending on the number of candidates
+ * the result is either collected by walking the precomputed sort order or selected with a bounded heap.
+ * Fuzzy title queries rank their matches by score first and by the sort order second.
+ * A cursor is resolved to its position in the sort order once, so later pages cost about as much as the first one.
+ * Compound sort orders have no precomputed order to walk or seek in, their films are always selected with the heap
+ * on packed keys and the films up to the cursor are filtered out.
+ *
+ * @author Sentham
+ */
+public final class FilmQueryExecutor {
+
+    private static final int[] NO_FILMS = new int[0];
+
+    private FilmQueryExecutor() {
+    }
+
+    /**
+     * @param index The container index
+     * @param query The compiled query
+     * @return Ordinals of the matching films in response order
+     */
+    public static int[] execute(FilmIndex index, OscarQuery query) {
+        return execute(index, query, SearchTrace.disabled());
+    }
+
+    /**
+     * @param index The container index
+     * @param query The compiled query
+     * @param trace Receives the time spent in the candidate, filter and sort stages
+     * @return Ordinals of the matching films in response order
+     */
+    public static int[] execute(FilmIndex index, OscarQuery query, SearchTrace trace) {
+        if (!query.isSatisfiable()) {
+            return NO_FILMS;
+        }
+        FilmSort sort = query.getSort();
+        FilmCursor cursor = query.getCursor();
+        int from = cursor != null && sort.isPrecomputed() ? cursor.seek(index) : 0;
+        if (from == index.size() && query.getTitleQuery() == null) {
+            return NO_FILMS;
+        }
+        long start = System.nanoTime();
+        List<FilmFilter> residualFilters = new ArrayList<>();
+        BitSet candidates = selectIndexed(index, query, residualFilters);
+        if (cursor != null && !sort.isPrecomputed() && query.getTitleQuery() == null) {
+            residualFilters.add(FilmFilter.after(cursor));
+        }
+        if (candidates != null && candidates.isEmpty()) {
+            trace.add(SearchStage.CANDIDATES, System.nanoTime() - start);
+            return NO_FILMS;
+        }
+        if (query.getTitleQuery() != null) {
+            TitleIndex.Matches matches = index.titleIndex().search(query.getTitleQuery());
+            long searched = System.nanoTime();
+            trace.add(SearchStage.CANDIDATES, searched - start);
+            int[] ordinals = rankByTitle(index, query, from, matches, candidates, residualFilters);
+            trace.add(SearchStage.SORT, System.nanoTime() - searched);
+            return ordinals;
+        }
+        if (candidates == null) {
+            candidates = index.all();
+        }
+        long selected = System.nanoTime();
+        trace.add(SearchStage.CANDIDATES, selected - start);
+        if (!residualFilters.isEmpty()) {
+            removeNonMatching(index, candidates, residualFilters);
+            long filtered = System.nanoTime();
+            trace.add(SearchStage.FILTER, filtered - selected);
+            selected = filtered;
+        }
+
+        int[] ordinals;
+        int candidateCount = candidates.cardinality();
+        if (!sort.isPrecomputed() || isHeapCheaper(index.size(), candidateCount, query.getLimit())) {
+            FilmSort.Keys keys = sort.keys(index);
+            long fromKey = sort.isPrecomputed() ? keys.key(sort.ordinalAt(index, from)) : Long.MIN_VALUE;
+            ordinals = TopKSelector.select(keys, candidates, query.getLimit(), fromKey);
+        } else {
+            ordinals = walkSortOrder(index, query, from, candidates, candidateCount);
+        }
+        trace.add(SearchStage.SORT, System.nanoTime() - selected);
+        return ordinals;
+    }
+
+    /**
+     * @param index The container index
+     * @param query The compiled query
+     * @return A new bitmap of all films matching the filters of the query, regardless of its sort order, limit and cursor
+     */
+    public static BitSet select(FilmIndex index, OscarQuery query) {
+        return select(index, query, SearchTrace.disabled());
+    }
+
+    /**
+     * @param index The container index
+     * @param query The compiled query
+     * @param trace Receives the time spent in the candidate and filter stages
+     * @return A new bitmap of all films matching the filters of the query, regardless of its sort order, limit and cursor
+     */
+    public static BitSet select(FilmIndex index, OscarQuery query, SearchTrace trace) {
+        if (!query.isSatisfiable()) {
+            return new BitSet();
+        }
+        long start = System.nanoTime();
+        List<FilmFilter> residualFilters = new ArrayList<>();
+        BitSet candidates = selectIndexed(index, query, residualFilters);
+        BitSet films;
+        if (candidates != null && candidates.isEmpty()) {
+            films = candidates;
+        } else if (query.getTitleQuery() != null) {
+            films = new BitSet(index.size());
+            TitleIndex.Matches matches = index.titleIndex().search(query.getTitleQuery());
+            for (int i = 0; i < matches.size(); i++) {
+                if (candidates == null || candidates.get(matches.ordinal(i))) {
+                    films.set(matches.ordinal(i));
+                }
+            }
+        } else {
+            films = candidates != null ? candidates : index.all();
+        }
+        long selected = System.nanoTime();
+        trace.add(SearchStage.CANDIDATES, selected - start);
+        if (!residualFilters.isEmpty() && !films.isEmpty()) {
+            removeNonMatching(index, films, residualFilters);
+            trace.add(SearchStage.FILTER, System.nanoTime() - selected);
+        }
+        return films;
+    }
+
+    /**
+     * Tests the filters without bitmap index on every remaining film, so sorting only sees matching films
+     */
+    private static void removeNonMatching(FilmIndex index, BitSet films, List<FilmFilter> residualFilters) {
+        for (int ordinal = films.nextSetBit(0); ordinal >= 0; ordinal = films.nextSetBit(ordinal + 1)) {
+            if (!matches(residualFilters, index, ordinal)) {
+                films.clear(ordinal);
+            }
+        }
+    }
+
+    /**
+     * Intersects the bitmaps of the indexed filters in the order of the compiled query
+     * @param residualFilters Receives the filters that have to be tested per film
+     * @return The candidates matching all indexed filters or null if the query has none
+     */
+    private static BitSet selectIndexed(FilmIndex index, OscarQuery query, List<FilmFilter> residualFilters) {
+        BitSet candidates = null;
+        for (FilmFilter filter : query.getFilters()) {
+            if (!filter.isIndexed()) {
+                residualFilters.add(filter);
+                continue;
+            }
+            if (candidates == null) {
+                candidates = filter.select(index);
+            } else {
+                candidates.and(filter.select(index));
+            }
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Walking the sort order visits about limit * size / candidates films before the page is complete,
+     * the heap visits every candidate once at log(limit) cost each
+     */
+    static boolean isHeapCheaper(int size, int candidateCount, int limit) {
+        if (candidateCount == 0) {
+            return false;
+        }
+        long resultSize = Math.min(limit, candidateCount);
+        long walkCost = resultSize * size / candidateCount;
+        long heapCost = (long) candidateCount * (Integer.SIZE - Integer.numberOfLeadingZeros((int) resultSize));
+        return heapCost < walkCost;
+    }
+
+    /**
+     * Visits the films in the precomputed sort order of the index, so the first matches are already the result page
+     * @param from Position of the first film after the cursor
+     */
+    private static int[] walkSortOrder(FilmIndex index, OscarQuery query, int from, BitSet candidates, int candidateCount) {
+        int[] ordinals = new int[Math.min(query.getLimit(), candidateCount)];
+        int count = 0;
+        for (int position = from; position < index.size() && count < ordinals.length; position++) {
+            int ordinal = query.getSort().ordinalAt(index, position);
+            if (candidates.get(ordinal)) {
+                ordinals[count++] = ordinal;
+            }
+        }
+        return count == ordinals.length ? ordinals : Arrays.copyOf(ordinals, count);
+    }
+
+    /**
+     * Ranks the fuzzy title matches that pass all other filters. The key of a match packs the inverted score
+     * above the position of the film in the sort order, so ascending keys are the response order.
+     * Compound sort orders have no precomputed positions, the matches are ranked within the packed keys
+     * of all accepted matches instead.
+     * @param from Position of the first film after the cursor, films of the cursor score before it were on earlier pages
+     * @param matches The fuzzy title matches
+     * @param candidates Films matching the indexed filters or null if there are none
+     */
+    private static int[] rankByTitle(FilmIndex index, OscarQuery query, int from, TitleIndex.Matches matches, BitSet candidates,
+                                     List<FilmFilter> residualFilters) {
+        FilmSort sort = query.getSort();
+        FilmCursor cursor = query.getCursor();
+        long fromKey = cursor != null && sort.isPrecomputed()
+                ? ((long) (TitleIndex.MAX_SCORE - cursor.getScore()) << 32) | from
+                : Long.MIN_VALUE;
+        FilmSort.Keys sortKeys = sort.isPrecomputed() ? null : sort.keys(index);
+        long[] keys = new long[matches.size()];
+        int[] scores = sortKeys != null ? new int[matches.size()] : null;
+        int count = 0;
+        for (int i = 0; i < matches.size(); i++) {
+            int ordinal = matches.ordinal(i);
+            if ((candidates != null && !candidates.get(ordinal)) || !matches(residualFilters, index, ordinal)) {
+                continue;
+            }
+            if (sortKeys == null) {
+                long key = ((long) (TitleIndex.MAX_SCORE - matches.score(i)) << 32) | sort.sortPosition(index, ordinal);
+                if (key >= fromKey) {
+                    keys[count++] = key;
+                }
+            } else if (cursor == null || matches.score(i) < cursor.getScore()
+                    || (matches.score(i) == cursor.getScore() && cursor.follows(index, ordinal))) {
+                // Collected as sort key first, replaced by the ranked key once the order of all accepted matches is known
+                scores[count] = matches.score(i);
+                keys[count++] = sortKeys.key(ordinal);
+            }
+        }
+        long[] order = null;
+        if (sortKeys != null) {
+            order = Arrays.copyOf(keys, count);
+            Arrays.sort(order);
+            for (int i = 0; i < count; i++) {
+                keys[i] = ((long) (TitleIndex.MAX_SCORE - scores[i]) << 32) | Arrays.binarySearch(order, keys[i]);
+            }
+        }
+        long[] selected = TopKSelector.smallest(keys, count, query.getLimit());
+        int[] ordinals = new int[selected.length];
+        for (int position = 0; position < selected.length; position++) {
+            int rank = (int) selected[position];
+            ordinals[position] = order != null ? sortKeys.ordinalOf(order[rank]) : sort.ordinalAt(index, rank);
+        }
+        return ordinals;
+    }
+
+    static boolean matches(List<FilmFilter> filters, FilmIndex index, int ordinal) {
+        for (FilmFilter filter : filters) {
+            if (!filter.test(index, ordinal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
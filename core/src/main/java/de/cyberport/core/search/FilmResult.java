@@ -0,0 +1,109 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.TitleIndex;
+
+/**
+ * Films of a response in response order. A result usually refers to a single index, results merged from
+ * the buckets of a container keep the index of every film.
+ *
+ * @author Sentham
+ */
+public final class FilmResult {
+
+    private static final FilmResult EMPTY = new FilmResult(null, null, new int[0]);
+
+    private final FilmIndex index;
+    private final FilmIndex[] indexes;
+    private final int[] ordinals;
+
+    private FilmResult(FilmIndex index, FilmIndex[] indexes, int[] ordinals) {
+        this.index = index;
+        this.indexes = indexes;
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * @param index The index of all films of the result
+     * @param ordinals Ordinals of the films in response order
+     * @return The result
+     */
+    public static FilmResult of(FilmIndex index, int[] ordinals) {
+        return new FilmResult(index, null, ordinals);
+    }
+
+    /**
+     * @return A result without films
+     */
+    public static FilmResult empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return ordinals.length;
+    }
+
+    /**
+     * @param position Position within the result
+     * @return The index the film at the given position belongs to
+     */
+    public FilmIndex index(int position) {
+        return indexes != null ? indexes[position] : index;
+    }
+
+    /**
+     * @param position Position within the result
+     * @return Ordinal of the film at the given position within its index
+     */
+    public int ordinal(int position) {
+        return ordinals[position];
+    }
+
+    /**
+     * Merges two results in response order into the first films of both
+     * @param first A result in response order
+     * @param second A result in response order
+     * @param query The query of both results
+     * @return The merged result in response order, limited to the limit of the query
+     */
+    public static FilmResult merge(FilmResult first, FilmResult second, OscarQuery query) {
+        int limit = query.getLimit();
+        if (second.size() == 0 && first.size() <= limit) {
+            return first;
+        }
+        if (first.size() == 0 && second.size() <= limit) {
+            return second;
+        }
+        int size = (int) Math.min(limit, (long) first.size() + second.size());
+        FilmIndex[] mergedIndexes = new FilmIndex[size];
+        int[] mergedOrdinals = new int[size];
+        int left = 0;
+        int right = 0;
+        for (int position = 0; position < size; position++) {
+            boolean takeFirst = right == second.size() || (left < first.size()
+                    && compare(first.index(left), first.ordinal(left), second.index(right), second.ordinal(right), query) <= 0);
+            FilmResult source = takeFirst ? first : second;
+            int sourcePosition = takeFirst ? left++ : right++;
+            mergedIndexes[position] = source.index(sourcePosition);
+            mergedOrdinals[position] = source.ordinal(sourcePosition);
+        }
+        return new FilmResult(null, mergedIndexes, mergedOrdinals);
+    }
+
+    /**
+     * Compares films of different indexes the way each index orders its own films: by title score for fuzzy
+     * title queries, then by the sort keys and then by title. Films of equal title are ordered by the path of their
+     * index and their ordinal, the total order {@link FilmCursor} seeks in, see {@link FilmSort#compare}.
+     */
+    static int compare(FilmIndex firstIndex, int firstOrdinal, FilmIndex secondIndex, int secondOrdinal, OscarQuery query) {
+        TitleIndex.FuzzyTitle titleQuery = query.getTitleQuery();
+        if (titleQuery != null) {
+            int comparison = Integer.compare(secondIndex.titleIndex().score(titleQuery, secondOrdinal),
+                    firstIndex.titleIndex().score(titleQuery, firstOrdinal));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return query.getSort().compare(firstIndex, firstOrdinal, secondIndex, secondOrdinal);
+    }
+}
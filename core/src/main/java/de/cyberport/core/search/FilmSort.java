@@ -0,0 +1,325 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.servlets.OscarConstants;
+import de.cyberport.core.servlets.OscarSortBy;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sort order of a query: numeric keys, each ascending or descending, followed by the title. Titles are unique
+ * per film within an index (equal titles are ordered by ordinal), so the title is always the last key and
+ * breaks the ties of the numeric keys, ascending unless it is requested descending.
+ *
+ * A single key whose direction equals the direction of the title is one of the precomputed sort orders of the
+ * index, walked forwards or backwards. Any other order is compound, its films are ordered by {@link Keys}
+ * that pack all keys of a film into one primitive long.
+ *
+ * @author Sentham
+ */
+public final class FilmSort {
+
+    private static final String DESCENDING = "-";
+    private static final String ORDER_ASCENDING = "asc";
+    private static final String ORDER_DESCENDING = "desc";
+
+    private static final FilmSort[] ASCENDING = new FilmSort[OscarSortBy.values().length];
+
+    static {
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            ASCENDING[sortBy.ordinal()] = sortBy == OscarSortBy.title
+                    ? new FilmSort(new OscarSortBy[0], new boolean[0], false)
+                    : new FilmSort(new OscarSortBy[] { sortBy }, new boolean[] { false }, false);
+        }
+    }
+
+    private final OscarSortBy[] keys;
+    private final boolean[] descending;
+    private final boolean titleDescending;
+    private final String canonicalForm;
+
+    private FilmSort(OscarSortBy[] keys, boolean[] descending, boolean titleDescending) {
+        this.keys = keys;
+        this.descending = descending;
+        this.titleDescending = titleDescending;
+        this.canonicalForm = toCanonicalForm();
+    }
+
+    /**
+     * @param sortBy The sort key
+     * @return The ascending order of the key, ties ordered by title
+     */
+    public static FilmSort of(OscarSortBy sortBy) {
+        return ASCENDING[sortBy.ordinal()];
+    }
+
+    /**
+     * Parses comma separated sort keys, a key prefixed with "-" is sorted descending, e.g. "awards,-references,title".
+     * The order "desc" reverses the whole order including the title tie-break.
+     * @param sortBy The sort keys or null to sort by title
+     * @param order "asc", "desc" or null
+     * @return The parsed sort order
+     * @throws IllegalArgumentException If a key is unknown or repeated, the title is not the last key or the order is unknown
+     */
+    public static FilmSort parse(String sortBy, String order) {
+        boolean reversed = parseOrder(order);
+        if (StringUtils.isBlank(sortBy)) {
+            return reversed ? new FilmSort(new OscarSortBy[0], new boolean[0], true) : of(OscarSortBy.title);
+        }
+        String[] names = StringUtils.split(sortBy, ',');
+        List<OscarSortBy> parsedKeys = new ArrayList<>();
+        Set<OscarSortBy> seen = EnumSet.noneOf(OscarSortBy.class);
+        boolean[] parsedDescending = new boolean[names.length];
+        boolean parsedTitleDescending = false;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            boolean keyDescending = name.startsWith(DESCENDING);
+            OscarSortBy key = parseKey(keyDescending ? name.substring(DESCENDING.length()).trim() : name, sortBy);
+            if (!seen.add(key)) {
+                throw new IllegalArgumentException("Invalid value for " + OscarConstants.SORT_BY + ": " + key + " is repeated");
+            }
+            if (key == OscarSortBy.title) {
+                if (i != names.length - 1) {
+                    throw new IllegalArgumentException("Invalid value for " + OscarConstants.SORT_BY + ": title must be the last key");
+                }
+                parsedTitleDescending = keyDescending;
+            } else {
+                parsedDescending[parsedKeys.size()] = keyDescending != reversed;
+                parsedKeys.add(key);
+            }
+        }
+        boolean[] keyDescending = new boolean[parsedKeys.size()];
+        System.arraycopy(parsedDescending, 0, keyDescending, 0, keyDescending.length);
+        return new FilmSort(parsedKeys.toArray(new OscarSortBy[0]), keyDescending, parsedTitleDescending != reversed);
+    }
+
+    /**
+     * @return The first key, the title if the films are only sorted by title
+     */
+    public OscarSortBy getPrimary() {
+        return keys.length > 0 ? keys[0] : OscarSortBy.title;
+    }
+
+    /**
+     * @return Number of numeric keys, the title tie-break is not counted
+     */
+    public int keyCount() {
+        return keys.length;
+    }
+
+    /**
+     * @param key Position of the numeric key
+     * @return The numeric key
+     */
+    public OscarSortBy key(int key) {
+        return keys[key];
+    }
+
+    /**
+     * @param key Position of the numeric key
+     * @return true if the key is sorted descending
+     */
+    public boolean isDescending(int key) {
+        return descending[key];
+    }
+
+    /**
+     * @return true if equal keys are ordered by descending title
+     */
+    public boolean isTitleDescending() {
+        return titleDescending;
+    }
+
+    /**
+     * @return true if the order is a precomputed sort order of the index, walked forwards or backwards
+     */
+    public boolean isPrecomputed() {
+        return keys.length == 0 || (keys.length == 1 && descending[0] == titleDescending);
+    }
+
+    /**
+     * @param index The container or bucket index
+     * @param position Position within the order, which must be {@link #isPrecomputed() precomputed}
+     * @return Ordinal of the film at the position
+     */
+    public int ordinalAt(FilmIndex index, int position) {
+        return index.ordinalAt(getPrimary(), titleDescending ? index.size() - 1 - position : position);
+    }
+
+    /**
+     * @param index The container or bucket index
+     * @param ordinal Ordinal of the film
+     * @return Position of the film within the order, which must be {@link #isPrecomputed() precomputed}
+     */
+    public int sortPosition(FilmIndex index, int ordinal) {
+        int position = index.sortPosition(getPrimary(), ordinal);
+        return titleDescending ? index.size() - 1 - position : position;
+    }
+
+    /**
+     * @param index The container or bucket index
+     * @return The packed keys of the films of the index in this order
+     * @throws IllegalArgumentException If the value ranges of the keys do not fit into a long
+     */
+    public Keys keys(FilmIndex index) {
+        return new Keys(index, this);
+    }
+
+    /**
+     * Checks up front that the packed keys of a compound order can be built for every index, so a query whose value
+     * ranges are too wide is rejected before it is executed. Precomputed orders have a single key, which always fits.
+     * @param indexes The indexes the query is executed on
+     * @throws IllegalArgumentException If the value ranges of the keys in one of the indexes do not fit into a long
+     */
+    public void validate(List<FilmIndex> indexes) {
+        if (isPrecomputed()) {
+            return;
+        }
+        for (FilmIndex index : indexes) {
+            keys(index);
+        }
+    }
+
+    /**
+     * Compares films of the same or of different indexes: by each key, then by title, by the path of the index
+     * and by ordinal. Title, path and ordinal follow the direction of the title, so films of one index compare
+     * like their positions in the sort order of the index.
+     * @return A negative value if the first film comes first
+     */
+    public int compare(FilmIndex firstIndex, int firstOrdinal, FilmIndex secondIndex, int secondOrdinal) {
+        for (int key = 0; key < keys.length; key++) {
+            int comparison = Integer.compare(firstIndex.sortValue(keys[key], firstOrdinal), secondIndex.sortValue(keys[key], secondOrdinal));
+            if (comparison != 0) {
+                return descending[key] ? -comparison : comparison;
+            }
+        }
+        int comparison = firstIndex.title(firstOrdinal).compareTo(secondIndex.title(secondOrdinal));
+        if (comparison == 0) {
+            comparison = firstIndex.getPath().compareTo(secondIndex.getPath());
+        }
+        if (comparison == 0) {
+            comparison = Integer.compare(firstOrdinal, secondOrdinal);
+        }
+        return titleDescending ? -comparison : comparison;
+    }
+
+    /**
+     * @return The keys in request syntax, an ascending title tie-break is omitted, e.g. "awards,-references"
+     */
+    @Override
+    public String toString() {
+        return canonicalForm;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FilmSort && canonicalForm.equals(((FilmSort) other).canonicalForm);
+    }
+
+    @Override
+    public int hashCode() {
+        return canonicalForm.hashCode();
+    }
+
+    private String toCanonicalForm() {
+        List<String> parts = new ArrayList<>();
+        for (int key = 0; key < keys.length; key++) {
+            parts.add(descending[key] ? DESCENDING + keys[key] : keys[key].name());
+        }
+        if (titleDescending) {
+            parts.add(DESCENDING + OscarSortBy.title);
+        } else if (keys.length == 0) {
+            parts.add(OscarSortBy.title.name());
+        }
+        return String.join(",", parts);
+    }
+
+    private static OscarSortBy parseKey(String name, String value) {
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            if (StringUtils.equalsIgnoreCase(sortBy.name(), name)) {
+                return sortBy;
+            }
+        }
+        throw new IllegalArgumentException("Invalid value for " + OscarConstants.SORT_BY + ": " + value);
+    }
+
+    private static boolean parseOrder(String order) {
+        if (order == null || StringUtils.equalsIgnoreCase(order.trim(), ORDER_ASCENDING)) {
+            return false;
+        }
+        if (StringUtils.equalsIgnoreCase(order.trim(), ORDER_DESCENDING)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Invalid value for " + OscarConstants.ORDER + ": " + order);
+    }
+
+    /**
+     * Packs the keys of a film into one long whose ascending order is the sort order. Every numeric key takes
+     * as many bits as the value range of its column in the index needs, descending keys store the distance to
+     * the maximum instead of the minimum. The title rank takes the lowest bits, so keys are unique per film and
+     * the film is found again from its key.
+     */
+    public static final class Keys {
+
+        private final FilmIndex index;
+        private final OscarSortBy[] keys;
+        private final int[] origins;
+        private final boolean[] descending;
+        private final int[] shifts;
+        private final boolean titleDescending;
+        private final long titleMask;
+
+        private Keys(FilmIndex index, FilmSort sort) {
+            this.index = index;
+            this.keys = sort.keys;
+            this.descending = sort.descending;
+            this.titleDescending = sort.titleDescending;
+            this.origins = new int[keys.length];
+            this.shifts = new int[keys.length];
+            int shift = Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(0, index.size() - 1));
+            titleMask = (1L << shift) - 1;
+            for (int key = keys.length - 1; key >= 0; key--) {
+                int min = index.size() > 0 ? index.sortValue(keys[key], index.ordinalAt(keys[key], 0)) : 0;
+                int max = index.size() > 0 ? index.sortValue(keys[key], index.ordinalAt(keys[key], index.size() - 1)) : 0;
+                origins[key] = descending[key] ? max : min;
+                shifts[key] = shift;
+                shift += Long.SIZE - Long.numberOfLeadingZeros((long) max - min);
+            }
+            if (shift >= Long.SIZE) {
+                throw new IllegalArgumentException("Invalid value for " + OscarConstants.SORT_BY + ": the value ranges of "
+                        + sort + " in " + index.getPath() + " exceed a sort key");
+            }
+        }
+
+        public FilmIndex getIndex() {
+            return index;
+        }
+
+        /**
+         * @param ordinal Ordinal of the film
+         * @return The packed sort key, unique within the index
+         */
+        public long key(int ordinal) {
+            long key = 0;
+            for (int i = 0; i < keys.length; i++) {
+                long value = index.sortValue(keys[i], ordinal);
+                key |= (descending[i] ? origins[i] - value : value - origins[i]) << shifts[i];
+            }
+            int rank = index.sortPosition(OscarSortBy.title, ordinal);
+            return key | (titleDescending ? index.size() - 1 - rank : rank);
+        }
+
+        /**
+         * @param key A key returned by {@link #key(int)}
+         * @return Ordinal of the film the key belongs to
+         */
+        public int ordinalOf(long key) {
+            int rank = (int) (key & titleMask);
+            return index.ordinalAt(OscarSortBy.title, titleDescending ? index.size() - 1 - rank : rank);
+        }
+    }
+}
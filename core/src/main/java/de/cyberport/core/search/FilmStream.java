@@ -0,0 +1,157 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.metrics.SearchTrace;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Produces the matching films of several indexes one at a time in response order, so a response can be written
+ * while the search is still running. Every index is walked along its precomputed sort order and the heads of
+ * all indexes are merged with a heap, the only memory held per index is the bitmap of its matching films.
+ * Compound sort orders have no precomputed order to walk, their matching films are sorted by their packed keys
+ * per index when the stream is opened, which holds one long per match.
+ * Fuzzy title queries rank by score across the whole result and cannot be streamed this way.
+ *
+ * @author Sentham
+ */
+public final class FilmStream {
+
+    private final PriorityQueue<Run> runs;
+
+    private int remaining;
+
+    private Run current;
+
+    private FilmStream(PriorityQueue<Run> runs, int limit) {
+        this.runs = runs;
+        this.remaining = limit;
+    }
+
+    /**
+     * Selects the matching films of every index, the sorting happens while the stream is consumed
+     * @param indexes The indexes to search
+     * @param query The compiled query, its limit and cursor are honored
+     * @param trace Receives the time spent in the candidate and filter stages
+     * @return The stream positioned before the first film
+     * @throws IllegalArgumentException If the query holds a fuzzy title query
+     */
+    public static FilmStream open(List<FilmIndex> indexes, OscarQuery query, SearchTrace trace) {
+        if (query.getTitleQuery() != null) {
+            throw new IllegalArgumentException("Fuzzy title queries cannot be streamed");
+        }
+        PriorityQueue<Run> runs = new PriorityQueue<>(Math.max(1, indexes.size()),
+                (first, second) -> FilmResult.compare(first.index, first.ordinal, second.index, second.ordinal, query));
+        FilmSort sort = query.getSort();
+        FilmCursor cursor = query.getCursor();
+        for (FilmIndex index : indexes) {
+            int from = cursor != null && sort.isPrecomputed() ? cursor.seek(index) : 0;
+            if (from == index.size()) {
+                continue;
+            }
+            BitSet films = FilmQueryExecutor.select(index, query, trace);
+            if (films.isEmpty()) {
+                continue;
+            }
+            Run run = sort.isPrecomputed() ? new Run(index, sort, films, from) : new Run(sort.keys(index), films, cursor);
+            if (run.advance()) {
+                runs.add(run);
+            }
+        }
+        return new FilmStream(runs, query.getLimit());
+    }
+
+    /**
+     * Moves to the next film in response order
+     * @return false if all matching films or as many as the limit of the query were visited
+     */
+    public boolean next() {
+        if (current != null && current.advance()) {
+            runs.add(current);
+        }
+        current = remaining > 0 ? runs.poll() : null;
+        if (current == null) {
+            return false;
+        }
+        remaining--;
+        return true;
+    }
+
+    /**
+     * @return The index of the current film
+     */
+    public FilmIndex index() {
+        return current.index;
+    }
+
+    /**
+     * @return Ordinal of the current film within its index
+     */
+    public int ordinal() {
+        return current.ordinal;
+    }
+
+    /**
+     * Position of the walk along the sort order of one index, either the precomputed order or the sorted packed keys
+     */
+    private static final class Run {
+
+        private final FilmIndex index;
+        private final FilmSort sort;
+        private final BitSet films;
+        private final FilmSort.Keys keys;
+        private final long[] sortedKeys;
+
+        private int position;
+        private int ordinal;
+
+        Run(FilmIndex index, FilmSort sort, BitSet films, int from) {
+            this.index = index;
+            this.sort = sort;
+            this.films = films;
+            this.keys = null;
+            this.sortedKeys = null;
+            this.position = from;
+        }
+
+        Run(FilmSort.Keys keys, BitSet films, FilmCursor cursor) {
+            this.index = keys.getIndex();
+            this.sort = null;
+            this.films = null;
+            this.keys = keys;
+            long[] collected = new long[films.cardinality()];
+            int count = 0;
+            for (int film = films.nextSetBit(0); film >= 0; film = films.nextSetBit(film + 1)) {
+                if (cursor == null || cursor.follows(index, film)) {
+                    collected[count++] = keys.key(film);
+                }
+            }
+            this.sortedKeys = Arrays.copyOf(collected, count);
+            Arrays.sort(sortedKeys);
+        }
+
+        /**
+         * @return false if the index has no further matching film
+         */
+        boolean advance() {
+            if (sortedKeys != null) {
+                if (position == sortedKeys.length) {
+                    return false;
+                }
+                ordinal = keys.ordinalOf(sortedKeys[position++]);
+                return true;
+            }
+            while (position < index.size()) {
+                int candidate = sort.ordinalAt(index, position++);
+                if (films.get(candidate)) {
+                    ordinal = candidate;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
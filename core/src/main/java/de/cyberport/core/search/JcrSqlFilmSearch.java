@@ -0,0 +1,238 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexBuilder;
+import de.cyberport.core.servlets.OscarConstants;
+import de.cyberport.core.utils.OscarUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Executes an {@link OscarQuery} as parameterized JCR-SQL2 query, so filtering, sorting and the limit are
+ * evaluated by the Oak indexes instead of the in-memory {@link FilmIndex}. All films below the container are
+ * searched, including the films of its buckets. Title prefixes are matched case-insensitively but, unlike the title
+ * index, with diacritics. Fuzzy title queries are not supported. A cursor continues after its sort value and title,
+ * films that share both with the last film of the previous page are skipped.
+ *
+ * @author Sentham
+ */
+public final class JcrSqlFilmSearch {
+
+    private JcrSqlFilmSearch() {
+    }
+
+    /**
+     * @param container The film container resource
+     * @param query The compiled query
+     * @return The matching films in sort order
+     * @throws RepositoryException If the query cannot be executed
+     * @throws IllegalArgumentException If the query has a fuzzy title query
+     */
+    public static FilmResult execute(Resource container, OscarQuery query) throws RepositoryException {
+        if (query.getTitleQuery() != null) {
+            throw new IllegalArgumentException(OscarConstants.TITLE_QUERY + " is not supported by the JCR-SQL2 search");
+        }
+        if (!query.isSatisfiable()) {
+            return FilmResult.empty();
+        }
+        ResourceResolver resolver = container.getResourceResolver();
+        Session session = resolver.adaptTo(Session.class);
+        if (session == null) {
+            throw new RepositoryException("No JCR session available for " + container.getPath());
+        }
+        Statement statement = toStatement(container.getPath(), query);
+        Query jcrQuery = session.getWorkspace().getQueryManager().createQuery(statement.getSql(), Query.JCR_SQL2);
+        ValueFactory valueFactory = session.getValueFactory();
+        for (Map.Entry<String, Object> binding : statement.getBindings().entrySet()) {
+            jcrQuery.bindValue(binding.getKey(), toValue(valueFactory, binding.getValue()));
+        }
+        if (query.getLimit() != Integer.MAX_VALUE) {
+            jcrQuery.setLimit(query.getLimit());
+        }
+
+        // The rows are already in response order, so they are collected into an index of their own
+        FilmIndexBuilder builder = new FilmIndexBuilder(container.getPath());
+        NodeIterator nodes = jcrQuery.execute().getNodes();
+        while (nodes.hasNext()) {
+            Resource film = resolver.getResource(nodes.nextNode().getPath());
+            if (film != null) {
+                builder.add(film.getValueMap());
+            }
+        }
+        FilmIndex rows = builder.build();
+        int[] ordinals = new int[rows.size()];
+        for (int ordinal = 0; ordinal < ordinals.length; ordinal++) {
+            ordinals[ordinal] = ordinal;
+        }
+        return FilmResult.of(rows, ordinals);
+    }
+
+    /**
+     * Changes of films do not touch the jcr:lastModified date of their container, so the date of the newest film
+     * is taken into account. Deleted films leave no date behind and are only covered if the container date is updated.
+     * @param container The film container resource
+     * @return The newest jcr:lastModified date of the container and its films in milliseconds or -1 if none has one
+     * @throws RepositoryException If the query cannot be executed
+     */
+    public static long lastModified(Resource container) throws RepositoryException {
+        long lastModified = OscarUtils.lastModified(container);
+        Session session = container.getResourceResolver().adaptTo(Session.class);
+        if (session == null) {
+            throw new RepositoryException("No JCR session available for " + container.getPath());
+        }
+        Query jcrQuery = session.getWorkspace().getQueryManager().createQuery(lastModifiedStatement(container.getPath()), Query.JCR_SQL2);
+        jcrQuery.setLimit(1);
+        NodeIterator nodes = jcrQuery.execute().getNodes();
+        if (nodes.hasNext()) {
+            Calendar newest = nodes.nextNode().getProperty(JcrConstants.JCR_LASTMODIFIED).getDate();
+            lastModified = Math.max(lastModified, newest.getTimeInMillis());
+        }
+        return lastModified;
+    }
+
+    /**
+     * @param containerPath Path of the film container
+     * @return Statement selecting the films below the container by descending jcr:lastModified date
+     */
+    static String lastModifiedStatement(String containerPath) {
+        return "SELECT * FROM [nt:unstructured] AS film WHERE ISDESCENDANTNODE(film, '" + containerPath.replace("'", "''")
+                + "') AND film.[sling:resourceType] = '" + OscarConstants.FILM_RESOURCE_TYPE + "'"
+                + " AND film.[" + JcrConstants.JCR_LASTMODIFIED + "] IS NOT NULL"
+                + " ORDER BY film.[" + JcrConstants.JCR_LASTMODIFIED + "] DESC";
+    }
+
+    /**
+     * Translates the query into a JCR-SQL2 statement, every value is passed as bind variable named like its request parameter
+     * @param containerPath Path of the film container
+     * @param query The compiled query
+     * @return The statement and its bind values
+     */
+    static Statement toStatement(String containerPath, OscarQuery query) {
+        Statement statement = new Statement();
+        statement.append("SELECT * FROM [nt:unstructured] AS film WHERE ISDESCENDANTNODE(film, '")
+                .append(containerPath.replace("'", "''"))
+                .append("') AND film.[sling:resourceType] = '").append(OscarConstants.FILM_RESOURCE_TYPE).append("'");
+        if (query.getTitle() != null) {
+            statement.where("LOWER(film.[" + OscarConstants.TITLE + "])", "=", OscarConstants.TITLE,
+                    query.getTitle().toLowerCase(Locale.ROOT));
+        }
+        if (query.getTitlePrefix() != null) {
+            statement.where("LOWER(film.[" + OscarConstants.TITLE + "])", "LIKE", OscarConstants.TITLE_PREFIX,
+                    query.getTitlePrefix().replaceAll("([\\\\%_])", "\\\\$1") + "%");
+        }
+        if (query.getYear() != null) {
+            statement.where("film.[" + OscarConstants.YEAR + "]", "=", OscarConstants.YEAR, query.getYear().longValue());
+        } else {
+            if (query.getMinYear() != null) {
+                statement.where("film.[" + OscarConstants.YEAR + "]", ">=", OscarConstants.MIN_YEAR, query.getMinYear().longValue());
+            }
+            if (query.getMaxYear() != null) {
+                statement.where("film.[" + OscarConstants.YEAR + "]", "<=", OscarConstants.MAX_YEAR, query.getMaxYear().longValue());
+            }
+        }
+        if (query.getNominations() != null) {
+            statement.where("film.[" + OscarConstants.NOMINATIONS + "]", "=", OscarConstants.NOMINATIONS, query.getNominations().longValue());
+        }
+        if (query.getMinAwards() != null) {
+            statement.where("film.[" + OscarConstants.AWARDS + "]", ">=", OscarConstants.MIN_AWARDS, query.getMinAwards().longValue());
+        }
+        if (query.getMaxAwards() != null) {
+            statement.where("film.[" + OscarConstants.AWARDS + "]", "<=", OscarConstants.MAX_AWARDS, query.getMaxAwards().longValue());
+        }
+        if (query.getMinReferences() != null) {
+            statement.where("film.[" + OscarConstants.NUMBER_OF_REFERENCES + "]", ">=", OscarConstants.MIN_REFERENCES,
+                    query.getMinReferences().longValue());
+        }
+        if (query.getMaxReferences() != null) {
+            statement.where("film.[" + OscarConstants.NUMBER_OF_REFERENCES + "]", "<=", OscarConstants.MAX_REFERENCES,
+                    query.getMaxReferences().longValue());
+        }
+        if (query.getBestPicture() != null) {
+            statement.where("film.[" + OscarConstants.IS_BEST_PICTURE + "]", "=", OscarConstants.IS_BEST_PICTURE, query.getBestPicture());
+        }
+        FilmSort sort = query.getSort();
+        if (query.getCursor() != null) {
+            statement.after(sort, query.getCursor());
+        }
+        statement.append(" ORDER BY ");
+        for (int key = 0; key < sort.keyCount(); key++) {
+            statement.append("film.[").append(sort.key(key).getProperty()).append("]")
+                    .append(sort.isDescending(key) ? " DESC" : "").append(", ");
+        }
+        statement.append("film.[").append(OscarConstants.TITLE).append("]").append(sort.isTitleDescending() ? " DESC" : "");
+        return statement;
+    }
+
+    private static Value toValue(ValueFactory valueFactory, Object value) {
+        if (value instanceof Long) {
+            return valueFactory.createValue((Long) value);
+        }
+        if (value instanceof Boolean) {
+            return valueFactory.createValue((Boolean) value);
+        }
+        return valueFactory.createValue(value.toString());
+    }
+
+    /**
+     * JCR-SQL2 statement with its bind values
+     */
+    static final class Statement {
+
+        private static final String CURSOR_VALUE = "cursorValue";
+        private static final String CURSOR_TITLE = "cursorTitle";
+
+        private final StringBuilder sql = new StringBuilder();
+        private final Map<String, Object> bindings = new LinkedHashMap<>();
+
+        String getSql() {
+            return sql.toString();
+        }
+
+        Map<String, Object> getBindings() {
+            return Collections.unmodifiableMap(bindings);
+        }
+
+        private Statement append(String part) {
+            sql.append(part);
+            return this;
+        }
+
+        private void where(String operand, String operator, String variable, Object value) {
+            sql.append(" AND ").append(operand).append(' ').append(operator).append(" $").append(variable);
+            bindings.put(variable, value);
+        }
+
+        /**
+         * Keyset condition for the films after the cursor in the order of the statement, e.g. for two keys
+         * (a &gt; $cursorValue OR (a = $cursorValue AND (b &lt; $cursorValue2 OR (b = $cursorValue2 AND title &gt; $cursorTitle))))
+         */
+        private void after(FilmSort sort, FilmCursor cursor) {
+            sql.append(" AND ");
+            for (int key = 0; key < sort.keyCount(); key++) {
+                String value = "film.[" + sort.key(key).getProperty() + "]";
+                String variable = key == 0 ? CURSOR_VALUE : CURSOR_VALUE + (key + 1);
+                sql.append('(').append(value).append(sort.isDescending(key) ? " < $" : " > $").append(variable)
+                        .append(" OR (").append(value).append(" = $").append(variable).append(" AND ");
+                bindings.put(variable, (long) cursor.getSortValue(key));
+            }
+            sql.append("film.[").append(OscarConstants.TITLE).append(sort.isTitleDescending() ? "] < $" : "] > $").append(CURSOR_TITLE);
+            for (int key = 0; key < sort.keyCount(); key++) {
+                sql.append("))");
+            }
+            bindings.put(CURSOR_TITLE, cursor.getTitle());
+        }
+    }
+}
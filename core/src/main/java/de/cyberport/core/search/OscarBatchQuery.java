@@ -0,0 +1,104 @@
+package de.cyberport.core.search;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import de.cyberport.core.servlets.OscarConstants;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Several film queries of one page render, keyed by query id. The queries are given as json object whose members
+ * hold the request parameters of a single query, e.g. {"winners": {"isBestPicture": true, "minYear": 2010}}.
+ *
+ * @author Sentham
+ */
+public final class OscarBatchQuery {
+
+    /**
+     * Upper bound of the queries of a batch, so a single request cannot occupy the search for long
+     */
+    public static final int MAX_QUERIES = 20;
+
+    private final Map<String, OscarQuery> queries;
+    private final String canonicalForm;
+
+    private OscarBatchQuery(Map<String, OscarQuery> queries) {
+        this.queries = Collections.unmodifiableMap(queries);
+        StringBuilder canonical = new StringBuilder();
+        for (Map.Entry<String, OscarQuery> query : queries.entrySet()) {
+            canonical.append(query.getKey()).append('{').append(query.getValue().toCanonicalString()).append('}');
+        }
+        this.canonicalForm = canonical.toString();
+    }
+
+    /**
+     * @param json The json object of the queries keyed by query id
+     * @return The parsed queries
+     * @throws IllegalArgumentException If the json or a parameter value of a query is malformed
+     */
+    public static OscarBatchQuery fromJson(String json) {
+        JsonElement parsed;
+        try {
+            parsed = JsonParser.parseString(json);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid value for " + OscarConstants.QUERIES + ": " + e.getMessage(), e);
+        }
+        if (!parsed.isJsonObject()) {
+            throw new IllegalArgumentException("Invalid value for " + OscarConstants.QUERIES + ": a json object of queries is expected");
+        }
+        JsonObject specs = parsed.getAsJsonObject();
+        if (specs.entrySet().size() > MAX_QUERIES) {
+            throw new IllegalArgumentException("Invalid value for " + OscarConstants.QUERIES + ": at most " + MAX_QUERIES + " queries are supported");
+        }
+        Map<String, OscarQuery> queries = new LinkedHashMap<>();
+        for (Map.Entry<String, JsonElement> spec : specs.entrySet()) {
+            if (!spec.getValue().isJsonObject()) {
+                throw new IllegalArgumentException("Invalid query " + spec.getKey() + ": a json object of parameters is expected");
+            }
+            Map<String, String> parameters = new HashMap<>();
+            for (Map.Entry<String, JsonElement> parameter : spec.getValue().getAsJsonObject().entrySet()) {
+                if (parameter.getValue().isJsonPrimitive()) {
+                    parameters.put(parameter.getKey(), parameter.getValue().getAsString());
+                }
+            }
+            try {
+                queries.put(spec.getKey(), OscarQuery.fromParameters(parameters::get));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid query " + spec.getKey() + ": " + e.getMessage(), e);
+            }
+        }
+        return new OscarBatchQuery(queries);
+    }
+
+    /**
+     * @return The queries keyed by query id in request order
+     */
+    public Map<String, OscarQuery> getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return The queries in request order
+     */
+    public Collection<OscarQuery> values() {
+        return queries.values();
+    }
+
+    /**
+     * @return Representation of all queries that is independent of the parameter order of each query
+     */
+    public String toCanonicalString() {
+        return canonicalForm;
+    }
+
+    @Override
+    public String toString() {
+        return canonicalForm;
+    }
+}
@@ -0,0 +1,381 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.TitleIndex;
+import de.cyberport.core.servlets.OscarConstants;
+import de.cyberport.core.servlets.OscarFacet;
+import de.cyberport.core.servlets.OscarSortBy;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Immutable film query parsed once per request. The filters are compiled into a list ordered by their
+ * estimated selectivity (exact matches, then ranges, then booleans) and contradictory filters such as
+ * minYear &gt; maxYear are detected before any film is looked at.
+ *
+ * @author Sentham
+ */
+public final class OscarQuery {
+
+    private final String title;
+    private final String titlePrefix;
+    private final TitleIndex.FuzzyTitle titleQuery;
+    private final Integer year;
+    private final Integer minYear;
+    private final Integer maxYear;
+    private final Integer minAwards;
+    private final Integer maxAwards;
+    private final Integer nominations;
+    private final Boolean bestPicture;
+    private final Integer minReferences;
+    private final Integer maxReferences;
+    private final FilmSort sort;
+    private final int limit;
+    private final FilmCursor cursor;
+    private final Set<OscarFacet> facets;
+    private final List<FilmFilter> filters;
+    private final boolean satisfiable;
+    private final String canonicalForm;
+    private final String shape;
+
+    private OscarQuery(Function<String, String> parameters) {
+        title = parameters.apply(OscarConstants.TITLE);
+        String titlePrefixParam = parameters.apply(OscarConstants.TITLE_PREFIX);
+        titlePrefix = StringUtils.isNotBlank(titlePrefixParam) ? TitleIndex.fold(titlePrefixParam) : null;
+        String titleQueryParam = parameters.apply(OscarConstants.TITLE_QUERY);
+        titleQuery = StringUtils.isNotBlank(titleQueryParam) ? TitleIndex.FuzzyTitle.of(titleQueryParam) : null;
+        year = parseInteger(OscarConstants.YEAR, parameters);
+        minYear = parseInteger(OscarConstants.MIN_YEAR, parameters);
+        maxYear = parseInteger(OscarConstants.MAX_YEAR, parameters);
+        minAwards = parseInteger(OscarConstants.MIN_AWARDS, parameters);
+        maxAwards = parseInteger(OscarConstants.MAX_AWARDS, parameters);
+        nominations = parseInteger(OscarConstants.NOMINATIONS, parameters);
+        String bestPictureParam = parameters.apply(OscarConstants.IS_BEST_PICTURE);
+        bestPicture = bestPictureParam != null ? Boolean.parseBoolean(bestPictureParam) : null;
+        minReferences = parseInteger(OscarConstants.MIN_REFERENCES, parameters);
+        maxReferences = parseInteger(OscarConstants.MAX_REFERENCES, parameters);
+        sort = FilmSort.parse(parameters.apply(OscarConstants.SORT_BY), parameters.apply(OscarConstants.ORDER));
+        Integer limitParam = parseInteger(OscarConstants.LIMIT, parameters);
+        if (limitParam != null && limitParam < 0) {
+            throw new IllegalArgumentException("Invalid value for " + OscarConstants.LIMIT + ": " + limitParam);
+        }
+        limit = limitParam != null ? limitParam : Integer.MAX_VALUE;
+        cursor = parseCursor(parameters.apply(OscarConstants.CURSOR), sort, titleQuery != null);
+        facets = parseFacets(parameters.apply(OscarConstants.FACETS));
+        satisfiable = limit > 0
+                && (titleQuery == null || titleQuery.isSearchable())
+                && isWithin(year, minYear, maxYear)
+                && isOrdered(minYear, maxYear)
+                && isOrdered(minAwards, maxAwards)
+                && isOrdered(minReferences, maxReferences);
+        filters = satisfiable ? compileFilters() : Collections.emptyList();
+        canonicalForm = toCanonicalForm();
+        shape = toShape();
+    }
+
+    /**
+     * Parses the supported request parameters, unsupported parameters are ignored
+     * @param request The Sling request
+     * @return The parsed query
+     * @throws IllegalArgumentException If a parameter value is malformed
+     */
+    public static OscarQuery fromRequest(SlingHttpServletRequest request) {
+        return new OscarQuery(request::getParameter);
+    }
+
+    /**
+     * @param parameters Lookup of the parameter values by name, returning null for absent parameters
+     * @return The parsed query
+     * @throws IllegalArgumentException If a parameter value is malformed
+     */
+    public static OscarQuery fromParameters(Function<String, String> parameters) {
+        return new OscarQuery(parameters);
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return The folded title prefix or null
+     */
+    public String getTitlePrefix() {
+        return titlePrefix;
+    }
+
+    /**
+     * @return The fuzzy title query or null, films matching it are ranked by their score before the sort order
+     */
+    public TitleIndex.FuzzyTitle getTitleQuery() {
+        return titleQuery;
+    }
+
+    public Integer getYear() {
+        return year;
+    }
+
+    public Integer getMinYear() {
+        return minYear;
+    }
+
+    public Integer getMaxYear() {
+        return maxYear;
+    }
+
+    public Integer getMinAwards() {
+        return minAwards;
+    }
+
+    public Integer getMaxAwards() {
+        return maxAwards;
+    }
+
+    public Integer getNominations() {
+        return nominations;
+    }
+
+    public Boolean getBestPicture() {
+        return bestPicture;
+    }
+
+    public Integer getMinReferences() {
+        return minReferences;
+    }
+
+    public Integer getMaxReferences() {
+        return maxReferences;
+    }
+
+    /**
+     * @return The sort order of the films
+     */
+    public FilmSort getSort() {
+        return sort;
+    }
+
+    /**
+     * @return The first key of the sort order, the title if the films are only sorted by title
+     */
+    public OscarSortBy getSortBy() {
+        return sort.getPrimary();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return Position after the last film of the previous page or null for the first page
+     */
+    public FilmCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return The requested facets, empty unless the films are aggregated instead of returned
+     */
+    public Set<OscarFacet> getFacets() {
+        return facets;
+    }
+
+    /**
+     * @return true if the facets of all matching films are requested instead of a page of films
+     */
+    public boolean isAggregation() {
+        return !facets.isEmpty();
+    }
+
+    /**
+     * @return The compiled filters in evaluation order
+     */
+    public List<FilmFilter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @return false if the filters contradict each other and no film can match
+     */
+    public boolean isSatisfiable() {
+        return satisfiable;
+    }
+
+    /**
+     * @param from The lowest year of a group of films
+     * @param to The highest year of a group of films
+     * @return false if no film of the given year range can match, e.g. to skip a bucket of a container
+     */
+    public boolean matchesYears(int from, int to) {
+        if (!satisfiable) {
+            return false;
+        }
+        if (year != null) {
+            return year >= from && year <= to;
+        }
+        return (minYear == null || minYear <= to) && (maxYear == null || maxYear >= from);
+    }
+
+    /**
+     * @return Representation of the query that is independent of the parameter order and of the title case
+     */
+    public String toCanonicalString() {
+        return canonicalForm;
+    }
+
+    /**
+     * @return The filters and the sort order of the query without their values, e.g. "awards:range,year:exact sortBy=year",
+     * queries of the same shape use the same indexes
+     */
+    public String getShape() {
+        return shape;
+    }
+
+    @Override
+    public String toString() {
+        return canonicalForm;
+    }
+
+    private List<FilmFilter> compileFilters() {
+        List<FilmFilter> compiled = new ArrayList<>();
+        if (title != null) {
+            compiled.add(FilmFilter.title(title));
+        }
+        if (titlePrefix != null) {
+            compiled.add(FilmFilter.titlePrefix(titlePrefix));
+        }
+        if (year != null) {
+            compiled.add(FilmFilter.year(year));
+        } else if (minYear != null || maxYear != null) {
+            // An exact year within the range already implies the range
+            compiled.add(FilmFilter.yearRange(valueOrDefault(minYear, Integer.MIN_VALUE), valueOrDefault(maxYear, Integer.MAX_VALUE)));
+        }
+        if (nominations != null) {
+            compiled.add(FilmFilter.nominations(nominations));
+        }
+        if (minAwards != null || maxAwards != null) {
+            compiled.add(FilmFilter.awardRange(valueOrDefault(minAwards, Integer.MIN_VALUE), valueOrDefault(maxAwards, Integer.MAX_VALUE)));
+        }
+        if (minReferences != null || maxReferences != null) {
+            compiled.add(FilmFilter.referenceRange(valueOrDefault(minReferences, Integer.MIN_VALUE),
+                    valueOrDefault(maxReferences, Integer.MAX_VALUE)));
+        }
+        if (bestPicture != null) {
+            compiled.add(FilmFilter.bestPicture(bestPicture));
+        }
+        compiled.sort(Comparator.comparing(FilmFilter::getKind));
+        return Collections.unmodifiableList(compiled);
+    }
+
+    private String toCanonicalForm() {
+        StringBuilder canonical = new StringBuilder();
+        appendParam(canonical, OscarConstants.TITLE, title != null ? title.toLowerCase(Locale.ROOT) : null);
+        appendParam(canonical, OscarConstants.TITLE_PREFIX, titlePrefix);
+        appendParam(canonical, OscarConstants.TITLE_QUERY, titleQuery != null ? titleQuery.getText() : null);
+        appendParam(canonical, OscarConstants.YEAR, year);
+        appendParam(canonical, OscarConstants.MIN_YEAR, minYear);
+        appendParam(canonical, OscarConstants.MAX_YEAR, maxYear);
+        appendParam(canonical, OscarConstants.MIN_AWARDS, minAwards);
+        appendParam(canonical, OscarConstants.MAX_AWARDS, maxAwards);
+        appendParam(canonical, OscarConstants.NOMINATIONS, nominations);
+        appendParam(canonical, OscarConstants.IS_BEST_PICTURE, bestPicture);
+        appendParam(canonical, OscarConstants.MIN_REFERENCES, minReferences);
+        appendParam(canonical, OscarConstants.MAX_REFERENCES, maxReferences);
+        appendParam(canonical, OscarConstants.SORT_BY, sort);
+        appendParam(canonical, OscarConstants.LIMIT, limit != Integer.MAX_VALUE ? limit : null);
+        appendParam(canonical, OscarConstants.CURSOR, cursor != null ? cursor.encode() : null);
+        appendParam(canonical, OscarConstants.FACETS, !facets.isEmpty() ? StringUtils.join(facets, ',') : null);
+        return canonical.toString();
+    }
+
+    private String toShape() {
+        List<String> parts = new ArrayList<>();
+        if (!satisfiable) {
+            parts.add("unsatisfiable");
+        }
+        for (FilmFilter filter : filters) {
+            parts.add(filter.getName() + ':' + filter.getKind().name().toLowerCase(Locale.ROOT));
+        }
+        if (titleQuery != null) {
+            parts.add(OscarConstants.TITLE_QUERY);
+        }
+        Collections.sort(parts);
+        StringBuilder shapeForm = new StringBuilder(parts.isEmpty() ? "all" : String.join(",", parts));
+        if (!facets.isEmpty()) {
+            shapeForm.append(' ').append(OscarConstants.FACETS).append('=').append(StringUtils.join(facets, ','));
+        } else {
+            shapeForm.append(' ').append(OscarConstants.SORT_BY).append('=').append(sort);
+        }
+        return shapeForm.toString();
+    }
+
+    private static void appendParam(StringBuilder canonical, String name, Object value) {
+        if (value != null) {
+            canonical.append(name).append('=').append(value).append('&');
+        }
+    }
+
+    private static Integer parseInteger(String param, Function<String, String> parameters) {
+        String value = parameters.apply(param);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + param + ": " + value, e);
+        }
+    }
+
+    /**
+     * A cursor is only valid for the sort order and the kind of ranking of the query that produced it
+     */
+    private static FilmCursor parseCursor(String value, FilmSort sort, boolean ranked) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        FilmCursor parsed = FilmCursor.decode(value);
+        if (!parsed.getSort().equals(sort) || (parsed.getScore() >= 0) != ranked) {
+            throw new IllegalArgumentException("Invalid value for " + OscarConstants.CURSOR + ": the cursor belongs to a different sort order");
+        }
+        return parsed;
+    }
+
+    private static Set<OscarFacet> parseFacets(String value) {
+        if (StringUtils.isBlank(value)) {
+            return Collections.emptySet();
+        }
+        Set<OscarFacet> parsed = EnumSet.noneOf(OscarFacet.class);
+        for (String name : StringUtils.split(value, ',')) {
+            parsed.add(parseFacet(name.trim(), value));
+        }
+        return Collections.unmodifiableSet(parsed);
+    }
+
+    private static OscarFacet parseFacet(String name, String value) {
+        for (OscarFacet facet : OscarFacet.values()) {
+            if (StringUtils.equalsIgnoreCase(facet.name(), name)) {
+                return facet;
+            }
+        }
+        throw new IllegalArgumentException("Invalid value for " + OscarConstants.FACETS + ": " + value);
+    }
+
+    private static boolean isOrdered(Integer minimum, Integer maximum) {
+        return minimum == null || maximum == null || minimum <= maximum;
+    }
+
+    private static boolean isWithin(Integer value, Integer minimum, Integer maximum) {
+        return value == null || (isOrdered(minimum, value) && isOrdered(value, maximum));
+    }
+
+    private static int valueOrDefault(Integer value, int defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,103 @@
+package de.cyberport.core.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Selects the first k films of a candidate set in sort order with a bounded max-heap of primitive sort keys,
+ * compound sort orders are packed into a single long by {@link FilmSort.Keys} just like single keys.
+ * Runs in O(c log k) time and O(k) memory for c candidates, independent of the size of the index.
+ *
+ * @author Sentham
+ */
+public final class TopKSelector {
+
+    private TopKSelector() {
+    }
+
+    /**
+     * @param keys The packed sort keys of the films of the index
+     * @param candidates Bitmap of the candidate films
+     * @param k Maximum number of films to select
+     * @param fromKey Smallest sort key to select, e.g. the key of the first film after a cursor
+     * @return Ordinals of the first k candidate films from the given key on in sort order
+     */
+    public static int[] select(FilmSort.Keys keys, BitSet candidates, int k, long fromKey) {
+        long[] heap = new long[Math.min(k, candidates.cardinality())];
+        int size = 0;
+        for (int ordinal = candidates.nextSetBit(0); ordinal >= 0 && heap.length > 0; ordinal = candidates.nextSetBit(ordinal + 1)) {
+            long key = keys.key(ordinal);
+            if (key < fromKey) {
+                continue;
+            }
+            if (size < heap.length) {
+                heap[size] = key;
+                siftUp(heap, size++);
+            } else if (key < heap[0]) {
+                heap[0] = key;
+                siftDown(heap, size);
+            }
+        }
+
+        long[] selected = Arrays.copyOf(heap, size);
+        Arrays.sort(selected);
+        int[] ordinals = new int[size];
+        for (int position = 0; position < size; position++) {
+            ordinals[position] = keys.ordinalOf(selected[position]);
+        }
+        return ordinals;
+    }
+
+    /**
+     * @param keys Primitive sort keys, the array is not modified
+     * @param size Number of keys to consider
+     * @param k Maximum number of keys to select
+     * @return The k smallest keys in ascending order
+     */
+    public static long[] smallest(long[] keys, int size, int k) {
+        long[] heap = new long[Math.min(k, size)];
+        int heapSize = 0;
+        for (int i = 0; i < size && heap.length > 0; i++) {
+            long key = keys[i];
+            if (heapSize < heap.length) {
+                heap[heapSize] = key;
+                siftUp(heap, heapSize++);
+            } else if (key < heap[0]) {
+                heap[0] = key;
+                siftDown(heap, heapSize);
+            }
+        }
+        Arrays.sort(heap, 0, heapSize);
+        return heap;
+    }
+
+    private static void siftUp(long[] heap, int position) {
+        long key = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heap[parent] >= key) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = key;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        long key = heap[0];
+        int position = 0;
+        int child;
+        while ((child = 2 * position + 1) < size) {
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (key >= heap[child]) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = key;
+    }
+}
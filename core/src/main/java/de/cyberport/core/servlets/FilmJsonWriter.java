@@ -0,0 +1,134 @@
+package de.cyberport.core.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.search.FilmFacets;
+import de.cyberport.core.search.FilmResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams films of an index as json, always with the same property order.
+ * Only the indexed properties are written, so "jcr:" and "sling:" properties never end up in the response.
+ * Result pages are assembled from the pre-rendered {@link de.cyberport.core.index.FilmFragments} of the indexes,
+ * as UTF-8 bytes in the same format the json writer produces.
+ *
+ * @author Sentham
+ */
+public final class FilmJsonWriter {
+
+    private static final byte[] RESULTS_START = "{\"results\":[".getBytes(StandardCharsets.UTF_8);
+
+    private FilmJsonWriter() {
+    }
+
+    /**
+     * Writes a result page as {"results": [...], "nextCursor": "..."} document by copying the pre-rendered film fragments
+     * @param out The UTF-8 stream of the response
+     * @param result The films in response order
+     * @param nextCursor The encoded cursor of the next page or null if this is the last page
+     * @throws IOException If writing to the response fails
+     */
+    public static void writeResults(OutputStream out, FilmResult result, String nextCursor) throws IOException {
+        out.write(RESULTS_START);
+        for (int position = 0; position < result.size(); position++) {
+            if (position > 0) {
+                out.write(',');
+            }
+            result.index(position).fragments().write(out, result.ordinal(position));
+        }
+        out.write(']');
+        if (nextCursor != null) {
+            out.write(',');
+            writeString(out, OscarConstants.NEXT_CURSOR);
+            out.write(':');
+            writeString(out, nextCursor);
+        }
+        out.write('}');
+    }
+
+    /**
+     * Writes facets as {"total": n, "facets": {...}} document
+     * @param out The UTF-8 stream of the response
+     * @param facets The facets of the matching films
+     * @throws IOException If writing to the response fails
+     */
+    public static void writeFacets(OutputStream out, FilmFacets facets) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writeFacets(new JsonWriter(writer), facets);
+        writer.flush();
+    }
+
+    /**
+     * Writes a json string with the escaping of the json writer, e.g. a member name of a streamed object
+     * @param out The UTF-8 stream of the response
+     * @param value The string
+     * @throws IOException If writing to the response fails
+     */
+    public static void writeString(OutputStream out, String value) throws IOException {
+        StringWriter quoted = new StringWriter(value.length() + 2);
+        JsonWriter writer = new JsonWriter(quoted);
+        writer.setLenient(true);
+        writer.value(value);
+        out.write(quoted.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes facets as {"total": n, "facets": {...}} document. Numeric facets hold min, max, sum and avg of the values
+     * and the film count per non-empty bucket keyed by the lowest value of the bucket, isBestPicture holds the counts
+     * of "true" and "false".
+     * @param writer The json writer of the response
+     * @param facets The facets of the matching films
+     * @throws IOException If writing to the response fails
+     */
+    public static void writeFacets(JsonWriter writer, FilmFacets facets) throws IOException {
+        writer.beginObject();
+        writer.name("total").value(facets.getTotal());
+        writer.name(OscarConstants.FACETS);
+        writer.beginObject();
+        for (OscarFacet facet : facets.getFacets()) {
+            writer.name(facet.name());
+            writer.beginObject();
+            if (!facet.isNumeric()) {
+                writer.name(Boolean.TRUE.toString()).value(facets.getBestPictures());
+                writer.name(Boolean.FALSE.toString()).value(facets.getTotal() - facets.getBestPictures());
+            } else if (facets.getHistogram(facet) != null) {
+                writeHistogram(writer, facets.getHistogram(facet));
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+
+    private static void writeHistogram(JsonWriter writer, FilmFacets.Histogram histogram) throws IOException {
+        writer.name("min").value(histogram.getMin());
+        writer.name("max").value(histogram.getMax());
+        writer.name("sum").value(histogram.getSum());
+        writer.name("avg").value(histogram.getAverage());
+        writer.name("buckets");
+        writer.beginObject();
+        for (int bucket = 0; bucket < histogram.bucketCount(); bucket++) {
+            if (histogram.count(bucket) > 0) {
+                writer.name(String.valueOf(histogram.bucketStart(bucket))).value(histogram.count(bucket));
+            }
+        }
+        writer.endObject();
+    }
+
+    public static void writeFilm(JsonWriter writer, FilmIndex index, int ordinal) throws IOException {
+        writer.beginObject();
+        writer.name(OscarConstants.TITLE).value(index.title(ordinal));
+        writer.name(OscarConstants.YEAR).value(index.year(ordinal));
+        writer.name(OscarConstants.AWARDS).value(index.awards(ordinal));
+        writer.name(OscarConstants.NOMINATIONS).value(index.nominations(ordinal));
+        writer.name(OscarConstants.IS_BEST_PICTURE).value(index.isBestPicture(ordinal));
+        writer.name(OscarConstants.NUMBER_OF_REFERENCES).value(index.references(ordinal));
+        writer.endObject();
+    }
+}
@@ -0,0 +1,154 @@
+package de.cyberport.core.servlets;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.search.OscarQuery;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+/**
+ * Validators and caching headers of film container responses. The strong ETag is derived from the content revision
+ * of every index a query reads and from the canonical query, so it can be computed and compared before the query is
+ * executed and a conditional request is answered without filtering or writing any film.
+ *
+ * @author Sentham
+ */
+public final class FilmResponseHeaders {
+
+    public static final String ETAG = "ETag";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String VARY = "Vary";
+    public static final String GZIP = "gzip";
+
+    private FilmResponseHeaders() {
+    }
+
+    /**
+     * @param container The container index, its revision covers the films and the buckets of the container
+     * @param indexes The indexes the query is executed on, e.g. the buckets that can match
+     * @param query The compiled query
+     * @return The quoted strong entity tag of the response
+     */
+    public static String eTag(FilmIndex container, List<FilmIndex> indexes, OscarQuery query) {
+        return eTag(container, indexes, query.toCanonicalString());
+    }
+
+    /**
+     * @param container The container index, its revision covers the films and the buckets of the container
+     * @param indexes The indexes the queries are executed on
+     * @param canonicalQuery Canonical form of the query or of all queries of a batch
+     * @return The quoted strong entity tag of the response
+     */
+    public static String eTag(FilmIndex container, List<FilmIndex> indexes, String canonicalQuery) {
+        long revision = container.getRevision();
+        for (FilmIndex index : indexes) {
+            revision = 31 * revision + index.getPath().hashCode();
+            revision = 31 * revision + index.getRevision();
+        }
+        return "\"" + Long.toHexString(revision) + "-" + Integer.toHexString(canonicalQuery.hashCode()) + "\"";
+    }
+
+    /**
+     * The gzip encoded body is another representation than the identity one, so it gets an entity tag of its own
+     * @param eTag The quoted entity tag of the identity encoded response
+     * @return The quoted entity tag of the gzip encoded response
+     */
+    public static String gzipETag(String eTag) {
+        return eTag.substring(0, eTag.length() - 1) + "-" + GZIP + "\"";
+    }
+
+    /**
+     * @param request The request
+     * @return true if the Accept-Encoding header of the request allows gzip, i.e. lists it without a quality of 0
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : StringUtils.split(acceptEncoding, ',')) {
+            String[] parameters = StringUtils.split(coding, ';');
+            if (parameters.length > 0 && GZIP.equalsIgnoreCase(parameters[0].trim())) {
+                return parameters.length == 1 || !parameters[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deleted films leave no date behind, so the date alone may miss a change, the ETag still covers it
+     * @param container The container index
+     * @param indexes The indexes the query is executed on
+     * @return The newest modification date of the container and of the films the indexes hold, -1 if none has one
+     */
+    public static long lastModified(FilmIndex container, List<FilmIndex> indexes) {
+        long lastModified = container.getLastModified();
+        for (FilmIndex index : indexes) {
+            lastModified = Math.max(lastModified, index.getLastModified());
+        }
+        return lastModified;
+    }
+
+    /**
+     * Sets the validators and the Cache-Control and Vary headers of a response
+     * @param response The response
+     * @param eTag The entity tag or null if there is none
+     * @param lastModified The modification date in milliseconds or -1 if it is unknown
+     * @param maxAge The max-age in seconds, 0 requires every use of a cached response to be revalidated
+     */
+    public static void write(HttpServletResponse response, String eTag, long lastModified, int maxAge) {
+        if (eTag != null) {
+            response.setHeader(ETAG, eTag);
+        }
+        if (lastModified >= 0) {
+            response.setDateHeader(LAST_MODIFIED, lastModified);
+        }
+        response.setHeader(CACHE_CONTROL, maxAge > 0 ? "max-age=" + maxAge : "no-cache");
+        response.setHeader(VARY, ACCEPT_ENCODING);
+    }
+
+    /**
+     * Evaluates If-None-Match and, only without it, If-Modified-Since like RFC 7232 does for GET requests
+     * @param request The request
+     * @param eTag The current entity tag or null if there is none
+     * @param lastModified The current modification date in milliseconds or -1 if it is unknown
+     * @return true if the cached response of the client is still current and a 304 can be sent
+     */
+    public static boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return eTag != null && matches(ifNoneMatch, eTag);
+        }
+        if (lastModified < 0) {
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have a resolution of seconds
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * If-None-Match uses the weak comparison, so a weak validator of the client matches the strong one of the response
+     */
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+            String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || eTag.equals(StringUtils.removeStart(trimmed, "W/"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
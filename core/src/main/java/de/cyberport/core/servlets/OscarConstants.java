@@ -2,6 +2,8 @@ package de.cyberport.core.servlets;
 
 public class OscarConstants {
     public static final String TITLE = "title";
+    public static final String TITLE_PREFIX = "titlePrefix";
+    public static final String TITLE_QUERY = "titleQuery";
     public static final String YEAR = "year";
     public static final String MIN_YEAR = "minYear";
     public static final String MAX_YEAR = "maxYear";
@@ -11,4 +13,17 @@ public class OscarConstants {
     public static final String IS_BEST_PICTURE = "isBestPicture";
     public static final String LIMIT = "limit";
     public static final String SORT_BY = "sortBy";
+    public static final String ORDER = "order";
+    public static final String MIN_REFERENCES = "minReferences";
+    public static final String MAX_REFERENCES = "maxReferences";
+    public static final String CURSOR = "cursor";
+    public static final String NEXT_CURSOR = "nextCursor";
+    public static final String FACETS = "facets";
+    public static final String QUERIES = "queries";
+    public static final String AWARDS = "awards";
+    public static final String NUMBER_OF_REFERENCES = "numberOfReferences";
+    public static final String FILM_RESOURCE_TYPE = "test/filmEntry";
+    public static final String BUCKET_RESOURCE_TYPE = "test/filmBucket";
+    public static final String CONTAINER_RESOURCE_TYPE = "test/filmEntryContainer";
+    public static final String CONTENT_ROOT = "/content";
 }
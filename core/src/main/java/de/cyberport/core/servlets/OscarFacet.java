@@ -0,0 +1,29 @@
+package de.cyberport.core.servlets;
+
+/**
+ * Aggregations of the facets parameter. Numeric facets count the films per bucket of the given width,
+ * isBestPicture counts the winners and the other films.
+ */
+public enum OscarFacet {
+    year(10),
+    awards(1),
+    nominations(1),
+    isBestPicture(0);
+
+    private final int bucketWidth;
+
+    OscarFacet(int bucketWidth) {
+        this.bucketWidth = bucketWidth;
+    }
+
+    /**
+     * @return Width of the value range counted per bucket, 0 for the boolean facet
+     */
+    public int getBucketWidth() {
+        return bucketWidth;
+    }
+
+    public boolean isNumeric() {
+        return bucketWidth > 0;
+    }
+}
@@ -1,24 +1,55 @@
 package de.cyberport.core.servlets;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import de.cyberport.core.utils.OscarUtils;
-import org.apache.commons.lang3.StringUtils;
+import de.cyberport.core.cache.CompressedResponseCache;
+import de.cyberport.core.cache.QueryResultCache;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexService;
+import de.cyberport.core.metrics.ByteCountingOutputStream;
+import de.cyberport.core.metrics.SearchMetrics;
+import de.cyberport.core.metrics.SearchStage;
+import de.cyberport.core.metrics.SearchTrace;
+import de.cyberport.core.search.FilmFacets;
+import de.cyberport.core.search.BucketedFilmSearch;
+import de.cyberport.core.search.FilmCursor;
+import de.cyberport.core.search.FilmQueryExecutor;
+import de.cyberport.core.search.FilmResult;
+import de.cyberport.core.search.FilmStream;
+import de.cyberport.core.search.JcrSqlFilmSearch;
+import de.cyberport.core.search.OscarBatchQuery;
+import de.cyberport.core.search.OscarQuery;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
-import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.servlets.annotations.SlingServletResourceTypes;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.jcr.RepositoryException;
 import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.*;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Servlet that writes information about the Oscar films in json format into the response.
@@ -38,8 +69,36 @@ import java.util.*;
  * 6. maxAwards - Integer. The maximum value for number of awards
  * 7. nominations - Integer. The exact number of nominations
  * 8. isBestPicture - Boolean. True to return only the winners of the best picture nomination.
- * 9. sortBy - Enumeration. Sorting in ascending order, supported values are: 'title', 'year', 'awards', 'nominations'. Default value should be 'title'.
+ * 9. sortBy - Enumeration. Sorting in ascending order, supported values are: 'title', 'year', 'awards', 'nominations', 'references'.
+ *    Default value should be 'title'. Several comma separated keys form a compound order, a key prefixed with '-' is sorted
+ *    descending, e.g. 'awards,-references,title'. Films of equal keys are ordered by title.
  * 10. limit - Integer. Maximum amount of result entries in the response.
+ * 11. titlePrefix - String. The beginning of the film title, ignoring case and diacritics.
+ * 12. titleQuery - String. Fuzzy search in the film titles. The best matches come first, matches of equal score are sorted by sortBy.
+ * 13. cursor - String. The nextCursor of the previous response, continues the search after the last film of that page.
+ * 14. facets - String. Comma separated facets out of 'year', 'awards', 'nominations', 'isBestPicture'. Instead of the films,
+ *     the response holds the number of matching films, their counts per decade, per number of awards or nominations and
+ *     per best picture flag as well as min, max, sum and average of the numeric facets.
+ * 15. order - String. 'asc' or 'desc', 'desc' reverses the whole sort order including the title.
+ * 16. minReferences - Integer. The minimum value for number of references
+ * 17. maxReferences - Integer. The maximum value for number of references
+ * 18. queries - JSON. Batch of queries keyed by query id, each query is an object of the above parameters, e.g.
+ *     {"winners": {"isBestPicture": true, "minYear": 2010}, "top": {"sortBy": "nominations", "limit": 5}}.
+ *     The response holds the result of every query under its id, all other request parameters are ignored.
+ *
+ * A response whose number of results reaches the limit carries a "nextCursor" value for the next page.
+ * Responses of the in-memory index carry an ETag of the content revision and the query, and the newest jcr:lastModified
+ * date the searched indexes recorded of the container, its buckets and films as Last-Modified header. JCR-SQL2 responses
+ * have no revision and only carry the newest jcr:lastModified date of the container and its films.
+ * Conditional requests that are still current are answered with 304 Not Modified.
+ * Films are copied from their pre-rendered json fragments. Clients sending Accept-Encoding: gzip get a compressed body,
+ * compressed bodies of unfiltered and repeatedly requested queries are cached.
+ * The time spent per search stage and the response size are recorded in {@link SearchMetrics} per query shape.
+ *
+ * Requested with the extension "ndjson", the films are streamed as newline delimited json, one film per line in response
+ * order. The lines are written while the indexes are walked and flushed in chunks of {@value #STREAM_CHUNK_SIZE} bytes,
+ * so exports of whole containers run in constant memory. The limit and cursor parameters are honored, no nextCursor is
+ * written. Facets are written as a single line, batches are not supported.
  *
  * Please note:
  * More then 1 filter must be supported.
@@ -116,160 +175,410 @@ import java.util.*;
 @SlingServletResourceTypes(
         resourceTypes="test/filmEntryContainer",
         methods=HttpConstants.METHOD_GET,
-        extensions="json")
+        extensions={ "json", OscarFilmContainerServlet.NDJSON })
 @ServiceDescription("Oscar Film Container Servlet")
+@Designate(ocd = OscarFilmContainerServlet.Config.class)
 public class OscarFilmContainerServlet extends SlingSafeMethodsServlet {
 
+    @ObjectClassDefinition(name = "Oscar Film Container Servlet", description = "Search of the films below a film container")
+    public @interface Config {
+
+        @AttributeDefinition(name = "JCR-SQL2 containers",
+                description = "Paths of the film containers that are searched with JCR-SQL2 queries on the Oak indexes instead of the in-memory film index")
+        String[] sql2_containers() default {};
+
+        @AttributeDefinition(name = "Cache-Control max-age",
+                description = "Seconds clients and CDNs may reuse a response without revalidating it, 0 to revalidate every time")
+        int cache_control_max_age() default 300;
+    }
+
     private static final long serialVersionUID = 1L;
 
-    private final Gson gson = new Gson();
+    private static final Logger LOG = LoggerFactory.getLogger(OscarFilmContainerServlet.class);
+
+    /**
+     * Extension of newline delimited json responses
+     */
+    static final String NDJSON = "ndjson";
+
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    /**
+     * Number of uncompressed bytes after which a streamed response is flushed to the client
+     */
+    static final int STREAM_CHUNK_SIZE = 65536;
+
+    /**
+     * Shape under which the parsing, serialization and size of whole batch requests are recorded
+     */
+    static final String BATCH_SHAPE = "batch";
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    @Reference
+    private FilmIndexService filmIndexService;
+
+    @Reference
+    private QueryResultCache queryResultCache;
+
+    @Reference
+    private SearchMetrics searchMetrics;
+
+    @Reference
+    private CompressedResponseCache compressedResponseCache;
+
+    /**
+     * Searches the buckets of bucketed containers in parallel
+     */
+    private transient ForkJoinPool bucketPool;
+
+    private transient volatile Set<String> sql2Containers = Collections.emptySet();
+
+    private transient volatile int maxAge;
+
+    @Activate
+    protected void activate(Config config) {
+        bucketPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        modified(config);
+    }
+
+    @Modified
+    protected void modified(Config config) {
+        sql2Containers = new HashSet<>(Arrays.asList(config.sql2_containers()));
+        maxAge = config.cache_control_max_age();
+    }
 
-    private final Map<String, Object> requestParamsMap = new HashMap<>();
+    @Deactivate
+    protected void deactivate() {
+        bucketPool.shutdown();
+    }
 
     @Override
     public void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
-        JsonObject jsonObject = new JsonObject();
-        String title = request.getParameter(OscarConstants.TITLE);
-        if (title != null) {
-            requestParamsMap.put(OscarConstants.TITLE, title);
-        }
-        getFilterParams(OscarConstants.YEAR, request);
-        getFilterParams(OscarConstants.MIN_YEAR, request);
-        getFilterParams(OscarConstants.MAX_YEAR, request);
-        getFilterParams(OscarConstants.MIN_AWARDS, request);
-        getFilterParams(OscarConstants.MAX_AWARDS, request);
-        getFilterParams(OscarConstants.NOMINATIONS, request);
-        String bestPicture = request.getParameter(OscarConstants.IS_BEST_PICTURE);
-        if (bestPicture != null) {
-            boolean isBestPicture = Boolean.parseBoolean(request.getParameter(OscarConstants.IS_BEST_PICTURE));
-            requestParamsMap.put(OscarConstants.IS_BEST_PICTURE, isBestPicture);
+        boolean ndjson = NDJSON.equals(request.getRequestPathInfo().getExtension());
+        String batchParam = request.getParameter(OscarConstants.QUERIES);
+        if (batchParam != null && ndjson) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Batch queries cannot be streamed as " + NDJSON);
+            return;
         }
-        getFilterParams(OscarConstants.LIMIT, request);
-        String sortby = request.getParameter(OscarConstants.SORT_BY);
-        if (sortby != null) {
-            OscarSortBy sortBy = OscarSortBy.valueOf(sortby);
-            requestParamsMap.put(OscarConstants.SORT_BY, sortBy);
+        if (batchParam != null) {
+            doBatch(request, response, batchParam);
+            return;
         }
 
+        long start = System.nanoTime();
+        OscarQuery query;
+        try {
+            query = OscarQuery.fromRequest(request);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        SearchTrace trace = new SearchTrace();
+        trace.add(SearchStage.PARSE, System.nanoTime() - start);
 
-        JsonArray obj = gson.fromJson(getfilteredJson(request), JsonArray.class);
-        jsonObject.add("results", obj);
+        Resource container = request.getResource();
+        // Fuzzy title queries and facets need the in-memory index, they are never translated to JCR-SQL2
+        boolean queried = sql2Containers.contains(container.getPath()) && query.getTitleQuery() == null && !query.isAggregation();
+        boolean gzip = FilmResponseHeaders.acceptsGzip(request);
+        List<FilmIndex> indexes = null;
+        String eTag = null;
+        long lastModified;
+        if (!queried) {
+            FilmIndex index = filmIndexService.getIndex(container);
+            indexes = BucketedFilmSearch.collect(filmIndexService, request.getResourceResolver(), index, query);
+            try {
+                query.getSort().validate(indexes);
+            } catch (IllegalArgumentException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+            eTag = ndjson ? FilmResponseHeaders.eTag(index, indexes, query.toCanonicalString() + " " + NDJSON)
+                    : FilmResponseHeaders.eTag(index, indexes, query);
+            eTag = gzip ? FilmResponseHeaders.gzipETag(eTag) : eTag;
+            lastModified = FilmResponseHeaders.lastModified(index, indexes);
+        } else {
+            // Without the in-memory index there is no content revision, JCR-SQL2 responses are only validated by the newest film date
+            lastModified = getQueriedLastModified(container);
+        }
+        FilmResponseHeaders.write(response, eTag, lastModified, maxAge);
+        if (FilmResponseHeaders.isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
 
-        PrintWriter out = response.getWriter();
-        response.setContentType("application/json");
-        out.print(jsonObject.toString());
-        out.flush();
-        System.out.println("Final Json " + jsonObject.toString());
+        String shape = queried ? query.getShape() + " engine=sql2" : query.getShape();
+        if (ndjson) {
+            stream(request, response, query, queried ? null : indexes, gzip, shape + " format=" + NDJSON, trace);
+            return;
+        }
+        // The entity tag only holds a hash of the query, the key of a cached body holds the whole query
+        String cacheKey = gzip && eTag != null ? eTag + query.toCanonicalString() : null;
+        byte[] compressed = cacheKey != null ? compressedResponseCache.get(cacheKey) : null;
+        long bytes;
+        if (compressed != null) {
+            start = System.nanoTime();
+            bytes = sendCompressed(response, compressed);
+        } else {
+            ResponseBody body;
+            if (query.isAggregation()) {
+                FilmFacets facets = aggregate(indexes, query, trace);
+                body = out -> FilmJsonWriter.writeFacets(out, facets);
+            } else {
+                FilmResult result = queried ? getQueriedFilms(request, query, trace) : getIndexedFilms(indexes, query, trace);
+                FilmCursor nextCursor = FilmCursor.next(result, query);
+                String encodedCursor = nextCursor != null ? nextCursor.encode() : null;
+                body = out -> FilmJsonWriter.writeResults(out, result, encodedCursor);
+            }
+            start = System.nanoTime();
+            boolean unfiltered = query.getFilters().isEmpty() && query.getTitleQuery() == null;
+            bytes = send(response, body, gzip, cacheKey, unfiltered);
+        }
+        trace.add(SearchStage.SERIALIZE, System.nanoTime() - start);
+        searchMetrics.record(shape, trace);
+        searchMetrics.recordBytes(shape, bytes);
     }
 
     /**
-     * Main logic of filtering and sorting the resources based on the request parameters
-     * @param request The Sling request
-     * @return Filtered list of valuemap
+     * Answers all queries of a batch from one collection of the container and bucket indexes, the response holds
+     * the result of every query under its query id
      */
-    private String getfilteredJson(SlingHttpServletRequest request) {
-        List<ModifiableValueMap> filteredValueMap = new ArrayList<>();
-        Resource resource= request.getResource();
-
-        //The below logic can also be simplified by using JCR SQL2 query with which we can pass parameters for filtering and sorting
-        for (Resource child : resource.getChildren()){
-            ModifiableValueMap childValuemap = child.adaptTo(ModifiableValueMap.class);
-            boolean isReadyToAdd = true;
-            for (Map.Entry<String, Object> entry1 : requestParamsMap.entrySet()) {
-                if (!StringUtils.contains(entry1.getKey(), OscarConstants.SORT_BY) && !StringUtils.contains(entry1.getKey(), OscarConstants.LIMIT)) {
-                    isReadyToAdd = isReadyToAdd && compareValues(entry1, childValuemap);
-                }
-            }
-            if (isReadyToAdd) {
-                addToValueMapSet(filteredValueMap, childValuemap, request);
-            }
-            if (requestParamsMap.get("limit") != null && filteredValueMap.size() >= (int) requestParamsMap.get("limit")) {
-                break;
-            }
+    private void doBatch(SlingHttpServletRequest request, SlingHttpServletResponse response, String batchParam) throws IOException {
+        long start = System.nanoTime();
+        OscarBatchQuery batch;
+        try {
+            batch = OscarBatchQuery.fromJson(batchParam);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
         }
+        searchMetrics.record(BATCH_SHAPE, SearchStage.PARSE, System.nanoTime() - start);
 
-        if (requestParamsMap.get(OscarConstants.SORT_BY) != null) {
-            String sortBy = requestParamsMap.get(OscarConstants.SORT_BY).toString();
-            if (StringUtils.equals(sortBy, "title")) {
-                filteredValueMap.sort(Comparator.comparing((ModifiableValueMap map) -> map.get(sortBy).toString()));
-            } else {
-                filteredValueMap.sort(Comparator.comparing((ModifiableValueMap map) -> Integer.parseInt(map.get(sortBy).toString())));
+        Resource container = request.getResource();
+        boolean gzip = FilmResponseHeaders.acceptsGzip(request);
+        FilmIndex index = filmIndexService.getIndex(container);
+        List<FilmIndex> indexes = BucketedFilmSearch.collect(filmIndexService, request.getResourceResolver(), index, batch.values());
+        try {
+            for (OscarQuery query : batch.values()) {
+                query.getSort().validate(indexes);
             }
-        } else {
-            filteredValueMap.sort(Comparator.comparing((ModifiableValueMap map) -> map.get(OscarConstants.TITLE, String.class)));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        String eTag = FilmResponseHeaders.eTag(index, indexes, batch.toCanonicalString());
+        eTag = gzip ? FilmResponseHeaders.gzipETag(eTag) : eTag;
+        long lastModified = FilmResponseHeaders.lastModified(index, indexes);
+        FilmResponseHeaders.write(response, eTag, lastModified, maxAge);
+        if (FilmResponseHeaders.isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
         }
 
-        return gson.toJson(filteredValueMap);
+        String cacheKey = gzip ? eTag + batch.toCanonicalString() : null;
+        byte[] compressed = cacheKey != null ? compressedResponseCache.get(cacheKey) : null;
+        long bytes;
+        if (compressed != null) {
+            start = System.nanoTime();
+            bytes = sendCompressed(response, compressed);
+        } else {
+            Map<String, ResponseBody> bodies = new LinkedHashMap<>();
+            for (Map.Entry<String, OscarQuery> entry : batch.getQueries().entrySet()) {
+                OscarQuery query = entry.getValue();
+                SearchTrace trace = new SearchTrace();
+                if (query.isAggregation()) {
+                    FilmFacets facets = aggregate(indexes, query, trace);
+                    bodies.put(entry.getKey(), out -> FilmJsonWriter.writeFacets(out, facets));
+                } else {
+                    FilmResult result = getIndexedFilms(indexes, query, trace);
+                    FilmCursor nextCursor = FilmCursor.next(result, query);
+                    String encodedCursor = nextCursor != null ? nextCursor.encode() : null;
+                    bodies.put(entry.getKey(), out -> FilmJsonWriter.writeResults(out, result, encodedCursor));
+                }
+                searchMetrics.record(query.getShape(), trace);
+            }
+            start = System.nanoTime();
+            bytes = send(response, out -> writeBatch(out, bodies), gzip, cacheKey, false);
+        }
+        searchMetrics.record(BATCH_SHAPE, SearchStage.SERIALIZE, System.nanoTime() - start);
+        searchMetrics.recordBytes(BATCH_SHAPE, bytes);
     }
 
     /**
-     * Compares each valuemap properties with the request parameters and return boolean
-     * @param entry
-     * @param childValuemap
-     * @return true
+     * Writes the films as newline delimited json while they are searched. Films of fuzzy title queries and of JCR-SQL2
+     * searches are written from their complete result, since their order is only known once all films are ranked.
+     * A client that disconnects fails the next write or flush, the stream then stops without an error.
+     * @param indexes The indexes to search or null if the container is searched with JCR-SQL2
      */
-    private boolean compareValues(Map.Entry<String, Object> entry, ModifiableValueMap childValuemap) {
-        String compareKey = StringUtils.EMPTY;
-        if (childValuemap != null) {
-            if (StringUtils.equalsIgnoreCase(entry.getKey(), OscarConstants.TITLE)) {
-                return OscarUtils.compareString(childValuemap.get(OscarConstants.TITLE, String.class), entry.getValue().toString());
-            }
-            if (StringUtils.equalsIgnoreCase(entry.getKey(), OscarConstants.YEAR)) {
-                return OscarUtils.compareInteger(childValuemap.get(OscarConstants.YEAR, Integer.class), (int) entry.getValue());
-            }
-            if (StringUtils.equalsIgnoreCase(entry.getKey(), OscarConstants.MIN_YEAR)) {
-                return OscarUtils.compareMinValue(childValuemap.get(OscarConstants.YEAR, Integer.class), (int) entry.getValue());
-            }
-            if (StringUtils.equalsIgnoreCase(entry.getKey(), OscarConstants.MAX_YEAR)) {
-                return OscarUtils.compareMaxValue(childValuemap.get(OscarConstants.YEAR, Integer.class), (int) entry.getValue());
-            }
-            if (StringUtils.equalsIgnoreCase(entry.getKey(), OscarConstants.MIN_AWARDS)) {
-                return OscarUtils.compareMinValue(childValuemap.get("awards", Integer.class), (int) entry.getValue());
-            }
-            if (StringUtils.equalsIgnoreCase(entry.getKey(), OscarConstants.MAX_AWARDS)) {
-                return OscarUtils.compareMaxValue(childValuemap.get("awards", Integer.class), (int) entry.getValue());
+    private void stream(SlingHttpServletRequest request, SlingHttpServletResponse response, OscarQuery query,
+                        List<FilmIndex> indexes, boolean gzip, String shape, SearchTrace trace) throws IOException {
+        FilmFacets facets = query.isAggregation() ? aggregate(indexes, query, trace) : null;
+        FilmResult result = null;
+        if (indexes == null) {
+            result = getQueriedFilms(request, query, trace);
+        } else if (query.getTitleQuery() != null && facets == null) {
+            result = getIndexedFilms(indexes, query, trace);
+        }
+        FilmStream films = facets == null && result == null ? FilmStream.open(indexes, query, trace) : null;
+
+        long start = System.nanoTime();
+        response.setContentType(NDJSON_CONTENT_TYPE);
+        if (gzip) {
+            response.setHeader(FilmResponseHeaders.CONTENT_ENCODING, FilmResponseHeaders.GZIP);
+        }
+        ByteCountingOutputStream sent = new ByteCountingOutputStream(response.getOutputStream());
+        // Sync flushing makes every chunk decompressible by the client as soon as it arrives
+        GZIPOutputStream compressor = gzip ? new GZIPOutputStream(sent, GZIP_BUFFER_SIZE, true) : null;
+        ByteCountingOutputStream out = new ByteCountingOutputStream(compressor != null ? compressor : sent);
+        long flushed = 0;
+        int count = 0;
+        try {
+            if (facets != null) {
+                FilmJsonWriter.writeFacets(out, facets);
+                out.write('\n');
+            } else if (result != null) {
+                for (; count < result.size(); count++) {
+                    result.index(count).fragments().write(out, result.ordinal(count));
+                    out.write('\n');
+                }
+            } else {
+                for (; films.next(); count++) {
+                    films.index().fragments().write(out, films.ordinal());
+                    out.write('\n');
+                    if (out.getBytes() - flushed >= STREAM_CHUNK_SIZE) {
+                        out.flush();
+                        flushed = out.getBytes();
+                    }
+                }
             }
-            if (StringUtils.equalsIgnoreCase(entry.getKey(), OscarConstants.NOMINATIONS)) {
-                return OscarUtils.compareInteger(childValuemap.get(OscarConstants.NOMINATIONS, Integer.class), (int) entry.getValue());
+            if (compressor != null) {
+                compressor.finish();
             }
-            if (StringUtils.equalsIgnoreCase(entry.getKey(), OscarConstants.IS_BEST_PICTURE)) {
-                return childValuemap.get(OscarConstants.IS_BEST_PICTURE, Boolean.class) == (Boolean) entry.getValue();
+            out.flush();
+        } catch (IOException e) {
+            LOG.debug("Streaming {} stopped after {} films", request.getResource().getPath(), count, e);
+            return;
+        }
+        trace.add(SearchStage.SERIALIZE, System.nanoTime() - start);
+        searchMetrics.record(shape, trace);
+        searchMetrics.recordBytes(shape, sent.getBytes());
+    }
+
+    private static void writeBatch(OutputStream out, Map<String, ResponseBody> bodies) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (Map.Entry<String, ResponseBody> body : bodies.entrySet()) {
+            if (!first) {
+                out.write(',');
             }
+            first = false;
+            FilmJsonWriter.writeString(out, body.getKey());
+            out.write(':');
+            body.getValue().writeTo(out);
+        }
+        out.write('}');
+    }
+
+    /**
+     * Writes a json body, gzip compressed if the client accepts it
+     * @param cacheKey Key of the compressed body in the {@link CompressedResponseCache} or null if it is not cacheable
+     * @param unfiltered true if the body holds the whole container, such bodies are always cached
+     * @return Number of bytes sent
+     */
+    private long send(SlingHttpServletResponse response, ResponseBody body, boolean gzip, String cacheKey, boolean unfiltered)
+            throws IOException {
+        if (!gzip) {
+            response.setContentType("application/json");
+            ByteCountingOutputStream out = new ByteCountingOutputStream(response.getOutputStream());
+            body.writeTo(out);
+            out.flush();
+            return out.getBytes();
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, GZIP_BUFFER_SIZE)) {
+            body.writeTo(out);
+        }
+        byte[] bytes = compressed.toByteArray();
+        if (cacheKey != null) {
+            compressedResponseCache.put(cacheKey, bytes, unfiltered);
         }
+        return sendCompressed(response, bytes);
+    }
 
-        return false;
+    private static long sendCompressed(SlingHttpServletResponse response, byte[] body) throws IOException {
+        response.setContentType("application/json");
+        response.setHeader(FilmResponseHeaders.CONTENT_ENCODING, FilmResponseHeaders.GZIP);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return body.length;
     }
 
     /**
-     * Removed unwanted properties from valueMap and adds the valueMap to the list
-     * @param filteredList
-     * @param childValuemap
-     * @param req
+     * Searches the in-memory indexes of the container and of all its buckets that can match the query
      */
-    private void addToValueMapSet(List<ModifiableValueMap> filteredList, ModifiableValueMap childValuemap, SlingHttpServletRequest req) {
+    private FilmResult getIndexedFilms(List<FilmIndex> indexes, OscarQuery query, SearchTrace trace) {
+        return BucketedFilmSearch.execute(bucketPool, indexes, query, bucketIndex -> getFilteredFilms(bucketIndex, query, trace));
+    }
 
-        if (childValuemap != null) {
-            childValuemap.entrySet().removeIf(entry -> StringUtils.startsWith(entry.getKey(), "jcr:") || StringUtils.startsWith(entry.getKey(), "sling:"));
+    /**
+     * Computes the facets of the container and of all its buckets that can match the query
+     */
+    private FilmFacets aggregate(List<FilmIndex> indexes, OscarQuery query, SearchTrace trace) {
+        long start = System.nanoTime();
+        FilmFacets facets = BucketedFilmSearch.aggregate(bucketPool, indexes, query);
+        trace.add(SearchStage.AGGREGATE, System.nanoTime() - start);
+        return facets;
+    }
+
+    /**
+     * Newest modification date of the container and its films as queried from Oak
+     */
+    private static long getQueriedLastModified(Resource container) throws IOException {
+        try {
+            return JcrSqlFilmSearch.lastModified(container);
+        } catch (RepositoryException e) {
+            throw new IOException("JCR-SQL2 search of " + container.getPath() + " failed", e);
         }
+    }
 
-        String limit = req.getParameter(OscarConstants.LIMIT);
-        if (limit != null && filteredList.size() < Integer.parseInt(limit)) {
-            filteredList.add(childValuemap);
-        } else {
-            filteredList.add(childValuemap);
+    /**
+     * Searches the container with a JCR-SQL2 query, the result is not cached since the Oak indexes are queried every time.
+     * Oak filters and sorts in one step, so the query time is recorded as sort stage.
+     */
+    private FilmResult getQueriedFilms(SlingHttpServletRequest request, OscarQuery query, SearchTrace trace) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return JcrSqlFilmSearch.execute(request.getResource(), query);
+        } catch (RepositoryException e) {
+            throw new IOException("JCR-SQL2 search of " + request.getResource().getPath() + " failed", e);
+        } finally {
+            trace.add(SearchStage.SORT, System.nanoTime() - start);
         }
     }
 
     /**
-     * Method to get and add the request parameters to a map
-     * @param param Parameter to get from the request
-     * @param req Sling request
+     * Main logic of filtering and sorting the films of the container or bucket index based on the request parameters
+     * @param index The container or bucket index
+     * @param query The query parsed from the request
+     * @param trace Receives the search stages, cached results pass none
+     * @return Ordinals of the matching films in response order
      */
-    private void getFilterParams(String param, SlingHttpServletRequest req) {
-        String parameter = req.getParameter(param);
-        if (parameter != null) {
-            requestParamsMap.put(param, Integer.parseInt(parameter));
+    private int[] getFilteredFilms(FilmIndex index, OscarQuery query, SearchTrace trace) {
+        String cacheKey = query.toCanonicalString();
+        int[] ordinals = queryResultCache.get(index, cacheKey);
+        if (ordinals == null) {
+            ordinals = FilmQueryExecutor.execute(index, query, trace);
+            queryResultCache.put(index, cacheKey, ordinals);
         }
+        return ordinals;
     }
 
+    /**
+     * UTF-8 json body of a response, written either directly or through gzip
+     */
+    @FunctionalInterface
+    private interface ResponseBody {
+
+        void writeTo(OutputStream out) throws IOException;
+    }
 }
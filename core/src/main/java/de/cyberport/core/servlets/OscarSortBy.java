@@ -1,8 +1,22 @@
 package de.cyberport.core.servlets;
 
 public enum OscarSortBy {
-    title,
-    year,
-    awards,
-    nominations
+    title(OscarConstants.TITLE),
+    year(OscarConstants.YEAR),
+    awards(OscarConstants.AWARDS),
+    nominations(OscarConstants.NOMINATIONS),
+    references(OscarConstants.NUMBER_OF_REFERENCES);
+
+    private final String property;
+
+    OscarSortBy(String property) {
+        this.property = property;
+    }
+
+    /**
+     * @return Name of the film property the films are sorted by
+     */
+    public String getProperty() {
+        return property;
+    }
 }
@@ -0,0 +1,82 @@
+package de.cyberport.core.servlets;
+
+import com.google.gson.stream.JsonWriter;
+import de.cyberport.core.metrics.LatencyHistogram;
+import de.cyberport.core.metrics.SearchMetrics;
+import de.cyberport.core.metrics.SearchStage;
+import de.cyberport.core.metrics.ShapeMetrics;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.servlets.annotations.SlingServletPaths;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Status endpoint that writes the recorded {@link SearchMetrics} in json format, e.g.
+ * {"shapes": {"year:range sortBy=title": {"stages": {"sort": {"count": 12, "p50": 40, "p99": 95, "max": 120,
+ * "mean": 46.5}}, "bytes": {"count": 12, "p50": 2047, "p99": 4095, "max": 3520, "mean": 2210.0}}}}.
+ * Latencies are given in microseconds, percentiles are the upper bound of their histogram bucket.
+ *
+ * @author Sentham
+ */
+@Component(service = { Servlet.class })
+@SlingServletPaths(SearchMetricsServlet.PATH)
+@ServiceDescription("Oscar Search Metrics Servlet")
+public class SearchMetricsServlet extends SlingSafeMethodsServlet {
+
+    public static final String PATH = "/bin/oscars/metrics";
+
+    private static final long serialVersionUID = 1L;
+
+    @Reference
+    private SearchMetrics searchMetrics;
+
+    @Override
+    public void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setHeader(FilmResponseHeaders.CACHE_CONTROL, "no-store");
+        JsonWriter writer = new JsonWriter(response.getWriter());
+        writer.beginObject();
+        writer.name("shapes").beginObject();
+        for (ShapeMetrics metrics : searchMetrics.getShapes()) {
+            writer.name(metrics.getShape()).beginObject();
+            writer.name("stages").beginObject();
+            for (SearchStage stage : SearchStage.values()) {
+                LatencyHistogram histogram = metrics.getStage(stage);
+                if (histogram.getCount() > 0) {
+                    writer.name(stage.name().toLowerCase(Locale.ROOT));
+                    writeHistogram(writer, histogram, 1d / TimeUnit.MICROSECONDS.toNanos(1));
+                }
+            }
+            writer.endObject();
+            if (metrics.getBytes().getCount() > 0) {
+                writer.name("bytes");
+                writeHistogram(writer, metrics.getBytes(), 1);
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * @param scale Factor from the recorded values to the written values
+     */
+    private static void writeHistogram(JsonWriter writer, LatencyHistogram histogram, double scale) throws IOException {
+        writer.beginObject();
+        writer.name("count").value(histogram.getCount());
+        writer.name("p50").value(Math.round(histogram.getPercentile(50) * scale));
+        writer.name("p99").value(Math.round(histogram.getPercentile(99) * scale));
+        writer.name("max").value(Math.round(histogram.getMax() * scale));
+        writer.name("mean").value(Math.round(histogram.getMean() * scale * 10) / 10d);
+        writer.endObject();
+    }
+}
@@ -1,6 +1,11 @@
 package de.cyberport.core.utils;
 
+import de.cyberport.core.servlets.OscarConstants;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.Resource;
+
+import java.util.Calendar;
 
 public class OscarUtils {
 
@@ -22,4 +27,41 @@ public class OscarUtils {
     public static boolean compareMaxValue(int actual, int maximum) {
         return actual <= maximum ? true : false;
     }
+
+    /**
+     * Checks whether a container lies in one of the observed trees, e.g. below {@link OscarConstants#CONTENT_ROOT}
+     * @param containerPath Path of the film container
+     * @param observedPaths Roots of the trees whose changes are observed
+     * @return true if changes of the container are observed
+     */
+    public static boolean isObservedPath(String containerPath, String[] observedPaths) {
+        for (String root : observedPaths) {
+            if (StringUtils.equals(containerPath, root) || StringUtils.startsWith(containerPath, StringUtils.removeEnd(root, "/") + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a change at the given path affects the container, i.e. it is the container itself,
+     * one of its descendants or one of its ancestors
+     * @param containerPath Path of the film container
+     * @param changedPath Path of the changed resource
+     * @return true if the container is affected
+     */
+    public static boolean isAffectedPath(String containerPath, String changedPath) {
+        return StringUtils.equals(containerPath, changedPath)
+                || StringUtils.startsWith(changedPath, containerPath + "/")
+                || StringUtils.startsWith(containerPath, changedPath + "/");
+    }
+
+    /**
+     * @param resource A film container, bucket or film resource
+     * @return The jcr:lastModified date of the resource in milliseconds or -1 if it has none
+     */
+    public static long lastModified(Resource resource) {
+        Calendar lastModified = resource.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        return lastModified != null ? lastModified.getTimeInMillis() : -1;
+    }
 }
@@ -0,0 +1,55 @@
+package de.cyberport.core.cache.impl;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class CompressedResponseCacheImplTest {
+
+    private CompressedResponseCacheImpl cache;
+
+    @BeforeEach
+    void setUp(AemContext context) {
+        cache = context.registerInjectActivateService(new CompressedResponseCacheImpl(), "max.bytes", 100L);
+    }
+
+    @Test
+    @DisplayName("Filtered bodies are admitted on their second request, unfiltered bodies on the first")
+    void admitsPopularBodies() {
+        assertNull(cache.get("\"1-a-gzip\"year=2019&"));
+        cache.put("\"1-a-gzip\"year=2019&", new byte[10], false);
+        assertNull(cache.get("\"1-a-gzip\"year=2019&"));
+        cache.put("\"1-a-gzip\"year=2019&", new byte[10], false);
+        assertArrayEquals(new byte[10], cache.get("\"1-a-gzip\"year=2019&"));
+
+        cache.put("\"1-b-gzip\"", new byte[20], true);
+        assertArrayEquals(new byte[20], cache.get("\"1-b-gzip\""));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(30, cache.getByteCount());
+    }
+
+    @Test
+    @DisplayName("Least recently used bodies are evicted when the byte limit is exceeded")
+    void evictsLeastRecentlyUsed() {
+        cache.put("first", new byte[60], true);
+        cache.put("second", new byte[30], true);
+        cache.get("first");
+        cache.put("third", new byte[30], true);
+
+        assertNull(cache.get("second"));
+        assertEquals(2, cache.getEntryCount());
+        cache.put("oversized", new byte[101], true);
+        assertNull(cache.get("oversized"));
+    }
+}
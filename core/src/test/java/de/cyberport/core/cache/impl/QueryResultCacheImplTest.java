@@ -0,0 +1,66 @@
+package de.cyberport.core.cache.impl;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexBuilder;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class QueryResultCacheImplTest {
+
+    private QueryResultCacheImpl cache;
+
+    private FilmIndex index;
+
+    @BeforeEach
+    void setUp(AemContext context) {
+        cache = context.registerInjectActivateService(new QueryResultCacheImpl(), "max.entries", 2, "max.bytes", 1024L);
+        index = new FilmIndexBuilder("/content/oscars")
+                .add("Parasite", 2019, 4, 6, 8855, true)
+                .build();
+    }
+
+    @Test
+    @DisplayName("Least recently used entry is evicted when the entry limit is exceeded")
+    void evictsLeastRecentlyUsed() {
+        cache.put(index, "year=2019&", new int[] { 0 });
+        cache.put(index, "year=2018&", new int[] { });
+        cache.get(index, "year=2019&");
+        cache.put(index, "year=2017&", new int[] { });
+
+        assertArrayEquals(new int[] { 0 }, cache.get(index, "year=2019&"));
+        assertNull(cache.get(index, "year=2018&"));
+        assertEquals(1, cache.getEvictionCount(), "Unexpected number of evictions");
+        assertEquals(2, cache.getEntryCount(), "Unexpected number of entries");
+    }
+
+    @Test
+    @DisplayName("Results exceeding the byte limit are not cached")
+    void skipsOversizedResults() {
+        cache.put(index, "limit=1000&", new int[1000]);
+
+        assertNull(cache.get(index, "limit=1000&"));
+        assertEquals(0, cache.getByteCount(), "Unexpected cache size");
+    }
+
+    @Test
+    @DisplayName("Results of a changed container are dropped")
+    void invalidatesChangedContainer() {
+        cache.put(index, "year=2019&", new int[] { 0 });
+        cache.invalidate("/content/oscars/0");
+
+        assertNull(cache.get(index, "year=2019&"));
+        assertEquals(0, cache.getEntryCount(), "Unexpected number of entries");
+    }
+}
@@ -0,0 +1,248 @@
+package de.cyberport.core.helpers;
+
+import com.google.gson.stream.JsonWriter;
+import de.cyberport.core.servlets.OscarConstants;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic generator of film catalogs in the shape of oscars.json. Films are produced one at a time from a
+ * seeded random, so neither writing nor loading a catalog keeps more than a single film in memory.
+ *
+ * Distributions roughly follow the real data: years from 1927 on with more films in later decades, mostly a single
+ * nomination and award, about one best picture per 14 films and log-normally distributed references.
+ */
+public final class FilmCatalogGenerator {
+
+    public static final long DEFAULT_SEED = 1929L;
+
+    public static final String CONTAINER_TYPE = OscarConstants.CONTAINER_RESOURCE_TYPE;
+    public static final String BUCKET_TYPE = OscarConstants.BUCKET_RESOURCE_TYPE;
+    public static final String ENTRY_TYPE = OscarConstants.FILM_RESOURCE_TYPE;
+
+    private static final int FIRST_YEAR = 1927;
+    private static final int LAST_YEAR = 2020;
+    private static final int COMMIT_BATCH_SIZE = 10000;
+
+    private static final String[] ADJECTIVES = { "Last", "Great", "Silent", "Broken", "Golden", "Dark", "Lost",
+            "Little", "Wild", "Secret", "Distant", "Crimson", "Quiet", "Grand", "Hidden", "Eternal" };
+    private static final String[] NOUNS = { "Night", "King", "Star", "River", "Love", "War", "City", "Dream", "Lady",
+            "Story", "Return", "Ring", "Sea", "Gold", "Fire", "Garden", "Road", "Empire", "Island", "Heart" };
+
+    /**
+     * Layout of the generated containers
+     */
+    public enum Layout {
+        /**
+         * All films are direct children of the container
+         */
+        FLAT,
+        /**
+         * Films are grouped in one bucket per decade, each bucket carries its minYear and maxYear
+         */
+        BUCKETED
+    }
+
+    @FunctionalInterface
+    public interface FilmConsumer {
+        void accept(String title, int year, int awards, int nominations, int references, boolean bestPicture);
+    }
+
+    private final long seed;
+
+    public FilmCatalogGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    public FilmCatalogGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Produces the films of a catalog, the same seed and size always produce the same films
+     * @param size Number of films
+     * @param consumer Receives the films one by one
+     */
+    public void forEach(int size, FilmConsumer consumer) {
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            int nominations = nominations(random);
+            int awards = Math.min(nominations, awards(random));
+            consumer.accept(title(random, i), year(random), awards, nominations, references(random),
+                    random.nextInt(14) == 0);
+        }
+    }
+
+    /**
+     * Streams a catalog as json in the shape of oscars.json
+     * @param out Target of the json document
+     * @param size Number of films
+     * @param layout Flat or bucketed container
+     * @throws IOException If writing fails
+     */
+    public void writeJson(Writer out, int size, Layout layout) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent("  ");
+        writer.beginObject();
+        writeNodeProperties(writer, CONTAINER_TYPE);
+        if (layout == Layout.FLAT) {
+            writeFilms(writer, size, -1);
+        } else {
+            // Every bucket replays the seeded sequence and only writes its own decade, so no film is kept in memory
+            for (int decade = decadeOf(FIRST_YEAR); decade <= decadeOf(LAST_YEAR); decade += 10) {
+                writer.name(bucketName(decade));
+                writer.beginObject();
+                writeNodeProperties(writer, BUCKET_TYPE);
+                writer.name("minYear").value(decade);
+                writer.name("maxYear").value(decade + 9);
+                writeFilms(writer, size, decade);
+                writer.endObject();
+            }
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Creates a catalog directly in a (mock) repository, committing in batches
+     * @param resolver The resource resolver
+     * @param path Path of the film container, the parent must exist
+     * @param size Number of films
+     * @param layout Flat or bucketed container
+     * @throws PersistenceException If creating the resources fails
+     */
+    public void load(ResourceResolver resolver, String path, int size, Layout layout) throws PersistenceException {
+        Resource parent = resolver.getResource(path.substring(0, path.lastIndexOf('/')));
+        Resource container = resolver.create(parent, path.substring(path.lastIndexOf('/') + 1), nodeProperties(CONTAINER_TYPE));
+        Map<Integer, Resource> buckets = new HashMap<>();
+        int[] count = { 0 };
+        PersistenceException[] failure = { null };
+        forEach(size, (title, year, awards, nominations, references, bestPicture) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                Resource target = layout == Layout.FLAT ? container : bucket(resolver, container, buckets, decadeOf(year));
+                Map<String, Object> properties = nodeProperties(ENTRY_TYPE);
+                properties.put("title", title);
+                properties.put("year", year);
+                properties.put("awards", awards);
+                properties.put("nominations", nominations);
+                properties.put("isBestPicture", bestPicture);
+                properties.put("numberOfReferences", references);
+                resolver.create(target, String.valueOf(count[0]), properties);
+                if (++count[0] % COMMIT_BATCH_SIZE == 0) {
+                    resolver.commit();
+                }
+            } catch (PersistenceException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        resolver.commit();
+    }
+
+    private void writeFilms(JsonWriter writer, int size, int decade) throws IOException {
+        IOException[] failure = { null };
+        int[] count = { 0 };
+        forEach(size, (title, year, awards, nominations, references, bestPicture) -> {
+            int ordinal = count[0]++;
+            if (failure[0] != null || (decade >= 0 && decadeOf(year) != decade)) {
+                return;
+            }
+            try {
+                writer.name(String.valueOf(ordinal));
+                writer.beginObject();
+                writer.name("title").value(title);
+                writer.name("year").value(year);
+                writer.name("awards").value(awards);
+                writer.name("nominations").value(nominations);
+                writer.name("isBestPicture").value(bestPicture);
+                writer.name("numberOfReferences").value(references);
+                writeNodeProperties(writer, ENTRY_TYPE);
+                writer.endObject();
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private static Resource bucket(ResourceResolver resolver, Resource container, Map<Integer, Resource> buckets, int decade)
+            throws PersistenceException {
+        Resource bucket = buckets.get(decade);
+        if (bucket == null) {
+            Map<String, Object> properties = nodeProperties(BUCKET_TYPE);
+            properties.put("minYear", decade);
+            properties.put("maxYear", decade + 9);
+            bucket = resolver.create(container, bucketName(decade), properties);
+            buckets.put(decade, bucket);
+        }
+        return bucket;
+    }
+
+    private static void writeNodeProperties(JsonWriter writer, String resourceType) throws IOException {
+        writer.name("jcr:primaryType").value("nt:unstructured");
+        writer.name("sling:resourceType").value(resourceType);
+    }
+
+    private static Map<String, Object> nodeProperties(String resourceType) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("jcr:primaryType", "nt:unstructured");
+        properties.put("sling:resourceType", resourceType);
+        return properties;
+    }
+
+    private static String bucketName(int decade) {
+        return decade + "s";
+    }
+
+    private static int decadeOf(int year) {
+        return year - year % 10;
+    }
+
+    private static String title(Random random, int i) {
+        String title = "The " + ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " + NOUNS[random.nextInt(NOUNS.length)];
+        return random.nextInt(4) == 0 ? title : title + " " + Integer.toString(i, 36).toUpperCase();
+    }
+
+    /**
+     * Later years are more likely, the number of categories grew over time
+     */
+    private static int year(Random random) {
+        double skewed = Math.sqrt(random.nextDouble());
+        return FIRST_YEAR + (int) (skewed * (LAST_YEAR - FIRST_YEAR + 1));
+    }
+
+    private static int nominations(Random random) {
+        int nominations = 1;
+        while (nominations < 14 && random.nextDouble() < 0.45) {
+            nominations++;
+        }
+        return nominations;
+    }
+
+    private static int awards(Random random) {
+        int awards = 1;
+        while (awards < 11 && random.nextDouble() < 0.25) {
+            awards++;
+        }
+        return awards;
+    }
+
+    private static int references(Random random) {
+        double logNormal = Math.exp(6.5 + 1.2 * random.nextGaussian());
+        return (int) Math.min(20000, logNormal);
+    }
+}
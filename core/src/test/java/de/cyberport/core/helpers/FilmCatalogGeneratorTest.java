@@ -0,0 +1,65 @@
+package de.cyberport.core.helpers;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+@ExtendWith(AemContextExtension.class)
+class FilmCatalogGeneratorTest {
+
+    @Test
+    @DisplayName("Same seed produces the same catalog")
+    void deterministic() throws IOException {
+        StringWriter first = new StringWriter();
+        StringWriter second = new StringWriter();
+        new FilmCatalogGenerator(42L).writeJson(first, 500, FilmCatalogGenerator.Layout.FLAT);
+        new FilmCatalogGenerator(42L).writeJson(second, 500, FilmCatalogGenerator.Layout.FLAT);
+
+        assertEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    @DisplayName("Written json can be loaded like oscars.json")
+    void loadableJson(AemContext context) throws IOException {
+        StringWriter json = new StringWriter();
+        new FilmCatalogGenerator().writeJson(json, 2000, FilmCatalogGenerator.Layout.BUCKETED);
+        context.load().json(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)), "/content/generated");
+
+        int films = 0;
+        for (Resource bucket : context.resourceResolver().getResource("/content/generated").getChildren()) {
+            assertNotNull(bucket.getValueMap().get("minYear", Integer.class));
+            for (Resource film : bucket.getChildren()) {
+                assertEquals(bucket.getValueMap().get("minYear", Integer.class) / 10, film.getValueMap().get("year", Integer.class) / 10);
+                films++;
+            }
+        }
+        assertEquals(2000, films);
+    }
+
+    @Test
+    @DisplayName("Catalog is created directly in the repository")
+    void loadIntoRepository(AemContext context) throws PersistenceException {
+        context.create().resource("/content");
+        new FilmCatalogGenerator().load(context.resourceResolver(), "/content/generated", 2000, FilmCatalogGenerator.Layout.FLAT);
+
+        Resource container = context.resourceResolver().getResource("/content/generated");
+        assertEquals(FilmCatalogGenerator.CONTAINER_TYPE, container.getResourceType());
+        int films = 0;
+        for (Resource ignored : container.getChildren()) {
+            films++;
+        }
+        assertEquals(2000, films);
+    }
+}
@@ -0,0 +1,224 @@
+package de.cyberport.core.importer.impl;
+
+import de.cyberport.core.helpers.FilmCatalogGenerator;
+import de.cyberport.core.importer.FilmImportResult;
+import de.cyberport.core.index.FilmBucket;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexService;
+import de.cyberport.core.index.impl.FilmIndexServiceImpl;
+import de.cyberport.core.servlets.OscarConstants;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.ResourceResolverWrapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class FilmImporterImplTest {
+
+    private FilmIndexService indexService;
+
+    private FilmImporterImpl importer;
+
+    private ResourceResolver resolver;
+
+    @BeforeEach
+    void setUp(AemContext context) {
+        context.create().resource("/content");
+        resolver = new MovingResourceResolver(context.resourceResolver());
+        indexService = context.registerInjectActivateService(new FilmIndexServiceImpl());
+        importer = context.registerInjectActivateService(new FilmImporterImpl(), "batch.size", 300, "shard.size", 5);
+    }
+
+    @Test
+    @DisplayName("Films of oscars.json are imported into year buckets of at most shard size films below decade buckets")
+    void importsOscars() throws IOException {
+        FilmImportResult result;
+        try (InputStream json = getClass().getResourceAsStream("/oscars.json")) {
+            result = importer.importFilms(resolver, "/content/oscars", json);
+        }
+
+        Resource container = resolver.getResource("/content/oscars");
+        assertEquals(OscarConstants.CONTAINER_RESOURCE_TYPE, container.getResourceType());
+        assertNotNull(container.getValueMap().get("jcr:lastModified"));
+        int films = 0;
+        int buckets = 0;
+        for (Resource decade : container.getChildren()) {
+            assertEquals(OscarConstants.BUCKET_RESOURCE_TYPE, decade.getResourceType());
+            int minYear = decade.getValueMap().get(OscarConstants.MIN_YEAR, Integer.class);
+            for (Resource shard : decade.getChildren()) {
+                assertEquals(OscarConstants.BUCKET_RESOURCE_TYPE, shard.getResourceType());
+                int year = shard.getValueMap().get(OscarConstants.MIN_YEAR, Integer.class);
+                assertEquals(year, shard.getValueMap().get(OscarConstants.MAX_YEAR, Integer.class));
+                assertEquals(minYear / 10, year / 10);
+                int shardFilms = 0;
+                for (Resource film : shard.getChildren()) {
+                    assertEquals(OscarConstants.FILM_RESOURCE_TYPE, film.getResourceType());
+                    assertEquals(year, film.getValueMap().get(OscarConstants.YEAR, Integer.class));
+                    shardFilms++;
+                }
+                assertTrue(shardFilms > 0 && shardFilms <= 5);
+                films += shardFilms;
+                buckets++;
+            }
+            buckets++;
+        }
+        assertEquals(films, result.getFilmCount());
+        assertEquals(buckets, result.getBucketCount());
+        assertEquals(films / 300 + 1, result.getCommitCount());
+        assertNull(resolver.getResource("/content/oscars-import"));
+
+        Resource parasite = resolver.getResource("/content/oscars/2010s/2019-3/1315");
+        assertEquals("Parasite", parasite.getValueMap().get(OscarConstants.TITLE, String.class));
+        assertEquals(2019, parasite.getValueMap().get(OscarConstants.YEAR, Integer.class));
+        assertEquals(Boolean.TRUE, parasite.getValueMap().get(OscarConstants.IS_BEST_PICTURE, Boolean.class));
+    }
+
+    @Test
+    @DisplayName("The index is rebuilt once after the import, including the nested buckets")
+    void rebuildsIndex() throws IOException {
+        importer.importFilms(resolver, "/content/generated", catalog(1000, FilmCatalogGenerator.Layout.FLAT));
+        // Without observed changes the indexes built by the import are kept, so they do not see this deletion
+        Resource container = resolver.getResource("/content/generated");
+        Resource decade = container.getChildren().iterator().next();
+        resolver.delete(decade.getChildren().iterator().next().getChildren().iterator().next());
+
+        FilmIndex index = indexService.getIndex(container);
+        assertEquals(0, index.size());
+        int films = 0;
+        for (Resource bucket : container.getChildren()) {
+            assertEquals(0, indexService.getIndex(bucket).size());
+            for (Resource shard : bucket.getChildren()) {
+                films += indexService.getIndex(shard).size();
+            }
+        }
+        assertEquals(1000, films);
+        for (FilmBucket shard : indexService.getIndex(decade).buckets()) {
+            assertEquals(shard.getMinYear(), shard.getMaxYear());
+        }
+    }
+
+    @Test
+    @DisplayName("Reimporting replaces the films and restamps the buckets, the buckets of a bucketed document are not nested")
+    void reimport() throws IOException {
+        importer.importFilms(resolver, "/content/generated", catalog(2000, FilmCatalogGenerator.Layout.FLAT));
+        FilmImportResult result = importer.importFilms(resolver, "/content/generated", catalog(700, FilmCatalogGenerator.Layout.BUCKETED));
+
+        assertEquals(700, result.getFilmCount());
+        Resource container = resolver.getResource("/content/generated");
+        Calendar modified = container.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        int films = 0;
+        for (Resource decade : container.getChildren()) {
+            assertEquals(modified, decade.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class));
+            for (Resource shard : decade.getChildren()) {
+                assertEquals(modified, shard.getValueMap().get(JcrConstants.JCR_LASTMODIFIED, Calendar.class));
+                for (Resource film : shard.getChildren()) {
+                    assertEquals(OscarConstants.FILM_RESOURCE_TYPE, film.getResourceType());
+                    films++;
+                }
+            }
+        }
+        assertEquals(700, films);
+        assertNull(resolver.getResource("/content/generated-import"));
+        assertNull(resolver.getResource("/content/generated-replaced"));
+    }
+
+    @Test
+    @DisplayName("Films of different groups with the same name are all imported")
+    void reusedNames() throws IOException {
+        InputStream json = new ByteArrayInputStream(("{\"a\": {\"1\": {\"title\": \"Gladiator\", \"year\": 2000}}, "
+                + "\"b\": {\"1\": {\"title\": \"Traffic\", \"year\": 2000}, \"1-1\": {\"title\": \"Chocolat\", \"year\": 2000}}}")
+                .getBytes(StandardCharsets.UTF_8));
+
+        FilmImportResult result = importer.importFilms(resolver, "/content/reused", json);
+        assertEquals(3, result.getFilmCount());
+        assertEquals(3, countFilms(resolver.getResource("/content/reused")));
+        assertEquals("Gladiator", resolver.getResource("/content/reused/2000s/2000-0/1").getValueMap().get(OscarConstants.TITLE));
+        assertEquals("Traffic", resolver.getResource("/content/reused/2000s/2000-0/1-1").getValueMap().get(OscarConstants.TITLE));
+        assertEquals("Chocolat", resolver.getResource("/content/reused/2000s/2000-0/1-1-1").getValueMap().get(OscarConstants.TITLE));
+    }
+
+    @Test
+    @DisplayName("A failed import leaves the films of the container untouched and removes the staged films")
+    void failedImport() throws IOException {
+        importer.importFilms(resolver, "/content/generated", catalog(500, FilmCatalogGenerator.Layout.FLAT));
+        InputStream truncated = new ByteArrayInputStream("{\"1\": {\"title\": \"Parasite\", \"year\": 2019}, \"2\": {"
+                .getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class, () -> importer.importFilms(resolver, "/content/generated", truncated));
+        assertNull(resolver.getResource("/content/generated-import"));
+        assertEquals(500, countFilms(resolver.getResource("/content/generated")));
+    }
+
+    @Test
+    @DisplayName("Importing into a resource that is not a film container is refused and deletes nothing")
+    void refusesOtherResources(AemContext context) {
+        context.create().resource("/content/site");
+
+        assertThrows(PersistenceException.class, () -> importer.importFilms(resolver, "/content", catalog(10, FilmCatalogGenerator.Layout.FLAT)));
+        assertNotNull(resolver.getResource("/content/site"));
+    }
+
+    private static int countFilms(Resource resource) {
+        int films = 0;
+        for (Resource child : resource.getChildren()) {
+            films += OscarConstants.FILM_RESOURCE_TYPE.equals(child.getResourceType()) ? 1 : countFilms(child);
+        }
+        return films;
+    }
+
+    private static InputStream catalog(int size, FilmCatalogGenerator.Layout layout) throws IOException {
+        StringWriter json = new StringWriter();
+        new FilmCatalogGenerator().writeJson(json, size, layout);
+        return new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The mock resource resolver does not support moves, this one copies the tree and deletes the source instead
+     */
+    private static final class MovingResourceResolver extends ResourceResolverWrapper {
+
+        MovingResourceResolver(ResourceResolver resolver) {
+            super(resolver);
+        }
+
+        @Override
+        public Resource move(String srcAbsPath, String destAbsPath) throws PersistenceException {
+            Resource source = getResource(srcAbsPath);
+            Resource moved = copyTree(source, getResource(destAbsPath));
+            delete(source);
+            return moved;
+        }
+
+        private Resource copyTree(Resource source, Resource parent) throws PersistenceException {
+            Resource copy = create(parent, source.getName(), new HashMap<>(source.getValueMap()));
+            for (Resource child : source.getChildren()) {
+                copyTree(child, copy);
+            }
+            return copy;
+        }
+    }
+}
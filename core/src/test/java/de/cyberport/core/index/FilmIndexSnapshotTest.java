@@ -0,0 +1,107 @@
+package de.cyberport.core.index;
+
+import de.cyberport.core.search.FilmSort;
+import de.cyberport.core.servlets.OscarSortBy;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class FilmIndexSnapshotTest {
+
+    private static final long STAMP = 1_600_000_000_000L;
+
+    private FilmIndex index;
+
+    @BeforeEach
+    void setUp(AemContext context) {
+        context.load().json("/oscars.json", "/content/oscars");
+        FilmIndexBuilder builder = new FilmIndexBuilder("/content/oscars");
+        context.resourceResolver().getResource("/content/oscars").getChildren()
+                .forEach(film -> builder.add(film.getValueMap()));
+        builder.addBucket("/content/oscars/2010s",
+                context.create().resource("/content/buckets/2010s", "minYear", 2010, "maxYear", 2019).getValueMap());
+        builder.add("Amélie – 天国と地獄", 2001, 0, 5, 12, false);
+        builder.modified(STAMP);
+        index = builder.build();
+    }
+
+    @Test
+    @DisplayName("Mapped snapshot holds the same films, sort orders and buckets as the index it was written from")
+    void roundTrip(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("oscars.idx");
+        FilmIndexSnapshot.write(index, STAMP, file);
+        FilmIndex opened = FilmIndexSnapshot.open(file, "/content/oscars", STAMP);
+
+        assertNotNull(opened);
+        assertEquals("/content/oscars", FilmIndexSnapshot.readPath(file));
+        assertEquals(index.size(), opened.size());
+        assertEquals(index.getRevision(), opened.getRevision());
+        assertEquals(STAMP, opened.getLastModified());
+        for (int ordinal = 0; ordinal < index.size(); ordinal++) {
+            assertEquals(index.title(ordinal), opened.title(ordinal));
+            assertEquals(index.year(ordinal), opened.year(ordinal));
+            assertEquals(index.awards(ordinal), opened.awards(ordinal));
+            assertEquals(index.nominations(ordinal), opened.nominations(ordinal));
+            assertEquals(index.references(ordinal), opened.references(ordinal));
+            assertEquals(index.isBestPicture(ordinal), opened.isBestPicture(ordinal));
+            for (OscarSortBy sortBy : OscarSortBy.values()) {
+                assertEquals(index.ordinalAt(sortBy, ordinal), opened.ordinalAt(sortBy, ordinal));
+                assertEquals(FilmSort.of(sortBy).keys(index).key(ordinal), FilmSort.of(sortBy).keys(opened).key(ordinal));
+            }
+        }
+        assertEquals(index.yearIndex().range(1990, 2000), opened.yearIndex().range(1990, 2000));
+        assertEquals(index.awardIndex().range(5, Integer.MAX_VALUE), opened.awardIndex().range(5, Integer.MAX_VALUE));
+        assertEquals(index.nominationIndex().equalTo(5), opened.nominationIndex().equalTo(5));
+        assertEquals(index.fragments().bytes(), opened.fragments().bytes());
+        assertEquals(index.fragments().offsets(), opened.fragments().offsets());
+        assertEquals(1, opened.buckets().size());
+        assertEquals("/content/oscars/2010s", opened.buckets().get(0).getPath());
+        assertEquals(2010, opened.buckets().get(0).getMinYear());
+        assertEquals(2019, opened.buckets().get(0).getMaxYear());
+    }
+
+    @Test
+    @DisplayName("Snapshots of another stamp or container, damaged and truncated files are not opened")
+    void rejectsOutdatedSnapshots(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("oscars.idx");
+        FilmIndexSnapshot.write(index, STAMP, file);
+
+        assertNull(FilmIndexSnapshot.open(file, "/content/oscars", STAMP + 1));
+        assertNull(FilmIndexSnapshot.open(file, "/content/other", STAMP));
+        assertNull(FilmIndexSnapshot.open(directory.resolve("missing.idx"), "/content/oscars", STAMP));
+
+        // The rendered films are the last section, the stored revision of the films does not cover them
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer position = ByteBuffer.allocate(1);
+            channel.read(position, Files.size(file) - 16);
+            position.put(0, (byte) (position.get(0) ^ 1)).rewind();
+            channel.write(position, Files.size(file) - 16);
+        }
+        assertNull(FilmIndexSnapshot.open(file, "/content/oscars", STAMP));
+
+        FilmIndexSnapshot.write(index, STAMP, file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) / 2);
+        }
+        assertNull(FilmIndexSnapshot.open(file, "/content/oscars", STAMP));
+    }
+}
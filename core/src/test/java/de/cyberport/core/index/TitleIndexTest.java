@@ -0,0 +1,97 @@
+package de.cyberport.core.index;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class TitleIndexTest {
+
+    private FilmIndex index;
+
+    @BeforeEach
+    void setUp(AemContext context) {
+        context.load().json("/oscars.json", "/content/oscars");
+        index = FilmIndexBuilder.build(context.resourceResolver().getResource("/content/oscars"));
+    }
+
+    @Test
+    @DisplayName("Titles are folded to lower case without diacritics")
+    void fold() {
+        assertEquals("les miserables", TitleIndex.fold("  Les   Misérables "));
+        assertEquals("hotel terminus: the life", TitleIndex.fold("HÔTEL Terminus: The Life"));
+    }
+
+    @Test
+    @DisplayName("Prefix search ignores case and diacritics")
+    void prefix() {
+        assertEquals(3, index.titleIndex().prefix("the lord of the rings").cardinality());
+        assertEquals(3, index.titleIndex().prefix("STAR").cardinality());
+        BitSet hotel = index.titleIndex().prefix("Hotel T");
+        assertEquals(1, hotel.cardinality());
+        assertEquals("Hôtel Terminus: The Life and Times of Klaus Barbie", index.title(hotel.nextSetBit(0)));
+        assertTrue(index.titleIndex().prefix("zzz").isEmpty());
+        assertEquals(index.size(), index.titleIndex().prefix("").cardinality());
+    }
+
+    @Test
+    @DisplayName("Fuzzy search finds misspelled titles and ranks the closest title first")
+    void fuzzy() {
+        TitleIndex.Matches matches = index.titleIndex().search(TitleIndex.FuzzyTitle.of("parsite"));
+        assertEquals("Parasite", best(matches));
+
+        matches = index.titleIndex().search(TitleIndex.FuzzyTitle.of("fellowship of the ring"));
+        assertEquals("The Lord of the Rings: The Fellowship of the Ring", best(matches));
+
+        matches = index.titleIndex().search(TitleIndex.FuzzyTitle.of("Les Miserables"));
+        assertEquals("Les Misérables", best(matches));
+        assertEquals(TitleIndex.MAX_SCORE, bestScore(matches));
+
+        assertEquals(0, index.titleIndex().search(TitleIndex.FuzzyTitle.of("xqzv")).size());
+    }
+
+    @Test
+    @DisplayName("Scores of single films equal the scores of the search")
+    void score() {
+        TitleIndex.FuzzyTitle query = TitleIndex.FuzzyTitle.of("star wars");
+        TitleIndex.Matches matches = index.titleIndex().search(query);
+        List<Integer> differences = new ArrayList<>();
+        for (int i = 0; i < matches.size(); i++) {
+            if (matches.score(i) != index.titleIndex().score(query, matches.ordinal(i))) {
+                differences.add(matches.ordinal(i));
+            }
+        }
+        assertTrue(differences.isEmpty(), "Different scores for " + differences);
+    }
+
+    private String best(TitleIndex.Matches matches) {
+        int best = 0;
+        for (int i = 1; i < matches.size(); i++) {
+            if (matches.score(i) > matches.score(best)) {
+                best = i;
+            }
+        }
+        return index.title(matches.ordinal(best));
+    }
+
+    private int bestScore(TitleIndex.Matches matches) {
+        int best = 0;
+        for (int i = 0; i < matches.size(); i++) {
+            best = Math.max(best, matches.score(i));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,165 @@
+package de.cyberport.core.index.impl;
+
+import de.cyberport.core.index.FilmIndex;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceWrapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class FilmIndexServiceImplTest {
+
+    private Resource container;
+
+    private File snapshotDirectory;
+
+    @BeforeEach
+    void setUp(AemContext context) {
+        context.load().json("/oscars.json", "/content/oscars");
+        container = context.resourceResolver().getResource("/content/oscars");
+        Calendar lastModified = Calendar.getInstance();
+        lastModified.setTimeInMillis(1_600_000_000_000L);
+        container.adaptTo(ModifiableValueMap.class).put("jcr:lastModified", lastModified);
+        snapshotDirectory = context.bundleContext().getDataFile("film-index");
+    }
+
+    @Test
+    @DisplayName("A restarted service opens the snapshot of the container instead of rebuilding the index")
+    void reopensSnapshot(AemContext context) throws PersistenceException, InterruptedException {
+        FilmIndex built = indexOnce(context);
+        assertEquals(1, snapshotFiles());
+        // An edit that keeps the date of the film does not change the stamp, so the restarted service must not read the films again
+        Resource film = container.getChild("0");
+        film.adaptTo(ModifiableValueMap.class).put("awards", film.getValueMap().get("awards", 0) + 1);
+
+        FilmIndex opened = indexOnce(context);
+        assertNotSame(built, opened);
+        assertEquals(built.getRevision(), opened.getRevision());
+        assertEquals(built.size(), opened.size());
+    }
+
+    @Test
+    @DisplayName("Films removed or edited while the service was inactive are only noticed by the date of the container")
+    void rejectsChangedContainer(AemContext context) throws PersistenceException, InterruptedException {
+        FilmIndex built = indexOnce(context);
+        context.resourceResolver().delete(container.getChild("1"));
+
+        FilmIndex stale = indexOnce(context);
+        assertEquals(built.size(), stale.size());
+
+        Calendar lastModified = Calendar.getInstance();
+        lastModified.setTimeInMillis(1_600_000_001_000L);
+        container.adaptTo(ModifiableValueMap.class).put("jcr:lastModified", lastModified);
+
+        FilmIndex rebuilt = indexOnce(context);
+        assertEquals(built.size() - 1, rebuilt.size());
+        assertNotEquals(built.getRevision(), rebuilt.getRevision());
+        assertEquals(1, snapshotFiles());
+    }
+
+    @Test
+    @DisplayName("Snapshots of changed containers are deleted, also when the index was not requested since the restart")
+    void deletesChangedSnapshot(AemContext context) throws InterruptedException {
+        indexOnce(context);
+        FilmIndexServiceImpl restarted = context.registerInjectActivateService(new FilmIndexServiceImpl());
+
+        restarted.invalidate("/content/oscars/parasite");
+        assertEquals(0, snapshotFiles());
+    }
+
+    @Test
+    @DisplayName("Containers without modification date are not written as snapshot")
+    void skipsContainersWithoutDate(AemContext context) throws InterruptedException {
+        container.adaptTo(ModifiableValueMap.class).remove("jcr:lastModified");
+        indexOnce(context);
+        assertEquals(0, snapshotFiles());
+    }
+
+    @Test
+    @DisplayName("Snapshots can be disabled")
+    void disabledSnapshots(AemContext context) throws InterruptedException {
+        indexOnce(context, "snapshots", false);
+        assertEquals(0, snapshotFiles());
+    }
+
+    @Test
+    @DisplayName("Concurrent first requests of a container share one build")
+    void buildsOnce(AemContext context) throws Exception {
+        FilmIndexServiceImpl service = context.registerInjectActivateService(new FilmIndexServiceImpl(), "snapshots", false);
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger walks = new AtomicInteger();
+        Resource blocking = new ResourceWrapper(container) {
+            @Override
+            public Iterable<Resource> getChildren() {
+                walks.incrementAndGet();
+                building.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getChildren();
+            }
+        };
+
+        FutureTask<FilmIndex> first = new FutureTask<>(() -> service.getIndex(blocking));
+        FutureTask<FilmIndex> second = new FutureTask<>(() -> service.getIndex(blocking));
+        new Thread(first).start();
+        building.await();
+        Thread waiting = new Thread(second);
+        waiting.start();
+        while (waiting.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertSame(first.get(), second.get());
+        assertEquals(1, walks.get());
+    }
+
+    @Test
+    @DisplayName("Indexes of containers outside the observed paths are neither kept nor written as snapshot")
+    void unobservedContainer(AemContext context) {
+        FilmIndexServiceImpl service = context.registerInjectActivateService(new FilmIndexServiceImpl(),
+                "resource.paths", new String[] { "/var" });
+
+        assertNotSame(service.getIndex(container), service.getIndex(container));
+        assertEquals(0, snapshotFiles());
+    }
+
+    /**
+     * Requests the index from a newly activated service and deactivates it again, which waits for its snapshot
+     */
+    private FilmIndex indexOnce(AemContext context, Object... properties) throws InterruptedException {
+        FilmIndexServiceImpl service = context.registerInjectActivateService(new FilmIndexServiceImpl(), properties);
+        FilmIndex index = service.getIndex(container);
+        service.deactivate();
+        return index;
+    }
+
+    private int snapshotFiles() {
+        String[] files = snapshotDirectory.list((directory, name) -> name.endsWith(".idx"));
+        return files != null ? files.length : 0;
+    }
+}
@@ -0,0 +1,61 @@
+package de.cyberport.core.metrics;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Sentham
+ */
+class LatencyHistogramTest {
+
+    @Test
+    @DisplayName("Every value lies in its bucket and bucket bounds keep the relative precision")
+    void buckets() {
+        long previousHighest = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.bucketOf(Long.MAX_VALUE); bucket++) {
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            long lowest = previousHighest + 1;
+            assertEquals(bucket, LatencyHistogram.bucketOf(lowest));
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            assertThat(highest - lowest, lessThanOrEqualTo(Math.max(0, lowest / LatencyHistogram.SUB_BUCKETS)));
+            previousHighest = highest;
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    @DisplayName("Percentiles are within the bucket precision of the exact values")
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        IntStream.rangeClosed(1, 1000).forEach(value -> histogram.record(value * 1000L));
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.001);
+        for (double percentile : new double[] { 1, 50, 90, 99, 100 }) {
+            long exact = (long) (percentile * 10) * 1000L;
+            long recorded = histogram.getPercentile(percentile);
+            assertThat(recorded, greaterThanOrEqualTo(exact));
+            assertThat(recorded, lessThanOrEqualTo(exact + exact / LatencyHistogram.SUB_BUCKETS));
+        }
+    }
+
+    @Test
+    @DisplayName("Empty histogram and negative values")
+    void edgeCases() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMean());
+
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
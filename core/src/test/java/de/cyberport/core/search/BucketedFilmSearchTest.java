@@ -0,0 +1,225 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.helpers.FilmCatalogGenerator;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexService;
+import de.cyberport.core.index.impl.FilmIndexServiceImpl;
+import de.cyberport.core.metrics.SearchTrace;
+import de.cyberport.core.servlets.OscarFacet;
+import de.cyberport.core.servlets.OscarSortBy;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class BucketedFilmSearchTest {
+
+    private static final int CATALOG_SIZE = 40000;
+
+    private final FilmIndexService indexService = new FilmIndexServiceImpl();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    private ResourceResolver resolver;
+
+    @BeforeEach
+    void setUp(AemContext context) throws PersistenceException {
+        resolver = context.resourceResolver();
+        context.create().resource("/content");
+        new FilmCatalogGenerator().load(resolver, "/content/flat", CATALOG_SIZE, FilmCatalogGenerator.Layout.FLAT);
+        new FilmCatalogGenerator().load(resolver, "/content/bucketed", CATALOG_SIZE, FilmCatalogGenerator.Layout.BUCKETED);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    @DisplayName("Buckets outside of the requested years are skipped")
+    void skipsBuckets() {
+        List<FilmIndex> indexes = collect(query("year", "1995"));
+        assertEquals(1, indexes.size());
+        assertEquals("/content/bucketed/1990s", indexes.get(0).getPath());
+
+        for (FilmIndex index : collect(query("minYear", "1985", "maxYear", "2004"))) {
+            assertTrue(index.getPath().matches("/content/bucketed/(1980s|1990s|2000s)"), index.getPath());
+        }
+        assertTrue(collect(query("minYear", "2010", "maxYear", "2000")).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Merged runs of all buckets equal the result of the flat container")
+    void matchesFlatContainer() {
+        FilmIndex flat = indexService.getIndex(resolver.getResource("/content/flat"));
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            for (String limit : new String[] { "1", "25", "100000" }) {
+                assertSameFilms(flat, query("sortBy", sortBy.name(), "limit", limit));
+                assertSameFilms(flat, query("sortBy", sortBy.name(), "limit", limit, "minYear", "1950", "minAwards", "2"));
+                assertSameFilms(flat, query("sortBy", sortBy.name(), "limit", limit, "maxYear", "1999", "isBestPicture", "true"));
+                assertSameFilms(flat, query("sortBy", sortBy.name(), "order", "desc", "limit", limit, "minReferences", "500"));
+            }
+        }
+        for (String limit : new String[] { "1", "25", "100000" }) {
+            assertSameFilms(flat, query("sortBy", "awards,-references", "limit", limit, "minYear", "1950"));
+            assertSameFilms(flat, query("sortBy", "-nominations,year,-title", "limit", limit, "isBestPicture", "true"));
+        }
+    }
+
+    @Test
+    @DisplayName("Pages following the cursors equal the unlimited result")
+    void cursorPages() {
+        FilmIndex flat = indexService.getIndex(resolver.getResource("/content/flat"));
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            assertSamePages(query -> FilmResult.of(flat, FilmQueryExecutor.execute(flat, query)), "sortBy", sortBy.name(), "minAwards", "2");
+            assertSamePages(this::searchBucketed, "sortBy", sortBy.name(), "minAwards", "2");
+            assertSamePages(this::searchBucketed, "sortBy", sortBy.name(), "titleQuery", "golden river");
+            assertSamePages(this::searchBucketed, "sortBy", sortBy.name(), "order", "desc", "maxReferences", "2000");
+        }
+        assertSamePages(query -> FilmResult.of(flat, FilmQueryExecutor.execute(flat, query)), "sortBy", "awards,-references");
+        assertSamePages(this::searchBucketed, "sortBy", "awards,-references", "minAwards", "1");
+        assertSamePages(this::searchBucketed, "sortBy", "-year,title", "titleQuery", "golden river");
+    }
+
+    @Test
+    @DisplayName("Streamed films of all buckets equal the merged result")
+    void stream() {
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            assertSameStream(query("sortBy", sortBy.name()));
+            assertSameStream(query("sortBy", sortBy.name(), "limit", "1500", "minYear", "1950", "minAwards", "2"));
+            FilmCursor cursor = FilmCursor.next(searchBucketed(query("sortBy", sortBy.name(), "limit", "997")),
+                    query("sortBy", sortBy.name(), "limit", "997"));
+            assertSameStream(query("sortBy", sortBy.name(), "cursor", cursor.encode()));
+        }
+        assertSameStream(query("sortBy", "references", "order", "desc", "minAwards", "1"));
+        assertSameStream(query("sortBy", "awards,-references", "minYear", "1960"));
+        FilmCursor cursor = FilmCursor.next(searchBucketed(query("sortBy", "awards,-references", "limit", "997")),
+                query("sortBy", "awards,-references", "limit", "997"));
+        assertSameStream(query("sortBy", "awards,-references", "cursor", cursor.encode()));
+        assertSameStream(query("minYear", "2010", "maxYear", "2000"));
+    }
+
+    private void assertSameStream(OscarQuery query) {
+        FilmResult expected = searchBucketed(query);
+        FilmStream stream = FilmStream.open(collect(query), query, SearchTrace.disabled());
+        int position = 0;
+        for (; stream.next(); position++) {
+            assertEquals(expected.index(position).getPath(), stream.index().getPath(), "Unexpected index at " + position + " for " + query);
+            assertEquals(expected.ordinal(position), stream.ordinal(), "Unexpected film at " + position + " for " + query);
+        }
+        assertEquals(expected.size(), position, "Unexpected number of streamed films for " + query);
+    }
+
+    @Test
+    @DisplayName("Merged facets of all buckets equal the facets of the flat container")
+    void facets() {
+        FilmIndex flat = indexService.getIndex(resolver.getResource("/content/flat"));
+        for (String[] params : new String[][] { { "facets", "year,awards,nominations,isBestPicture" },
+                { "facets", "year,nominations,isBestPicture", "minYear", "1955", "maxYear", "1974", "minAwards", "2" },
+                { "facets", "awards", "titleQuery", "golden river" } }) {
+            OscarQuery query = query(params);
+            FilmFacets expected = FilmFacets.compute(flat, FilmQueryExecutor.select(flat, query), query.getFacets());
+            FilmFacets actual = BucketedFilmSearch.aggregate(pool, collect(query), query);
+
+            assertEquals(expected.getTotal(), actual.getTotal(), "Unexpected total for " + query);
+            assertEquals(expected.getBestPictures(), actual.getBestPictures(), "Unexpected best pictures for " + query);
+            for (OscarFacet facet : query.getFacets()) {
+                if (facet.isNumeric()) {
+                    assertSameHistogram(expected.getHistogram(facet), actual.getHistogram(facet));
+                }
+            }
+        }
+    }
+
+    private static void assertSameHistogram(FilmFacets.Histogram expected, FilmFacets.Histogram actual) {
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getSum(), actual.getSum());
+        Map<Integer, Integer> expectedCounts = new HashMap<>();
+        Map<Integer, Integer> actualCounts = new HashMap<>();
+        for (int bucket = 0; bucket < expected.bucketCount(); bucket++) {
+            expectedCounts.merge(expected.bucketStart(bucket), expected.count(bucket), Integer::sum);
+        }
+        for (int bucket = 0; bucket < actual.bucketCount(); bucket++) {
+            actualCounts.merge(actual.bucketStart(bucket), actual.count(bucket), Integer::sum);
+        }
+        expectedCounts.values().removeIf(count -> count == 0);
+        actualCounts.values().removeIf(count -> count == 0);
+        assertEquals(expectedCounts, actualCounts);
+    }
+
+    private void assertSamePages(Function<OscarQuery, FilmResult> search, String... params) {
+        FilmResult all = search.apply(query(params));
+        String[] pageParams = Arrays.copyOf(params, params.length + 4);
+        pageParams[params.length] = "limit";
+        pageParams[params.length + 1] = "997";
+        pageParams[params.length + 2] = "cursor";
+
+        int position = 0;
+        FilmResult page = search.apply(query(Arrays.copyOf(pageParams, params.length + 2)));
+        while (true) {
+            for (int i = 0; i < page.size(); i++, position++) {
+                assertEquals(all.index(position).getPath(), page.index(i).getPath(), "Unexpected index at " + position);
+                assertEquals(all.ordinal(position), page.ordinal(i), "Unexpected film at " + position);
+            }
+            FilmCursor next = FilmCursor.next(page, query(Arrays.copyOf(pageParams, params.length + 2)));
+            if (next == null) {
+                break;
+            }
+            pageParams[params.length + 3] = next.encode();
+            page = search.apply(query(pageParams));
+        }
+        assertEquals(all.size(), position, "Unexpected number of paged films");
+    }
+
+    private FilmResult searchBucketed(OscarQuery query) {
+        return BucketedFilmSearch.execute(pool, collect(query), query, index -> FilmQueryExecutor.execute(index, query));
+    }
+
+    private void assertSameFilms(FilmIndex flat, OscarQuery query) {
+        int[] expected = FilmQueryExecutor.execute(flat, query);
+        FilmResult actual = BucketedFilmSearch.execute(pool, collect(query), query, index -> FilmQueryExecutor.execute(index, query));
+
+        assertEquals(expected.length, actual.size(), "Unexpected result size for " + query);
+        // Films with equal sort value and title may come in a different order, their sort keys are compared only
+        for (int position = 0; position < expected.length; position++) {
+            FilmIndex index = actual.index(position);
+            int ordinal = actual.ordinal(position);
+            assertEquals(flat.sortValue(query.getSortBy(), expected[position]), index.sortValue(query.getSortBy(), ordinal),
+                    "Unexpected sort value at " + position + " for " + query);
+            assertEquals(flat.title(expected[position]), index.title(ordinal), "Unexpected title at " + position + " for " + query);
+        }
+    }
+
+    private List<FilmIndex> collect(OscarQuery query) {
+        FilmIndex container = indexService.getIndex(resolver.getResource("/content/bucketed"));
+        return BucketedFilmSearch.collect(indexService, resolver, container, query);
+    }
+
+    private static OscarQuery query(String... params) {
+        Map<String, String> parameters = new HashMap<>();
+        for (int i = 0; i < params.length; i += 2) {
+            parameters.put(params[i], params[i + 1]);
+        }
+        return OscarQuery.fromParameters(parameters::get);
+    }
+}
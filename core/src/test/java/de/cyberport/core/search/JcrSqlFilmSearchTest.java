@@ -0,0 +1,187 @@
+package de.cyberport.core.search;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import de.cyberport.core.cache.impl.CompressedResponseCacheImpl;
+import de.cyberport.core.cache.impl.QueryResultCacheImpl;
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexBuilder;
+import de.cyberport.core.index.impl.FilmIndexServiceImpl;
+import de.cyberport.core.metrics.impl.SearchMetricsImpl;
+import de.cyberport.core.servlets.OscarFilmContainerServlet;
+import de.cyberport.core.servlets.OscarSortBy;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the JCR-SQL2 search on a real Oak repository and compares it with the in-memory evaluation
+ *
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class JcrSqlFilmSearchTest {
+
+    private final AemContext context = new AemContext(ResourceResolverType.JCR_OAK);
+
+    private Resource container;
+
+    private FilmIndex index;
+
+    @BeforeEach
+    void setUp() {
+        context.load().json("/oscars.json", "/content/oscars");
+        container = context.resourceResolver().getResource("/content/oscars");
+        index = FilmIndexBuilder.build(container);
+    }
+
+    @Test
+    @DisplayName("Filters are passed as bind variables")
+    void statement() {
+        JcrSqlFilmSearch.Statement statement = JcrSqlFilmSearch.toStatement("/content/o'scars",
+                query("title", "Parasite", "minYear", "2000", "isBestPicture", "true", "sortBy", "nominations"));
+
+        assertEquals("SELECT * FROM [nt:unstructured] AS film WHERE ISDESCENDANTNODE(film, '/content/o''scars')"
+                + " AND film.[sling:resourceType] = 'test/filmEntry'"
+                + " AND LOWER(film.[title]) = $title"
+                + " AND film.[year] >= $minYear"
+                + " AND film.[isBestPicture] = $isBestPicture"
+                + " ORDER BY film.[nominations], film.[title]", statement.getSql());
+        assertEquals("parasite", statement.getBindings().get("title"));
+        assertEquals(2000L, statement.getBindings().get("minYear"));
+        assertEquals(true, statement.getBindings().get("isBestPicture"));
+    }
+
+    @Test
+    @DisplayName("Cursor continues after the sort value and title of the previous page")
+    void cursorStatement() {
+        OscarQuery firstPage = query("sortBy", "year", "limit", "5");
+        FilmCursor cursor = FilmCursor.next(FilmResult.of(index, FilmQueryExecutor.execute(index, firstPage)), firstPage);
+        JcrSqlFilmSearch.Statement statement = JcrSqlFilmSearch.toStatement("/content/oscars",
+                query("sortBy", "year", "limit", "5", "cursor", cursor.encode()));
+
+        assertEquals("SELECT * FROM [nt:unstructured] AS film WHERE ISDESCENDANTNODE(film, '/content/oscars')"
+                + " AND film.[sling:resourceType] = 'test/filmEntry'"
+                + " AND (film.[year] > $cursorValue OR (film.[year] = $cursorValue AND film.[title] > $cursorTitle))"
+                + " ORDER BY film.[year], film.[title]", statement.getSql());
+        assertEquals((long) cursor.getSortValue(), statement.getBindings().get("cursorValue"));
+        assertEquals(cursor.getTitle(), statement.getBindings().get("cursorTitle"));
+    }
+
+    @Test
+    @DisplayName("Descending keys of a compound order flip the keyset condition")
+    void compoundCursorStatement() {
+        OscarQuery firstPage = query("sortBy", "awards,-references", "limit", "5");
+        FilmCursor cursor = FilmCursor.next(FilmResult.of(index, FilmQueryExecutor.execute(index, firstPage)), firstPage);
+        JcrSqlFilmSearch.Statement statement = JcrSqlFilmSearch.toStatement("/content/oscars",
+                query("sortBy", "awards,-references", "limit", "5", "cursor", cursor.encode()));
+
+        assertEquals("SELECT * FROM [nt:unstructured] AS film WHERE ISDESCENDANTNODE(film, '/content/oscars')"
+                + " AND film.[sling:resourceType] = 'test/filmEntry'"
+                + " AND (film.[awards] > $cursorValue OR (film.[awards] = $cursorValue"
+                + " AND (film.[numberOfReferences] < $cursorValue2 OR (film.[numberOfReferences] = $cursorValue2"
+                + " AND film.[title] > $cursorTitle))))"
+                + " ORDER BY film.[awards], film.[numberOfReferences] DESC, film.[title]", statement.getSql());
+        assertEquals((long) cursor.getSortValue(1), statement.getBindings().get("cursorValue2"));
+    }
+
+    @Test
+    @DisplayName("JCR-SQL2 search returns the films of the in-memory search")
+    void matchesIndexSearch() throws RepositoryException {
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            assertSameFilms(query("sortBy", sortBy.name()));
+            assertSameFilms(query("sortBy", sortBy.name(), "minYear", "2000", "minAwards", "3", "limit", "7"));
+            assertSameFilms(query("sortBy", sortBy.name(), "year", "1964", "isBestPicture", "false"));
+            assertSameFilms(query("sortBy", sortBy.name(), "title", "PARASITE"));
+            assertSameFilms(query("sortBy", sortBy.name(), "titlePrefix", "The Lord", "minAwards", "4"));
+            assertSameFilms(query("sortBy", sortBy.name(), "nominations", "11", "maxAwards", "5"));
+            OscarQuery firstPage = query("sortBy", sortBy.name(), "minYear", "1990", "limit", "6");
+            FilmCursor cursor = FilmCursor.next(FilmResult.of(index, FilmQueryExecutor.execute(index, firstPage)), firstPage);
+            assertSameFilms(query("sortBy", sortBy.name(), "minYear", "1990", "limit", "6", "cursor", cursor.encode()));
+        }
+        assertSameFilms(query("sortBy", "awards,-references", "minReferences", "1000", "maxReferences", "20000"));
+        assertSameFilms(query("sortBy", "nominations", "order", "desc", "limit", "9"));
+        OscarQuery firstPage = query("sortBy", "-awards,nominations", "limit", "4");
+        FilmCursor cursor = FilmCursor.next(FilmResult.of(index, FilmQueryExecutor.execute(index, firstPage)), firstPage);
+        assertSameFilms(query("sortBy", "-awards,nominations", "limit", "4", "cursor", cursor.encode()));
+        assertEquals(0, JcrSqlFilmSearch.execute(container, query("minYear", "2010", "maxYear", "2000")).size());
+    }
+
+    @Test
+    @DisplayName("Containers configured for JCR-SQL2 are searched with the Oak indexes")
+    void configuredContainer() throws IOException {
+        context.registerInjectActivateService(new FilmIndexServiceImpl());
+        context.registerInjectActivateService(new QueryResultCacheImpl());
+        context.registerInjectActivateService(new SearchMetricsImpl());
+        context.registerInjectActivateService(new CompressedResponseCacheImpl());
+        OscarFilmContainerServlet servlet = context.registerInjectActivateService(new OscarFilmContainerServlet(),
+                "sql2.containers", new String[] { "/content/oscars" });
+        context.request().setResource(container);
+        Map<String, Object> params = new HashMap<>();
+        params.put("year", 2019);
+        params.put("minAwards", 4);
+        context.request().setParameterMap(params);
+
+        MockSlingHttpServletResponse response = context.response();
+        servlet.doGet(context.request(), response);
+
+        JsonObject jsonResp = new Gson().fromJson(response.getOutputAsString(), JsonObject.class);
+        assertEquals(1, jsonResp.get("results").getAsJsonArray().size());
+        assertEquals("Parasite", jsonResp.get("results").getAsJsonArray().get(0).getAsJsonObject().get("title").getAsString());
+    }
+
+    @Test
+    @DisplayName("Last-Modified of JCR-SQL2 responses follows the newest film, not only the container")
+    void lastModified() throws RepositoryException, PersistenceException {
+        assertEquals(-1, JcrSqlFilmSearch.lastModified(container));
+
+        Calendar containerDate = Calendar.getInstance();
+        containerDate.setTimeInMillis(1_600_000_000_000L);
+        container.adaptTo(ModifiableValueMap.class).put("jcr:lastModified", containerDate);
+        Calendar filmDate = Calendar.getInstance();
+        filmDate.setTimeInMillis(1_700_000_000_000L);
+        container.getChild("1315").adaptTo(ModifiableValueMap.class).put("jcr:lastModified", filmDate);
+        context.resourceResolver().commit();
+
+        assertEquals(1_700_000_000_000L, JcrSqlFilmSearch.lastModified(container));
+    }
+
+    private void assertSameFilms(OscarQuery query) throws RepositoryException {
+        int[] expected = FilmQueryExecutor.execute(index, query);
+        FilmResult actual = JcrSqlFilmSearch.execute(container, query);
+
+        assertEquals(expected.length, actual.size(), "Unexpected result size for " + query);
+        // Films with equal sort value and title may come in a different order, their sort keys are compared only
+        for (int position = 0; position < expected.length; position++) {
+            assertEquals(index.sortValue(query.getSortBy(), expected[position]),
+                    actual.index(position).sortValue(query.getSortBy(), actual.ordinal(position)),
+                    "Unexpected sort value at " + position + " for " + query);
+            assertEquals(index.title(expected[position]), actual.index(position).title(actual.ordinal(position)),
+                    "Unexpected title at " + position + " for " + query);
+        }
+    }
+
+    private static OscarQuery query(String... params) {
+        Map<String, String> parameters = new HashMap<>();
+        for (int i = 0; i < params.length; i += 2) {
+            parameters.put(params[i], params[i + 1]);
+        }
+        return OscarQuery.fromParameters(parameters::get);
+    }
+}
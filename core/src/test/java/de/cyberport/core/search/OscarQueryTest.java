@@ -0,0 +1,127 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.servlets.OscarSortBy;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Sentham
+ */
+class OscarQueryTest {
+
+    @Test
+    @DisplayName("Filters are ordered by selectivity")
+    void filterOrder() {
+        final Map<String, String> params = new HashMap<>();
+        params.put("isBestPicture", "true");
+        params.put("minAwards", "4");
+        params.put("nominations", "13");
+        OscarQuery query = OscarQuery.fromParameters(params::get);
+
+        List<FilmFilter.Kind> kinds = query.getFilters().stream().map(FilmFilter::getKind).collect(Collectors.toList());
+        assertEquals(3, kinds.size());
+        assertEquals(FilmFilter.Kind.EXACT, kinds.get(0));
+        assertEquals(FilmFilter.Kind.RANGE, kinds.get(1));
+        assertEquals(FilmFilter.Kind.BOOLEAN, kinds.get(2));
+        assertEquals(OscarSortBy.title, query.getSortBy());
+    }
+
+    @Test
+    @DisplayName("Contradictory ranges are detected without any filter")
+    void contradictoryRanges() {
+        final Map<String, String> params = new HashMap<>();
+        params.put("minYear", "2003");
+        params.put("maxYear", "2000");
+        OscarQuery query = OscarQuery.fromParameters(params::get);
+
+        assertFalse(query.isSatisfiable());
+        assertTrue(query.getFilters().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Canonical form ignores parameter order and title case")
+    void canonicalForm() {
+        final Map<String, String> params = new HashMap<>();
+        params.put("title", "Parasite");
+        params.put("sortBy", "year");
+        final Map<String, String> otherParams = new HashMap<>();
+        otherParams.put("sortBy", "YEAR");
+        otherParams.put("title", "PARASITE");
+
+        assertEquals(OscarQuery.fromParameters(params::get).toCanonicalString(),
+                OscarQuery.fromParameters(otherParams::get).toCanonicalString());
+    }
+
+    @Test
+    @DisplayName("Malformed values are rejected")
+    void malformedValues() {
+        final Map<String, String> params = new HashMap<>();
+        params.put("sortBy", "rating");
+
+        assertThrows(IllegalArgumentException.class, () -> OscarQuery.fromParameters(params::get));
+    }
+
+    @Test
+    @DisplayName("Cursor of a different sort order is rejected")
+    void foreignCursor() {
+        final Map<String, String> params = new HashMap<>();
+        params.put("cursor", Base64.getUrlEncoder().encodeToString("1|year|-1|1990|/content/oscars|3|Ghost".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IllegalArgumentException.class, () -> OscarQuery.fromParameters(params::get));
+
+        params.put("sortBy", "year");
+        assertEquals("Ghost", OscarQuery.fromParameters(params::get).getCursor().getTitle());
+
+        params.put("titleQuery", "ghost");
+        assertThrows(IllegalArgumentException.class, () -> OscarQuery.fromParameters(params::get));
+    }
+
+    @Test
+    @DisplayName("Sort keys are parsed with their direction")
+    void compoundSort() {
+        final Map<String, String> params = new HashMap<>();
+        params.put("sortBy", "Awards, -references ,title");
+        OscarQuery query = OscarQuery.fromParameters(params::get);
+
+        assertEquals("awards,-references", query.getSort().toString());
+        assertEquals(OscarSortBy.awards, query.getSortBy());
+        assertFalse(query.getSort().isPrecomputed());
+
+        params.put("order", "desc");
+        assertEquals("-awards,references,-title", OscarQuery.fromParameters(params::get).getSort().toString());
+        params.put("sortBy", "references");
+        assertTrue(OscarQuery.fromParameters(params::get).getSort().isPrecomputed());
+
+        params.put("sortBy", "title,year");
+        assertThrows(IllegalArgumentException.class, () -> OscarQuery.fromParameters(params::get));
+        params.put("sortBy", "year,-year");
+        assertThrows(IllegalArgumentException.class, () -> OscarQuery.fromParameters(params::get));
+        params.put("sortBy", "year");
+        params.put("order", "down");
+        assertThrows(IllegalArgumentException.class, () -> OscarQuery.fromParameters(params::get));
+    }
+
+    @Test
+    @DisplayName("References are filtered by range")
+    void referenceRange() {
+        final Map<String, String> params = new HashMap<>();
+        params.put("minReferences", "100");
+        params.put("maxReferences", "5000");
+        OscarQuery query = OscarQuery.fromParameters(params::get);
+
+        assertEquals("numberOfReferences:range sortBy=title", query.getShape());
+        params.put("minReferences", "6000");
+        assertFalse(OscarQuery.fromParameters(params::get).isSatisfiable());
+    }
+}
@@ -0,0 +1,96 @@
+package de.cyberport.core.search;
+
+import de.cyberport.core.index.FilmIndex;
+import de.cyberport.core.index.FilmIndexBuilder;
+import de.cyberport.core.servlets.OscarSortBy;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * @author Sentham
+ */
+@ExtendWith(AemContextExtension.class)
+class TopKSelectorTest {
+
+    private FilmIndex index;
+
+    @BeforeEach
+    void setUp(AemContext context) {
+        context.load().json("/oscars.json", "/content/oscars");
+        index = FilmIndexBuilder.build(context.resourceResolver().getResource("/content/oscars"));
+    }
+
+    @Test
+    @DisplayName("Heap selection matches a full sort with title tie-break for every sort key and limit")
+    void matchesFullSort() {
+        BitSet candidates = index.yearIndex().range(1990, 2010);
+        for (OscarSortBy sortBy : OscarSortBy.values()) {
+            for (int limit : new int[] { 1, 4, 10, 100, Integer.MAX_VALUE }) {
+                int[] expected = IntStream.range(0, index.size())
+                        .filter(candidates::get)
+                        .boxed()
+                        .sorted(comparator(sortBy).thenComparing(index::title))
+                        .limit(limit)
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+
+                assertArrayEquals(expected, TopKSelector.select(FilmSort.of(sortBy).keys(index), candidates, limit, Long.MIN_VALUE),
+                        "Unexpected selection for sortBy=" + sortBy + " and limit=" + limit);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Packed compound keys order the films like a chain of comparators")
+    void compoundKeys() {
+        BitSet candidates = index.all();
+        Comparator<Integer> title = Comparator.comparing(index::title);
+        assertSameOrder("awards,-references", null, comparator(OscarSortBy.awards)
+                .thenComparing(comparator(OscarSortBy.references).reversed()).thenComparing(title), candidates);
+        assertSameOrder("-nominations,year,-title", null, comparator(OscarSortBy.nominations).reversed()
+                .thenComparing(comparator(OscarSortBy.year)).thenComparing(title.reversed()), candidates);
+        assertSameOrder("-references", null, comparator(OscarSortBy.references).reversed().thenComparing(title), candidates);
+        assertSameOrder("references", "desc", comparator(OscarSortBy.references).thenComparing(title).reversed(), candidates);
+    }
+
+    private void assertSameOrder(String sortBy, String order, Comparator<Integer> comparator, BitSet candidates) {
+        FilmSort sort = FilmSort.parse(sortBy, order);
+        for (int limit : new int[] { 1, 10, Integer.MAX_VALUE }) {
+            int[] expected = IntStream.range(0, index.size())
+                    .filter(candidates::get)
+                    .boxed()
+                    .sorted(comparator)
+                    .limit(limit)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+
+            assertArrayEquals(expected, TopKSelector.select(sort.keys(index), candidates, limit, Long.MIN_VALUE),
+                    "Unexpected selection for sortBy=" + sort + " and limit=" + limit);
+        }
+    }
+
+    private Comparator<Integer> comparator(OscarSortBy sortBy) {
+        switch (sortBy) {
+            case year:
+                return Comparator.comparingInt(index::year);
+            case awards:
+                return Comparator.comparingInt(index::awards);
+            case nominations:
+                return Comparator.comparingInt(index::nominations);
+            case references:
+                return Comparator.comparingInt(index::references);
+            default:
+                return Comparator.comparing(index::title);
+        }
+    }
+}
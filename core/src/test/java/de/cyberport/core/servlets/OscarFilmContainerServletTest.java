@@ -3,9 +3,21 @@ package de.cyberport.core.servlets;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import de.cyberport.core.cache.impl.CompressedResponseCacheImpl;
+import de.cyberport.core.cache.impl.CompressedResponseCacheMBean;
+import de.cyberport.core.cache.impl.QueryResultCacheImpl;
+import de.cyberport.core.cache.impl.QueryResultCacheMBean;
+import de.cyberport.core.helpers.FilmCatalogGenerator;
 import de.cyberport.core.helpers.TestDataAdapter;
+import de.cyberport.core.index.FilmIndexService;
+import de.cyberport.core.index.impl.FilmIndexServiceImpl;
+import de.cyberport.core.metrics.impl.SearchMetricsImpl;
+import de.cyberport.core.search.OscarQuery;
 import io.wcm.testing.mock.aem.junit5.AemContext;
 import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
 import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
 import org.json.JSONException;
@@ -16,14 +28,28 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author Sentham
@@ -33,7 +59,7 @@ class OscarFilmContainerServletTest {
 
     private static final String APPLICATION_JSON = "application/json";
 
-    private final OscarFilmContainerServlet oscarFilmContainerServlet = new OscarFilmContainerServlet();
+    private OscarFilmContainerServlet oscarFilmContainerServlet;
 
     private MockSlingHttpServletRequest request;
 
@@ -49,6 +75,11 @@ class OscarFilmContainerServletTest {
         context.load().json("/oscars.json", "/content/oscars");
         context.currentResource("/content/oscars");
         request.setResource(context.currentResource());
+        context.registerInjectActivateService(new FilmIndexServiceImpl());
+        context.registerInjectActivateService(new QueryResultCacheImpl());
+        context.registerInjectActivateService(new SearchMetricsImpl());
+        context.registerInjectActivateService(new CompressedResponseCacheImpl());
+        oscarFilmContainerServlet = context.registerInjectActivateService(new OscarFilmContainerServlet());
     }
 
     @Test
@@ -116,6 +147,24 @@ class OscarFilmContainerServletTest {
         assertEquals(1316, resultsArray.size(),"Received incorrect number of results");
     }
 
+    @Test
+    @DisplayName("Containers outside /content are served from an index that is built for every request")
+    void unobservedContainer(AemContext context) throws IOException {
+        context.load().json("/oscars.json", "/var/oscars");
+        request.setResource(context.resourceResolver().getResource("/var/oscars"));
+        request.setParameterMap(Collections.singletonMap("title", "Parasite"));
+        oscarFilmContainerServlet.doGet(request, response);
+        assertEquals(1, new Gson().fromJson(response.getOutputAsString(), JsonObject.class).getAsJsonArray("results").size());
+
+        // No change below /var is observed, so the second request must read the renamed film again
+        context.resourceResolver().getResource("/var/oscars/1315").adaptTo(ModifiableValueMap.class).put("title", "Renamed");
+        MockSlingHttpServletResponse renamed = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, renamed);
+
+        assertEquals(HttpServletResponse.SC_OK, renamed.getStatus());
+        assertEquals(0, new Gson().fromJson(renamed.getOutputAsString(), JsonObject.class).getAsJsonArray("results").size());
+    }
+
     @Test
     @DisplayName("Parameter values doesn't match with any movie")
     void noMatchingParam(AemContext context) throws IOException {
@@ -207,4 +256,563 @@ class OscarFilmContainerServletTest {
         assertEquals(0, resultsArray.size(),"Received incorrect number of results");
         assertEquals(context.response().getContentType(), "application/json", "Incorrect content type received");
     }
+
+    @Test
+    @DisplayName("Limit is applied after sorting")
+    void limitAfterSorting(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", 2018);
+        requestParams.put("minAwards", 3);
+        requestParams.put("sortBy", OscarSortBy.nominations);
+        requestParams.put("limit", 4);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        JsonObject jsonResp = new Gson().fromJson(response.getOutputAsString(), JsonObject.class);
+        JsonArray resultsArray = jsonResp.get("results").getAsJsonArray();
+
+        assertEquals(4, resultsArray.size(),"Received incorrect number of results");
+        assertEquals("Parasite", resultsArray.get(2).getAsJsonObject().get("title").getAsString());
+        assertEquals("Black Panther", resultsArray.get(3).getAsJsonObject().get("title").getAsString());
+    }
+
+    @Test
+    @DisplayName("Repeated query is served from the result cache regardless of parameter order and title case")
+    void cachedQuery(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new LinkedHashMap<>();
+        requestParams.put("title", "Parasite");
+        requestParams.put("minYear", 2018);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        final Map<String, Object> reorderedParams = new LinkedHashMap<>();
+        reorderedParams.put("minYear", 2018);
+        reorderedParams.put("title", "PARASITE");
+        request.setParameterMap(reorderedParams);
+        MockSlingHttpServletResponse secondResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, secondResponse);
+
+        QueryResultCacheMBean cacheStats = context.getService(QueryResultCacheMBean.class);
+        assertEquals(1, cacheStats.getMissCount(), "Unexpected number of cache misses");
+        assertEquals(1, cacheStats.getHitCount(), "Unexpected number of cache hits");
+        assertEquals(response.getOutputAsString(), secondResponse.getOutputAsString());
+    }
+
+    @Test
+    @DisplayName("Films are written with a fixed property order and without jcr/sling properties")
+    void filmProperties(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("title", "Parasite");
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        assertEquals("{\"results\":[{\"title\":\"Parasite\",\"year\":2019,\"awards\":4,\"nominations\":6,"
+                + "\"isBestPicture\":true,\"numberOfReferences\":8279}]}", response.getOutputAsString());
+    }
+
+    @Test
+    @DisplayName("Parameters of one request do not leak into the next one")
+    void independentRequests(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("year", 1964);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        request.setParameterMap(new HashMap<>());
+        MockSlingHttpServletResponse secondResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, secondResponse);
+
+        JsonObject jsonResp = new Gson().fromJson(secondResponse.getOutputAsString(), JsonObject.class);
+        assertEquals(1316, jsonResp.get("results").getAsJsonArray().size(),"Received incorrect number of results");
+    }
+
+    @Test
+    @DisplayName("Malformed parameter values are rejected")
+    void malformedParam(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", "nineteen");
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus(), "Incorrect status received");
+    }
+
+    @Test
+    @DisplayName("Index is rebuilt after the container has changed")
+    void changedContainer(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("year", 1964);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        context.resourceResolver().getResource("/content/oscars/0").adaptTo(ModifiableValueMap.class).put("year", 1965);
+        context.getService(FilmIndexService.class).invalidate("/content/oscars/0");
+
+        MockSlingHttpServletResponse secondResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, secondResponse);
+
+        JsonObject jsonResp = new Gson().fromJson(secondResponse.getOutputAsString(), JsonObject.class);
+        JsonArray resultsArray = jsonResp.get("results").getAsJsonArray();
+        assertEquals(12, resultsArray.size(),"Received incorrect number of results");
+    }
+
+    @Test
+    @DisplayName("Films of a bucketed container are filtered and sorted across the buckets")
+    void bucketedContainer(AemContext context) throws IOException {
+
+        new FilmCatalogGenerator().load(context.resourceResolver(), "/content/generated", 3000, FilmCatalogGenerator.Layout.BUCKETED);
+        request.setResource(context.resourceResolver().getResource("/content/generated"));
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", 1995);
+        requestParams.put("minAwards", 3);
+        requestParams.put("sortBy", "year");
+        requestParams.put("limit", 20);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        JsonObject jsonResp = new Gson().fromJson(response.getOutputAsString(), JsonObject.class);
+        JsonArray resultsArray = jsonResp.get("results").getAsJsonArray();
+        assertEquals(20, resultsArray.size(), "Received incorrect number of results");
+        int previousYear = 1995;
+        for (int i = 0; i < resultsArray.size(); i++) {
+            JsonObject film = resultsArray.get(i).getAsJsonObject();
+            assertThat(film.get("year").getAsInt(), greaterThanOrEqualTo(previousYear));
+            assertThat(film.get("awards").getAsInt(), greaterThanOrEqualTo(3));
+            previousYear = film.get("year").getAsInt();
+        }
+    }
+
+    @Test
+    @DisplayName("Title prefix is combined with the other filters")
+    void titlePrefix(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("titlePrefix", "the LORD of");
+        requestParams.put("minAwards", 4);
+        requestParams.put("sortBy", "awards");
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        JsonObject jsonResp = new Gson().fromJson(response.getOutputAsString(), JsonObject.class);
+        JsonArray resultsArray = jsonResp.get("results").getAsJsonArray();
+        assertEquals(2, resultsArray.size(), "Received incorrect number of results");
+        assertEquals("The Lord of the Rings: The Fellowship of the Ring", resultsArray.get(0).getAsJsonObject().get("title").getAsString());
+        assertEquals("The Lord of the Rings: The Return of the King", resultsArray.get(1).getAsJsonObject().get("title").getAsString());
+    }
+
+    @Test
+    @DisplayName("Fuzzy title query ranks the best match first")
+    void titleQuery(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("titleQuery", "lord of the ring");
+        requestParams.put("limit", 3);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        JsonObject jsonResp = new Gson().fromJson(response.getOutputAsString(), JsonObject.class);
+        JsonArray resultsArray = jsonResp.get("results").getAsJsonArray();
+        assertEquals(3, resultsArray.size(), "Received incorrect number of results");
+        resultsArray.forEach(element -> assertThat(element.getAsJsonObject().get("title").getAsString(),
+                org.hamcrest.Matchers.startsWith("The Lord of the Rings")));
+    }
+
+    @Test
+    @DisplayName("Following the cursors returns every film exactly once in sort order")
+    void cursorPagination(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", 1990);
+        requestParams.put("sortBy", "nominations");
+        JsonObject allFilms = get(requestParams);
+        assertFalse(allFilms.has("nextCursor"), "Unlimited response must not have a next page");
+
+        requestParams.put("limit", 7);
+        List<String> pagedTitles = new ArrayList<>();
+        JsonObject page = get(requestParams);
+        while (true) {
+            page.get("results").getAsJsonArray().forEach(film -> pagedTitles.add(film.getAsJsonObject().get("title").getAsString()));
+            if (!page.has("nextCursor")) {
+                break;
+            }
+            requestParams.put("cursor", page.get("nextCursor").getAsString());
+            page = get(requestParams);
+        }
+
+        List<String> expectedTitles = new ArrayList<>();
+        allFilms.get("results").getAsJsonArray().forEach(film -> expectedTitles.add(film.getAsJsonObject().get("title").getAsString()));
+        assertEquals(expectedTitles, pagedTitles);
+    }
+
+    @Test
+    @DisplayName("Films added before the cursor do not shift the next page")
+    void cursorAfterEdit(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("sortBy", "year");
+        requestParams.put("limit", 2);
+        JsonObject firstPage = get(requestParams);
+        requestParams.put("cursor", firstPage.get("nextCursor").getAsString());
+        JsonObject expectedPage = get(requestParams);
+
+        final Map<String, Object> film = new HashMap<>();
+        film.put("sling:resourceType", "test/filmEntry");
+        film.put("title", "An Early Film");
+        film.put("year", 1900);
+        context.create().resource("/content/oscars/earlyFilm", film);
+        context.getService(FilmIndexService.class).invalidate("/content/oscars/earlyFilm");
+
+        assertEquals(expectedPage.get("results"), get(requestParams).get("results"));
+    }
+
+    @Test
+    @DisplayName("Malformed cursor is rejected")
+    void malformedCursor(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("cursor", "not a cursor");
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+    }
+
+    private JsonObject get(Map<String, Object> requestParams) throws IOException {
+        request.setParameterMap(requestParams);
+        MockSlingHttpServletResponse pageResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, pageResponse);
+        return new Gson().fromJson(pageResponse.getOutputAsString(), JsonObject.class);
+    }
+
+    @Test
+    @DisplayName("Request with the current ETag is answered with 304 Not Modified")
+    void notModified(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", 2000);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+        String eTag = response.getHeader("ETag");
+        assertEquals("max-age=300", response.getHeader("Cache-Control"));
+
+        MockSlingHttpServletResponse conditionalResponse = conditionalGet(context, requestParams, "If-None-Match", "\"other\", " + eTag);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, conditionalResponse.getStatus());
+        assertEquals("", conditionalResponse.getOutputAsString());
+        assertEquals(eTag, conditionalResponse.getHeader("ETag"));
+
+        requestParams.put("maxYear", 2010);
+        assertEquals(HttpServletResponse.SC_OK, conditionalGet(context, requestParams, "If-None-Match", eTag).getStatus());
+    }
+
+    @Test
+    @DisplayName("ETag changes with the content of the container")
+    void eTagAfterEdit(AemContext context) throws IOException {
+
+        oscarFilmContainerServlet.doGet(request, response);
+        String eTag = response.getHeader("ETag");
+
+        context.resourceResolver().getResource("/content/oscars").listChildren().next().adaptTo(ModifiableValueMap.class).put("awards", 12);
+        context.getService(FilmIndexService.class).invalidate("/content/oscars");
+
+        MockSlingHttpServletResponse conditionalResponse = conditionalGet(context, new HashMap<>(), "If-None-Match", eTag);
+        assertEquals(HttpServletResponse.SC_OK, conditionalResponse.getStatus());
+        assertFalse(eTag.equals(conditionalResponse.getHeader("ETag")), "ETag must change with the content");
+    }
+
+    @Test
+    @DisplayName("Indexed responses carry the newest film date as Last-Modified, If-Modified-Since is answered from it")
+    void lastModified(AemContext context) throws IOException {
+
+        Calendar containerDate = Calendar.getInstance();
+        containerDate.setTimeInMillis(1_500_000_000_000L);
+        context.resourceResolver().getResource("/content/oscars").adaptTo(ModifiableValueMap.class).put("jcr:lastModified", containerDate);
+        Calendar filmDate = Calendar.getInstance();
+        filmDate.setTimeInMillis(1_600_000_000_000L);
+        context.resourceResolver().getResource("/content/oscars/1315").adaptTo(ModifiableValueMap.class).put("jcr:lastModified", filmDate);
+        oscarFilmContainerServlet.doGet(request, response);
+        assertEquals("Sun, 13 Sep 2020 12:26:40 GMT", response.getHeader("Last-Modified"));
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED,
+                conditionalGet(context, new HashMap<>(), "If-Modified-Since", "Sun, 13 Sep 2020 12:26:40 GMT").getStatus());
+        assertEquals(HttpServletResponse.SC_OK,
+                conditionalGet(context, new HashMap<>(), "If-Modified-Since", "Sun, 13 Sep 2020 12:26:39 GMT").getStatus());
+    }
+
+    @Test
+    @DisplayName("Cache-Control max-age is configurable")
+    void cacheControl(AemContext context) throws IOException {
+
+        OscarFilmContainerServlet servlet = context.registerInjectActivateService(new OscarFilmContainerServlet(),
+                "cache.control.max.age", 0);
+        servlet.doGet(request, response);
+
+        assertEquals("no-cache", response.getHeader("Cache-Control"));
+    }
+
+    private MockSlingHttpServletResponse conditionalGet(AemContext context, Map<String, Object> requestParams, String header,
+                                                        String value) throws IOException {
+        MockSlingHttpServletRequest conditionalRequest = new MockSlingHttpServletRequest(context.resourceResolver(), context.bundleContext());
+        conditionalRequest.setResource(context.resourceResolver().getResource("/content/oscars"));
+        conditionalRequest.setParameterMap(requestParams);
+        conditionalRequest.addHeader(header, value);
+        MockSlingHttpServletResponse conditionalResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(conditionalRequest, conditionalResponse);
+        return conditionalResponse;
+    }
+
+    @Test
+    @DisplayName("Facets aggregate the filtered films instead of returning them")
+    void facets(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", 1990);
+        requestParams.put("minAwards", 2);
+        JsonArray films = get(requestParams).get("results").getAsJsonArray();
+        Map<String, Integer> expectedDecades = new HashMap<>();
+        int bestPictures = 0;
+        int maxAwards = 0;
+        for (int i = 0; i < films.size(); i++) {
+            JsonObject film = films.get(i).getAsJsonObject();
+            expectedDecades.merge(String.valueOf(film.get("year").getAsInt() / 10 * 10), 1, Integer::sum);
+            bestPictures += film.get("isBestPicture").getAsBoolean() ? 1 : 0;
+            maxAwards = Math.max(maxAwards, film.get("awards").getAsInt());
+        }
+
+        requestParams.put("facets", "year, awards,isBestPicture");
+        JsonObject jsonResp = get(requestParams);
+        assertFalse(jsonResp.has("results"), "Facets must not return the films");
+        assertEquals(films.size(), jsonResp.get("total").getAsInt());
+        JsonObject facets = jsonResp.get("facets").getAsJsonObject();
+        assertFalse(facets.has("nominations"), "Only the requested facets are returned");
+        Map<String, Integer> decades = new HashMap<>();
+        facets.getAsJsonObject("year").getAsJsonObject("buckets").entrySet()
+                .forEach(bucket -> decades.put(bucket.getKey(), bucket.getValue().getAsInt()));
+        assertEquals(expectedDecades, decades);
+        assertThat(facets.getAsJsonObject("year").get("min").getAsInt(), greaterThanOrEqualTo(1990));
+        assertEquals(maxAwards, facets.getAsJsonObject("awards").get("max").getAsInt());
+        assertEquals(bestPictures, facets.getAsJsonObject("isBestPicture").get("true").getAsInt());
+        assertEquals(films.size() - bestPictures, facets.getAsJsonObject("isBestPicture").get("false").getAsInt());
+    }
+
+    @Test
+    @DisplayName("Unknown facet is rejected")
+    void unknownFacet(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("facets", "year,rating");
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+    }
+
+    @Test
+    @DisplayName("Batch returns the result of every query under its id")
+    void batch(AemContext context) throws IOException {
+
+        final Map<String, Object> winners = new HashMap<>();
+        winners.put("isBestPicture", true);
+        winners.put("minYear", 2010);
+        final Map<String, Object> parasite = new HashMap<>();
+        parasite.put("title", "parasite");
+        final Map<String, Object> nominated = new HashMap<>();
+        nominated.put("sortBy", "nominations");
+        nominated.put("limit", 3);
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("queries", "{\"winners\": {\"isBestPicture\": true, \"minYear\": 2010},"
+                + " \"parasite\": {\"title\": \"parasite\"},"
+                + " \"nominated\": {\"sortBy\": \"nominations\", \"limit\": 3},"
+                + " \"decades\": {\"facets\": \"year\", \"isBestPicture\": true}}");
+        requestParams.put("title", "ignored");
+        JsonObject jsonResp = get(requestParams);
+
+        assertEquals(get(winners), jsonResp.get("winners"));
+        assertEquals(get(parasite), jsonResp.get("parasite"));
+        assertEquals(get(nominated), jsonResp.get("nominated"));
+        assertEquals(get(winners).get("results").getAsJsonArray().size(),
+                jsonResp.getAsJsonObject("decades").getAsJsonObject("facets").getAsJsonObject("year")
+                        .getAsJsonObject("buckets").get("2010").getAsInt());
+    }
+
+    @Test
+    @DisplayName("Malformed batch is rejected")
+    void malformedBatch(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("queries", "{\"winners\": {\"minYear\": \"recent\"}}");
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+
+        requestParams.put("queries", "[\"minYear\"]");
+        MockSlingHttpServletResponse arrayResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, arrayResponse);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, arrayResponse.getStatus());
+    }
+
+    @Test
+    @DisplayName("Search stages and response size are recorded per query shape")
+    void searchMetrics(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", 2000);
+        requestParams.put("minAwards", 3);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+        get(requestParams);
+        final Map<String, String> shapeParams = new HashMap<>();
+        requestParams.forEach((name, value) -> shapeParams.put(name, String.valueOf(value)));
+        String shape = OscarQuery.fromParameters(shapeParams::get).getShape();
+
+        SearchMetricsServlet metricsServlet = context.registerInjectActivateService(new SearchMetricsServlet());
+        MockSlingHttpServletResponse metricsResponse = new MockSlingHttpServletResponse();
+        metricsServlet.doGet(request, metricsResponse);
+        JsonObject metrics = new Gson().fromJson(metricsResponse.getOutputAsString(), JsonObject.class)
+                .getAsJsonObject("shapes").getAsJsonObject(shape);
+
+        JsonObject stages = metrics.getAsJsonObject("stages");
+        assertEquals(2, stages.getAsJsonObject("parse").get("count").getAsInt());
+        assertEquals(1, stages.getAsJsonObject("sort").get("count").getAsInt(), "The second response comes from the cache");
+        assertEquals(2, stages.getAsJsonObject("serialize").get("count").getAsInt());
+        assertFalse(stages.has("aggregate"));
+        assertEquals(response.getOutputAsString().getBytes(StandardCharsets.UTF_8).length,
+                metrics.getAsJsonObject("bytes").get("max").getAsInt());
+    }
+
+    @Test
+    @DisplayName("Gzip responses hold the same json and popular bodies come from the compressed response cache")
+    void gzip(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", 2000);
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+
+        MockSlingHttpServletResponse gzipResponse = conditionalGet(context, requestParams, "Accept-Encoding", "deflate, gzip;q=0.8");
+        assertEquals("gzip", gzipResponse.getHeader("Content-Encoding"));
+        assertEquals(gzipResponse.getOutput().length, gzipResponse.getContentLength());
+        assertNotEquals(response.getHeader("ETag"), gzipResponse.getHeader("ETag"), "Each encoding has an entity tag of its own");
+        assertEquals(response.getOutputAsString(), gunzip(gzipResponse.getOutput()));
+        assertEquals(HttpServletResponse.SC_OK, conditionalGet(context, requestParams, "Accept-Encoding", "gzip;q=0").getStatus());
+        assertNull(conditionalGet(context, requestParams, "Accept-Encoding", "gzip;q=0").getHeader("Content-Encoding"));
+
+        CompressedResponseCacheMBean cache = context.getService(CompressedResponseCacheMBean.class);
+        conditionalGet(context, requestParams, "Accept-Encoding", "gzip");
+        assertEquals(0, cache.getHitCount(), "Filtered bodies are cached on their second request");
+        assertEquals(gunzip(gzipResponse.getOutput()),
+                gunzip(conditionalGet(context, requestParams, "Accept-Encoding", "gzip").getOutput()));
+        assertEquals(1, cache.getHitCount());
+
+        MockSlingHttpServletResponse unfiltered = conditionalGet(context, new HashMap<>(), "Accept-Encoding", "gzip");
+        assertArrayEquals(unfiltered.getOutput(), conditionalGet(context, new HashMap<>(), "Accept-Encoding", "gzip").getOutput());
+        assertEquals(2, cache.getHitCount(), "Unfiltered bodies are cached on their first request");
+    }
+
+    @Test
+    @DisplayName("Most referenced best pictures come first with a descending references sort")
+    void referencesDescending() throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("isBestPicture", true);
+        requestParams.put("sortBy", "references");
+        requestParams.put("order", "desc");
+        requestParams.put("minReferences", 1000);
+        JsonArray films = get(requestParams).get("results").getAsJsonArray();
+
+        assertTrue(films.size() > 1);
+        for (int i = 0; i < films.size(); i++) {
+            JsonObject film = films.get(i).getAsJsonObject();
+            assertTrue(film.get("isBestPicture").getAsBoolean());
+            assertThat(film.get("numberOfReferences").getAsInt(), greaterThanOrEqualTo(1000));
+            if (i > 0) {
+                assertThat(film.get("numberOfReferences").getAsInt(),
+                        lessThanOrEqualTo(films.get(i - 1).getAsJsonObject().get("numberOfReferences").getAsInt()));
+            }
+        }
+
+        requestParams.put("sortBy", "awards,-references");
+        requestParams.remove("order");
+        JsonArray compound = get(requestParams).get("results").getAsJsonArray();
+        assertEquals(films.size(), compound.size());
+        for (int i = 1; i < compound.size(); i++) {
+            JsonObject previous = compound.get(i - 1).getAsJsonObject();
+            JsonObject film = compound.get(i).getAsJsonObject();
+            int awards = Integer.compare(previous.get("awards").getAsInt(), film.get("awards").getAsInt());
+            assertTrue(awards < 0 || awards == 0
+                    && previous.get("numberOfReferences").getAsInt() >= film.get("numberOfReferences").getAsInt(), "Unexpected order at " + i);
+        }
+    }
+
+    @Test
+    @DisplayName("Compound sorts whose value ranges do not fit into a sort key are rejected as bad request")
+    void compoundSortOverflow(AemContext context) throws IOException {
+        context.create().resource("/content/extreme", "sling:resourceType", "test/filmEntryContainer");
+        context.create().resource("/content/extreme/low", "title", "Low", "year", -2_000_000_000,
+                "awards", -2_000_000_000, "nominations", -2_000_000_000);
+        context.create().resource("/content/extreme/high", "title", "High", "year", 2_000_000_000,
+                "awards", 2_000_000_000, "nominations", 2_000_000_000);
+        request.setResource(context.resourceResolver().getResource("/content/extreme"));
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("sortBy", "year,awards,nominations");
+        request.setParameterMap(requestParams);
+
+        oscarFilmContainerServlet.doGet(request, response);
+
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+    }
+
+    @Test
+    @DisplayName("NDJSON extension streams one film per line in response order")
+    void ndjson(AemContext context) throws IOException {
+
+        final Map<String, Object> requestParams = new HashMap<>();
+        requestParams.put("minYear", 1990);
+        requestParams.put("sortBy", "awards");
+        request.setParameterMap(requestParams);
+        oscarFilmContainerServlet.doGet(request, response);
+        JsonArray films = new Gson().fromJson(response.getOutputAsString(), JsonObject.class).get("results").getAsJsonArray();
+
+        context.requestPathInfo().setExtension("ndjson");
+        MockSlingHttpServletResponse ndjsonResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, ndjsonResponse);
+        assertEquals("application/x-ndjson", ndjsonResponse.getContentType());
+        assertNotEquals(response.getHeader("ETag"), ndjsonResponse.getHeader("ETag"), "Each format has an entity tag of its own");
+        String[] lines = ndjsonResponse.getOutputAsString().split("\n");
+        assertEquals(films.size(), lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(films.get(i), JsonParser.parseString(lines[i]));
+        }
+
+        request.addHeader("Accept-Encoding", "gzip");
+        MockSlingHttpServletResponse gzipResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, gzipResponse);
+        assertEquals("gzip", gzipResponse.getHeader("Content-Encoding"));
+        assertEquals(ndjsonResponse.getOutputAsString(), gunzip(gzipResponse.getOutput()));
+
+        requestParams.put("titleQuery", "the");
+        requestParams.put("limit", 3);
+        request.setParameterMap(requestParams);
+        MockSlingHttpServletResponse titleResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, titleResponse);
+        assertEquals(3, gunzip(titleResponse.getOutput()).split("\n").length);
+
+        request.setParameterMap(Collections.singletonMap("queries", "{\"all\": {}}"));
+        MockSlingHttpServletResponse batchResponse = new MockSlingHttpServletResponse();
+        oscarFilmContainerServlet.doGet(request, batchResponse);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, batchResponse.getStatus());
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
 }